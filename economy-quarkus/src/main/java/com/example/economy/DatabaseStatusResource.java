@@ -1,12 +1,18 @@
 package com.example.economy;
 
 import com.example.economy.core.Database;
+import com.example.economy.core.DatabaseRouter;
+import com.example.economy.core.ShardSplitter;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
 
 import java.sql.Connection;
@@ -27,6 +33,12 @@ public class DatabaseStatusResource {
     @Inject
     Database database;
 
+    @Inject
+    DatabaseRouter router;
+
+    @Inject
+    ShardSplitter splitter;
+
     /**
      * Тестовый endpoint без авторизации
      */
@@ -55,6 +67,11 @@ public class DatabaseStatusResource {
         
         // Дополнительная информация о репликации
         status.put("replication_info", getReplicationInfo());
+
+        // Пулы реплик глазами роутера: отставание, задержки, исключение
+        status.put("read_pools", router.replicaStats());
+        status.put("hedged_reads", router.hedgeStats());
+        status.put("shards", router.shardStats());
         
         return status;
     }
@@ -70,6 +87,36 @@ public class DatabaseStatusResource {
         return getReplicationInfo();
     }
 
+    /**
+     * Карта шардов владельцев и ход текущего переноса
+     */
+    @GET
+    @Path("/shards")
+    @Produces(MediaType.APPLICATION_JSON)
+    // @RolesAllowed({"admin", "developer"}) // Временно отключено для тестирования
+    public Map<String, Object> getShards() {
+        return splitter.stats();
+    }
+
+    /**
+     * Добавить шард: перенос части владельцев и переключение роутинга (в фоне, ход — GET /shards).
+     * Datasources шарда должны быть заранее сконфигурированы на всех узлах.
+     */
+    @POST
+    @Path("/shards/split")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed("admin")
+    public ShardSplitter.Progress splitShard(@QueryParam("name") String name,
+                                             @QueryParam("vnodes") @DefaultValue("128") int vnodes) {
+        try {
+            return splitter.start(name, vnodes);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e.getMessage(), 400);
+        } catch (IllegalStateException e) {
+            throw new WebApplicationException(e.getMessage(), 409);
+        }
+    }
+
     /**
      * Тестирование соединений с репликами
      */
@@ -80,11 +127,10 @@ public class DatabaseStatusResource {
     public Map<String, Object> testReplicas() {
         Map<String, Object> results = new HashMap<>();
         
-        // Тест replica 1
-        results.put("replica1", testReplicaConnection(1));
-        
-        // Тест replica 2
-        results.put("replica2", testReplicaConnection(2));
+        // Тест каждой реплики из app.db.read-pools
+        for (int i = 1; i <= router.replicaCount(); i++) {
+            results.put("replica" + i, testReplicaConnection(i));
+        }
         
         // Тест чтения из случайной реплики
         results.put("random_read_test", testRandomRead());
@@ -1,5 +1,8 @@
 package com.example.economy;
 
+import com.example.economy.core.DueReconciler;
+import com.example.economy.core.JobRetention;
+import com.example.economy.core.JobTimerService;
 import com.example.economy.core.RedisBus;
 import com.example.economy.core.Repositories;
 import io.quarkus.redis.datasource.sortedset.ScoredValue;
@@ -21,6 +24,9 @@ public class DebugResource {
 
     @Inject RedisBus redis;
     @Inject Repositories repo; // нужен для drain() чтобы завершать джобы сразу в БД
+    @Inject JobTimerService timers;
+    @Inject DueReconciler reconciler;
+    @Inject JobRetention retention;
 
     /**
      * Получить все задачи из Redis ZSET с признаком просрочки.
@@ -109,21 +115,22 @@ public class DebugResource {
         List<String> done = new ArrayList<>();
 
         try {
-            while (processed < limit) {
-                var e = redis.tryPopDueAtomic(now);
-                if (e == null) break;
-
-                String jobId = e.getKey();
-                try {
-                    boolean ok = repo.markDoneAndReward(java.util.UUID.fromString(jobId));
-                    if (ok) {
-                        done.add(jobId);
-                        processed++;
-                    } else {
-                        // по желанию: отправить в dead-letter
-                    }
-                } catch (Exception ex) {
-                    // по желанию: dead-letter
+            int popped = 0;
+            for (int shard = 0; shard < redis.shardCount() && popped < limit; shard++) {
+                Map<java.util.UUID, Long> endByJob = new LinkedHashMap<>();
+                for (var e : redis.popDueJobs(shard, now, limit - popped)) {
+                    endByJob.put(java.util.UUID.fromString(e.getKey()), e.getValue());
+                }
+                popped += endByJob.size();
+                if (endByJob.isEmpty()) continue;
+                Repositories.DoneBatch res = repo.markDoneAndRewardBatch(endByJob);
+                for (var jobId : res.done().keySet()) {
+                    done.add(jobId.toString());
+                    processed++;
+                }
+                // владелец переезжает между шардами БД — вернуть в due-сет, завершит таймер
+                for (var jobId : res.deferred()) {
+                    redis.scheduleJobInShard(shard, jobId.toString(), endByJob.get(jobId));
                 }
             }
 
@@ -149,7 +156,10 @@ public class DebugResource {
         try {
             String jobId = java.util.UUID.randomUUID().toString();
             long endMs = System.currentTimeMillis() + Math.max(1, seconds) * 1000L;
-            redis.scheduleJob(jobId, endMs);
+            // фейковая задача без владельца — случайный owner влияет только на выбор шарда
+            java.util.UUID owner = java.util.UUID.randomUUID();
+            redis.scheduleJob(owner, jobId, endMs);
+            timers.onJobScheduled(owner, jobId, endMs);
             return Map.of(
                     "jobId", jobId,
                     "endTime", endMs,
@@ -160,6 +170,52 @@ public class DebugResource {
         }
     }
 
+    /**
+     * Итоги последней сверки due-сетов Redis с Postgres.
+     */
+    @GET
+    @Path("/reconcile")
+    public Map<String, Object> reconcileStats() {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("last", reconciler.lastStats());
+        payload.put("totalRepaired", reconciler.totalRepaired());
+        return payload;
+    }
+
+    /**
+     * Запустить сверку due-сетов немедленно (на любом узле, независимо от владения шардом 0).
+     */
+    @POST
+    @Path("/reconcile")
+    public Map<String, Object> reconcileNow() {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("result", reconciler.reconcile());
+        payload.put("totalRepaired", reconciler.totalRepaired());
+        return payload;
+    }
+
+    /**
+     * Итоги последнего прохода обслуживания партиций production_jobs.
+     */
+    @GET
+    @Path("/retention")
+    public Map<String, Object> retentionStats() {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("last", retention.lastStats());
+        return payload;
+    }
+
+    /**
+     * Запустить архивацию и обслуживание партиций немедленно (на любом узле).
+     */
+    @POST
+    @Path("/retention")
+    public Map<String, Object> retentionNow() {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("result", retention.run());
+        return payload;
+    }
+
     /**
      * Добавить материалы игроку (для тестирования).
      */
@@ -232,7 +288,7 @@ public class DebugResource {
             }
             
             UUID owner = UUID.fromString(ownerUuid);
-            redis.invalidateSkillLevel(owner, skillId);
+            redis.invalidateSkillLevels(owner); // уровни игрока лежат одним hash'ем
             
             return Map.of(
                     "success", true,
@@ -0,0 +1,82 @@
+package com.example.economy;
+
+import com.example.economy.core.MatchingEngine;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import org.jboss.logging.Logger;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+@Path("/api/v1/market")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class MarketResource {
+
+    private static final Logger LOG = Logger.getLogger(MarketResource.class);
+
+    @Inject MatchingEngine engine;
+
+    // ===== DTO =====
+    public record PlaceReq(UUID ownerUuid, String itemId, MatchingEngine.Side side, long price, long qty) {}
+    public record CancelReq(UUID ownerUuid, String itemId, long orderId) {}
+
+    @POST
+    @Path("/orders")
+    public CompletionStage<Map<String, Object>> place(PlaceReq req) {
+        CompletableFuture<MatchingEngine.PlaceResult> f;
+        try {
+            f = engine.place(req.ownerUuid(), req.itemId(), req.side(), req.price(), req.qty());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return CompletableFuture.completedFuture(error(e));
+        }
+        return f.<Map<String, Object>>thenApply(r -> Map.of(
+                "success", true,
+                "orderId", r.orderId(),
+                "status", r.status(),
+                "filled", r.filled(),
+                "remaining", r.remaining(),
+                "trades", r.trades()
+        )).exceptionally(MarketResource::error);
+    }
+
+    @POST
+    @Path("/orders/cancel")
+    public CompletionStage<Map<String, Object>> cancel(CancelReq req) {
+        CompletableFuture<Boolean> f;
+        try {
+            f = engine.cancel(req.ownerUuid(), req.itemId(), req.orderId());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return CompletableFuture.completedFuture(error(e));
+        }
+        return f.<Map<String, Object>>thenApply(ok -> Map.of("success", true, "cancelled", ok))
+                .exceptionally(MarketResource::error);
+    }
+
+    @GET
+    @Path("/book/{itemId}")
+    public CompletionStage<MatchingEngine.Depth> book(@PathParam("itemId") String itemId,
+                                                      @QueryParam("levels") @DefaultValue("10") int levels) {
+        try {
+            return engine.depth(itemId, levels);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e.getMessage(), 400);
+        } catch (IllegalStateException e) {
+            throw new WebApplicationException(e.getMessage(), 503);
+        }
+    }
+
+    private static Map<String, Object> error(Throwable t) {
+        Throwable e = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (e instanceof IllegalArgumentException || e instanceof IllegalStateException) {
+            // ожидаемые отказы: неверная заявка, движок выключен или перегружен
+            return Map.of("success", false, "error", Map.of("type", "validation_error", "message", e.getMessage()));
+        }
+        LOG.error("Unexpected market error", e);
+        return Map.of("success", false, "error", Map.of("type", "server_error", "message", "Market operation failed"));
+    }
+}
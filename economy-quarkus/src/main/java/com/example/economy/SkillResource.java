@@ -1,7 +1,6 @@
 package com.example.economy;
 
 import com.example.economy.core.NatsBus;
-import com.example.economy.core.RedisBus;
 import com.example.economy.core.Repositories;
 import com.example.economy.core.SkillCatalogService;
 import com.example.economy.core.SkillRepo;
@@ -23,7 +22,6 @@ public class SkillResource {
     private static final Logger LOG = Logger.getLogger(SkillResource.class);
 
     @Inject Repositories repo;
-    @Inject RedisBus redis;
     @Inject NatsBus nats;
 
     // Новый: серверный каталог скиллов (загружен из БД и закэширован в памяти)
@@ -100,9 +98,7 @@ public class SkillResource {
             var t = repo.startSkillTraining(req.ownerUuid(), def.id, now, dur);
             LOG.infof("Skill training started: %s", t);
 
-            // Планируем завершение в Redis
-            redis.scheduleSkill(req.ownerUuid(), t.endMs());
-            LOG.infof("Skill training scheduled in Redis for completion at: %d", t.endMs());
+            // Завершение ставится в skill:due через outbox той же транзакцией, что и старт
 
             // Публикуем событие начала тренировки в NATS
             try {
@@ -148,6 +144,35 @@ public class SkillResource {
         return Map.of("level", repo.getSkillLevel(owner, skillId));
     }
 
+    // ===== Всё состояние навыков игрока одним запросом =====
+    @GET @Path("/state")
+    public Map<String,Object> state(@QueryParam("ownerUuid") UUID owner) throws Exception {
+        if (owner == null) throw new WebApplicationException("ownerUuid is required", 400);
+
+        String etag = catalog.etag();
+        List<String> ids = new ArrayList<>();
+        for (SkillRepo.Skill s : catalog.allSkills()) ids.add(s.id);
+        Map<String, Integer> levels = repo.getSkillLevels(owner, ids);
+
+        var t = repo.getActiveTraining(owner);
+        Map<String, Object> current = null;
+        if (t != null) {
+            current = Map.of(
+                    "skillId", t.skillId(),
+                    "targetLevel", t.targetLevel(),
+                    "startMs", t.startMs(),
+                    "endMs", t.endMs(),
+                    "leftMs", Math.max(0, t.endMs() - System.currentTimeMillis())
+            );
+        }
+
+        var map = new LinkedHashMap<String,Object>();
+        map.put("etag", etag);
+        map.put("levels", levels);
+        map.put("current", current);
+        return map;
+    }
+
     // ===== Статус активной тренировки =====
     @GET @Path("/status")
     public Map<String,Object> status(@QueryParam("ownerUuid") UUID owner) throws Exception {
@@ -0,0 +1,46 @@
+package com.example.economy;
+
+import com.example.economy.core.WalletService;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import org.jboss.logging.Logger;
+
+import java.util.Map;
+import java.util.UUID;
+
+@Path("/api/v1/wallet")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class WalletResource {
+
+    private static final Logger LOG = Logger.getLogger(WalletResource.class);
+
+    @Inject WalletService wallets;
+
+    @GET
+    public Map<String, Object> balance(@QueryParam("ownerUuid") String ownerUuid) {
+        UUID owner;
+        try {
+            owner = UUID.fromString(ownerUuid);
+        } catch (Exception e) {
+            throw new WebApplicationException("Invalid ownerUuid", 400);
+        }
+        try {
+            WalletService.Balance b = wallets.balance(owner);
+            return Map.of(
+                    "balance", b.balance(),
+                    "reserved", b.reserved(),
+                    "available", b.available()
+            );
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e.getMessage(), 404);
+        } catch (IllegalStateException e) {
+            // кошельки обслуживает только узел с движком рынка
+            throw new WebApplicationException(e.getMessage(), 503);
+        } catch (Exception e) {
+            LOG.error("Failed to read wallet", e);
+            throw new WebApplicationException("Failed to read wallet", 500);
+        }
+    }
+}
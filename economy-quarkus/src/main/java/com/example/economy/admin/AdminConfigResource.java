@@ -9,8 +9,10 @@ import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.jboss.logging.Logger;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -41,8 +43,8 @@ public class AdminConfigResource {
     public Response getSystemStats() {
         try {
             var skills = skillCatalog.allSkills();
-            var recipes = recipeService.getAllRecipes();
-            var bonuses = recipeService.getAllSkillBonuses();
+            // рецепты и бонусы — из снимка каталога, без обращения к БД
+            var catalog = recipeService.catalog();
             
             return Response.ok(Map.of(
                 "skills", Map.of(
@@ -50,14 +52,16 @@ public class AdminConfigResource {
                     "enabled", skills.stream().mapToInt(s -> s.enabled ? 1 : 0).sum()
                 ),
                 "recipes", Map.of(
-                    "total", recipes.size(),
-                    "enabled", recipes.stream().mapToInt(r -> r.enabled ? 1 : 0).sum(),
-                    "categories", recipes.stream().map(r -> r.category).distinct().count()
+                    "total", catalog.recipes().size(),
+                    "enabled", catalog.enabledRecipes(),
+                    "categories", catalog.categories(),
+                    "version", catalog.version(),
+                    "etag", catalog.etag()
                 ),
                 "bonuses", Map.of(
-                    "total", bonuses.size(),
-                    "enabled", bonuses.stream().mapToInt(b -> b.enabled ? 1 : 0).sum(),
-                    "operations", bonuses.stream().map(b -> b.operation).distinct().count()
+                    "total", catalog.bonuses().size(),
+                    "enabled", catalog.enabledBonuses(),
+                    "operations", catalog.bonusOperations()
                 ),
                 "system", Map.of(
                     "user", "admin",
@@ -84,6 +88,7 @@ public class AdminConfigResource {
             
             configManager.reloadConfigurations();
             skillCatalog.refresh();
+            recipeService.refresh();
             
             return Response.ok(Map.of(
                 "message", "Configurations reloaded successfully",
@@ -256,11 +261,13 @@ public class AdminConfigResource {
     @Path("/recipes")
     public Response getRecipes() {
         try {
-            var recipes = recipeService.getAllRecipes();
+            var catalog = recipeService.catalog();
             
             return Response.ok(Map.of(
-                "recipes", recipes,
-                "total", recipes.size()
+                "recipes", catalog.recipes(),
+                "total", catalog.recipes().size(),
+                "version", catalog.version(),
+                "etag", catalog.etag()
             )).build();
         } catch (Exception e) {
             LOG.error("Failed to get recipes", e);
@@ -270,6 +277,55 @@ public class AdminConfigResource {
         }
     }
     
+    /**
+     * Массовый импорт рецептов: NDJSON (по рецепту на строку), читается потоково,
+     * пишется чанками по chunk рецептов, каждый чанк — своя транзакция
+     */
+    @POST
+    @Path("/recipes/bulk")
+    @Consumes({"application/x-ndjson", MediaType.TEXT_PLAIN, MediaType.APPLICATION_OCTET_STREAM})
+    @PermitAll
+    public Response bulkImportRecipes(InputStream body, @QueryParam("chunk") @DefaultValue("500") int chunk) {
+        try {
+            var result = recipeService.importRecipes(body, chunk);
+            
+            return Response.ok(Map.of(
+                "imported", result.imported(),
+                "chunks", result.chunks(),
+                "errors", result.errors(),
+                "version", recipeService.catalog().version()
+            )).build();
+        } catch (Exception e) {
+            LOG.error("Failed to bulk import recipes", e);
+            return Response.status(500)
+                .entity(Map.of("error", e.getMessage()))
+                .build();
+        }
+    }
+    
+    /**
+     * Потоковый экспорт всех рецептов в NDJSON (формат совместим с /recipes/bulk)
+     */
+    @GET
+    @Path("/recipes/export")
+    @Produces("application/x-ndjson")
+    public Response exportRecipes() {
+        var catalog = recipeService.catalog();
+        StreamingOutput body = out -> {
+            try {
+                recipeService.exportRecipes(catalog, out); // тот же снимок, что и в ETag
+            } catch (java.io.IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new java.io.IOException(e);
+            }
+        };
+        return Response.ok(body)
+            .header("ETag", "\"" + catalog.etag() + "\"")
+            .header("Content-Disposition", "attachment; filename=\"recipes.ndjson\"")
+            .build();
+    }
+    
     /**
      * Создать новый рецепт
      */
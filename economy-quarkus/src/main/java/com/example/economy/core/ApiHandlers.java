@@ -2,6 +2,7 @@ package com.example.economy.core;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.util.*;
 import java.util.UUID;
@@ -14,19 +15,19 @@ public class ApiHandlers {
     public record ClaimRequest(UUID ownerUuid) {}
 
     private final Repositories repo;
-    private final RedisBus redis;
     private final NatsBus nats;
+    private final boolean pipelinedStart;
 
     // новое: рецепты и каталог скиллов (для бонусов)
     private final RecipeRegistry recipes;
     private final SkillCatalogService skills;
 
     @Inject
-    public ApiHandlers(Repositories repo, RedisBus redis, NatsBus nats,
-                       RecipeRegistry recipes, SkillCatalogService skills) {
+    public ApiHandlers(Repositories repo, NatsBus nats, RecipeRegistry recipes, SkillCatalogService skills,
+                       @ConfigProperty(name = "app.production.pipelined-start", defaultValue = "true") boolean pipelinedStart) {
         this.repo = repo;
-        this.redis = redis;
         this.nats = nats;
+        this.pipelinedStart = pipelinedStart;
         this.recipes = recipes;
         this.skills = skills;
     }
@@ -42,48 +43,50 @@ public class ApiHandlers {
             throw new IllegalArgumentException("Unknown recipeId: " + rq.recipeId());
         }
 
-        // 2) считаем множитель стоимости входов по скиллам игрока
+        // 2) рецепт может быть закрыт навыком (UNLOCK_RECIPE); множитель стоимости входов по скиллам игрока
+        if (!skills.isRecipeUnlocked(rq.ownerUuid(), recipe.id, recipe.tag)) {
+            throw new IllegalArgumentException("Рецепт ещё не открыт: " + recipe.id);
+        }
         double costMult = skills.inputCostMultiplier(rq.ownerUuid(), recipe.id, recipe.tag);
 
         // 3) итоговые требования по материалам (ceil, чтобы не терять доли)
         Map<String, Long> needed = new LinkedHashMap<>();
-        for (var in : recipe.inputs) {
-            long eff = (long) Math.ceil(in.qty * costMult);
-            if (eff > 0) needed.put(in.itemId, eff);
-        }
-
-        // 4) атомарно списываем материалы (кинет IllegalStateException если не хватает)
-        try {
-            repo.consumeMaterials(rq.ownerUuid(), needed);
-        } catch (IllegalStateException notEnough) {
-            // Превращаем в понятное сообщение для пользователя
-            String msg = notEnough.getMessage();
-            // Парсим сообщение типа "Not enough ore.iron need 10 have 0"
-            if (msg.contains("Not enough")) {
-                throw new IllegalArgumentException("Недостаточно материалов для производства: " + msg.replace("Not enough", "Нужно").replace("need", "требуется").replace("have", "имеется"));
-            } else {
-                throw new IllegalArgumentException("Недостаточно материалов: " + msg);
-            }
+        for (int i = 0; i < recipe.inputCount(); i++) {
+            long eff = (long) Math.ceil(recipe.inputQty(i) * costMult);
+            if (eff > 0) needed.put(recipe.inputItemId(i), eff);
         }
 
-        // 5) считаем длительность
+        // 4) считаем длительность
         long now = System.currentTimeMillis();
-        long baseDurMs = recipe.baseDurationMs;
+        double durMult = skills.durationMultiplier(rq.ownerUuid(), recipe.id, recipe.tag);
+        long baseDurMs = (long) Math.ceil(recipe.baseDurationMs * durMult);
         long requestedMs = Math.max(0, rq.durationSeconds()) * 1000L;
         // если клиент ничего не прислал по времени — берём базовую длительность рецепта
         long end = now + (requestedMs > 0 ? requestedMs : baseDurMs);
-
-        // 6) создаём задачу
         UUID jobId = UUID.randomUUID();
-        repo.createJob(jobId, rq.ownerUuid(), recipe.id, now, end, rq.idempotencyKey());
-
-        // 7) планируем в Redis
-        try {
-            redis.scheduleJob(jobId.toString(), end);
-        } catch (Exception e) {
-            // материалы уже списаны и job создан — логируем, но не падаем
-            System.err.println("Redis scheduling failed: " + e.getMessage());
-            e.printStackTrace();
+
+        if (pipelinedStart) {
+            // 5) списание и создание задачи — одна транзакция; Redis/NATS — после коммита через outbox
+            Repositories.JobRow row;
+            try {
+                row = repo.startJob(jobId, rq.ownerUuid(), recipe.id, needed, now, end, rq.idempotencyKey());
+            } catch (IllegalStateException notEnough) {
+                throw notEnoughMaterials(notEnough);
+            }
+            jobId = row.id();
+            end = row.endMs();
+        } else {
+            // 5) атомарно списываем материалы (кинет IllegalStateException если не хватает)
+            try {
+                repo.consumeMaterials(rq.ownerUuid(), needed);
+            } catch (IllegalStateException notEnough) {
+                throw notEnoughMaterials(notEnough);
+            }
+
+            // 6) создаём задачу (постановку в Redis доставит outbox после коммита)
+            var row = repo.createJob(jobId, rq.ownerUuid(), recipe.id, now, end, rq.idempotencyKey());
+            jobId = row.id();
+            end = row.endMs();
         }
 
         // 8) ответ
@@ -92,10 +95,20 @@ public class ApiHandlers {
                 "jobId", jobId.toString(),
                 "endMs", end,
                 "multiplier", costMult,
+                "durationMultiplier", durMult,
                 "inputs", needed   // что реально списали
         );
     }
 
+    /** Превращаем "Not enough ore.iron need 10 have 0" в понятное сообщение для пользователя. */
+    private static IllegalArgumentException notEnoughMaterials(IllegalStateException notEnough) {
+        String msg = notEnough.getMessage();
+        if (msg.contains("Not enough")) {
+            return new IllegalArgumentException("Недостаточно материалов для производства: " + msg.replace("Not enough", "Нужно").replace("need", "требуется").replace("have", "имеется"));
+        }
+        return new IllegalArgumentException("Недостаточно материалов: " + msg);
+    }
+
     public List<Repositories.JobRow> listJobs(UUID owner) throws Exception {
         return repo.listJobs(owner);
     }
@@ -0,0 +1,159 @@
+package com.example.economy.core;
+
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Инкрементальное обновление каталогов по LISTEN/NOTIFY (триггеры из V14__catalog_notify.sql).
+ *
+ * Держит одно выделенное соединение вне пула (LISTEN живёт, пока жива сессия; через PgBouncer
+ * работает только в session mode — иначе укажите app.catalog.notify.jdbc-url прямо на primary).
+ * Уведомления копятся debounce-ms, затем пачкой уходят в SkillCatalogService.applyChanges и
+ * ExtendedRecipeService.refreshRecipes — перечитываются только изменённые строки.
+ * После (пере)подключения делается полный refresh: уведомления за время разрыва потеряны.
+ */
+@ApplicationScoped
+@Startup
+public class CatalogChangeListener {
+    private static final Logger LOG = Logger.getLogger(CatalogChangeListener.class.getName());
+
+    public static final String CHANNEL = "catalog_changed";
+
+    @Inject SkillCatalogService skills;
+    @Inject ExtendedRecipeService recipes;
+
+    @ConfigProperty(name = "app.catalog.notify.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.catalog.notify.jdbc-url", defaultValue = "${quarkus.datasource.write.jdbc.url}")
+    String jdbcUrl;
+
+    @ConfigProperty(name = "quarkus.datasource.write.username")
+    String username;
+
+    @ConfigProperty(name = "quarkus.datasource.write.password")
+    String password;
+
+    // окно склейки уведомлений: массовая правка каталога -> одна перезагрузка
+    @ConfigProperty(name = "app.catalog.notify.debounce-ms", defaultValue = "50")
+    long debounceMs;
+
+    private Thread worker;
+    private volatile boolean running;
+    private volatile Connection conn;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            LOG.info("CatalogChangeListener disabled");
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "catalog-listener");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (worker != null) worker.interrupt();
+        closeQuietly();
+    }
+
+    private void run() {
+        boolean first = true;
+        while (running) {
+            try {
+                connect();
+                // первое подключение совпадает со стартом — каталоги только что загружены
+                if (!first) {
+                    skills.refresh();
+                    recipes.refresh();
+                }
+                first = false;
+                listen();
+            } catch (Exception e) {
+                if (!running) break;
+                LOG.warning("Catalog listener connection lost, reconnecting: " + e.getMessage());
+                closeQuietly();
+                try { TimeUnit.SECONDS.sleep(1); } catch (InterruptedException ie) { if (!running) break; }
+            }
+        }
+    }
+
+    private void connect() throws Exception {
+        Connection c = DriverManager.getConnection(jdbcUrl, username, password);
+        try (Statement st = c.createStatement()) {
+            st.execute("LISTEN " + CHANNEL);
+        }
+        conn = c;
+        LOG.info("Listening for catalog changes on " + CHANNEL);
+    }
+
+    private void listen() throws Exception {
+        PGConnection pg = conn.unwrap(PGConnection.class);
+        Set<String> skillIds = new HashSet<>();
+        Set<String> bonusSkillIds = new HashSet<>();
+        Set<String> recipeIds = new HashSet<>();
+        while (running) {
+            // ждём первое уведомление, затем добираем всё, что пришло за окно debounce
+            PGNotification[] batch = pg.getNotifications(1000);
+            if (batch == null || batch.length == 0) continue;
+            collect(batch, skillIds, bonusSkillIds, recipeIds);
+            long until = System.currentTimeMillis() + debounceMs;
+            long left;
+            while ((left = until - System.currentTimeMillis()) > 0) {
+                PGNotification[] more = pg.getNotifications((int) left);
+                if (more != null) collect(more, skillIds, bonusSkillIds, recipeIds);
+            }
+
+            if (!skillIds.isEmpty() || !bonusSkillIds.isEmpty()) {
+                skills.applyChanges(Set.copyOf(skillIds), Set.copyOf(bonusSkillIds));
+            }
+            if (!recipeIds.isEmpty()) recipes.refreshRecipes(Set.copyOf(recipeIds));
+            if (!bonusSkillIds.isEmpty()) recipes.refreshBonuses(); // админский список бонусов — в снимке рецептов
+            LOG.fine("Catalog changes applied: skills=" + skillIds + ", bonuses=" + bonusSkillIds + ", recipes=" + recipeIds);
+            skillIds.clear();
+            bonusSkillIds.clear();
+            recipeIds.clear();
+        }
+    }
+
+    private static void collect(PGNotification[] batch, Set<String> skillIds, Set<String> bonusSkillIds, Set<String> recipeIds) {
+        for (PGNotification n : batch) {
+            String p = n.getParameter();
+            int colon = p.indexOf(':');
+            if (colon < 0) continue;
+            String id = p.substring(colon + 1);
+            switch (p.substring(0, colon)) {
+                case "skill" -> skillIds.add(id);
+                case "bonus" -> bonusSkillIds.add(id);
+                case "recipe" -> recipeIds.add(id);
+                default -> LOG.warning("Unknown catalog notification: " + p);
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        Connection c = conn;
+        conn = null;
+        if (c != null) {
+            try { c.close(); } catch (Exception ignored) {}
+        }
+    }
+}
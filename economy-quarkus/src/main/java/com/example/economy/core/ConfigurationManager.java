@@ -1,15 +1,25 @@
 package com.example.economy.core;
 
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Менеджер конфигураций для автоматической загрузки скиллов и рецептов из JSON
@@ -18,6 +28,14 @@ import java.util.List;
 public class ConfigurationManager {
     private static final Logger LOG = Logger.getLogger(ConfigurationManager.class);
     
+    // версия формата заливки: поменять, если меняется то, как конфиг превращается в строки БД
+    private static final String SEED_FORMAT = "seed-v1";
+    private static final long SEED_LOCK_KEY = 0x65636f6e_73656564L; // "econseed"
+    private static final ObjectMapper HASH_MAPPER = JsonMapper.builder()
+        .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+        .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+        .build();
+    
     @Inject Database db;
     @Inject ExtendedRecipeService recipeService;
     private final ObjectMapper objectMapper = new ObjectMapper();
@@ -83,8 +101,11 @@ public class ConfigurationManager {
     void init() {
         LOG.info("🔄 Loading configurations from JSON files...");
         try {
-            loadSkillsFromResources();
-            loadRecipesFromResources();
+            List<SkillConfig> skills = new ArrayList<>();
+            List<RecipeConfig> recipes = new ArrayList<>();
+            loadSkillsFromResources(skills);
+            loadRecipesFromResources(recipes);
+            seed(skills, recipes);
             LOG.info("✅ Configuration loading completed successfully");
         } catch (Exception e) {
             LOG.error("❌ Failed to load configurations", e);
@@ -94,17 +115,16 @@ public class ConfigurationManager {
     /**
      * Загрузить скиллы из resources/config/skills/
      */
-    private void loadSkillsFromResources() {
+    private void loadSkillsFromResources(List<SkillConfig> out) {
         try {
             // Пытаемся загрузить из classpath
-            InputStream skillsStream = getClass().getResourceAsStream("/config/skills");
-            if (skillsStream == null) {
+            if (getClass().getResource("/config/skills") == null) {
                 LOG.warn("No skills configuration directory found in resources");
                 return;
             }
             
             // Загружаем встроенные примеры скиллов
-            loadBuiltinSkills();
+            loadBuiltinSkills(out);
             
         } catch (Exception e) {
             LOG.error("Failed to load skills from resources", e);
@@ -114,7 +134,7 @@ public class ConfigurationManager {
     /**
      * Загрузить встроенные примеры скиллов
      */
-    private void loadBuiltinSkills() throws Exception {
+    private void loadBuiltinSkills(List<SkillConfig> out) {
         // Пример скилла Industry
         SkillConfig industrySkill = new SkillConfig();
         industrySkill.id = "industry";
@@ -149,7 +169,7 @@ public class ConfigurationManager {
                 "Шанс дополнительного выхода на 2% за уровень (макс. 10%)")
         );
         
-        syncSkillToDatabase(industrySkill);
+        out.add(industrySkill);
         
         // Пример скилла Mining
         SkillConfig miningSkill = new SkillConfig();
@@ -170,17 +190,15 @@ public class ConfigurationManager {
                 "Уменьшение времени добычи на 2.5% за уровень (макс. 25%)")
         );
         
-        syncSkillToDatabase(miningSkill);
-        
-        LOG.info("✅ Loaded builtin skills: industry, mining");
+        out.add(miningSkill);
     }
     
     /**
      * Загрузить рецепты из resources/config/recipes/
      */
-    private void loadRecipesFromResources() {
+    private void loadRecipesFromResources(List<RecipeConfig> out) {
         try {
-            loadBuiltinRecipes();
+            loadBuiltinRecipes(out);
         } catch (Exception e) {
             LOG.error("Failed to load recipes from resources", e);
         }
@@ -189,7 +207,7 @@ public class ConfigurationManager {
     /**
      * Загрузить встроенные примеры рецептов
      */
-    private void loadBuiltinRecipes() throws Exception {
+    private void loadBuiltinRecipes(List<RecipeConfig> out) {
         // Рецепт железного слитка
         RecipeConfig ironIngot = new RecipeConfig();
         ironIngot.id = "demo:iron_ingot";
@@ -214,7 +232,7 @@ public class ConfigurationManager {
         ironIngot.requirements.minSkillLevel = java.util.Map.of("industry", 1);
         ironIngot.requirements.buildings = List.of("furnace");
         
-        syncRecipeToDatabase(ironIngot);
+        out.add(ironIngot);
         
         // Рецепт стального слитка
         RecipeConfig steelIngot = new RecipeConfig();
@@ -239,7 +257,7 @@ public class ConfigurationManager {
         steelIngot.requirements.minSkillLevel = java.util.Map.of("industry", 3);
         steelIngot.requirements.buildings = List.of("advanced_furnace");
         
-        syncRecipeToDatabase(steelIngot);
+        out.add(steelIngot);
         
         // Рецепт добычи железной руды
         RecipeConfig ironOre = new RecipeConfig();
@@ -264,27 +282,93 @@ public class ConfigurationManager {
         ironOre.requirements.minSkillLevel = java.util.Map.of("mining", 1);
         ironOre.requirements.tools = List.of("pickaxe");
         
-        syncRecipeToDatabase(ironOre);
-        
-        LOG.info("✅ Loaded builtin recipes: iron_ingot, steel_ingot, iron_ore");
+        out.add(ironOre);
     }
     
     /**
-     * Синхронизировать скилл с базой данных
+     * Идемпотентная заливка конфигов в БД по хешу содержимого.
+     *
+     * Хеш каждой сущности сравнивается с колонкой config_hash: если ничего не менялось, рестарт
+     * обходится одним SELECT. Изменённые сущности пишутся одной транзакцией JDBC-батчами под
+     * advisory-локом (хеши перепроверяются под локом) — одновременно стартующие реплики не
+     * пишут одно и то же по нескольку раз.
      */
-    private void syncSkillToDatabase(SkillConfig config) throws Exception {
-        // Преобразуем durations в JSON массив
-        long[] durationsMs = config.durations.stream()
-            .mapToLong(d -> d.durationMs)
-            .toArray();
-        
-        String durationsJson = objectMapper.writeValueAsString(durationsMs);
-        
-        // Вставляем или обновляем скилл
-        try (Connection c = db.get();
-             PreparedStatement ps = c.prepareStatement("""
-                INSERT INTO skills (id, title, description, max_level, durations_ms, enabled, version)
-                VALUES (?, ?, ?, ?, ?::jsonb, ?, 1)
+    private void seed(List<SkillConfig> skills, List<RecipeConfig> recipes) throws Exception {
+        Map<String, String> skillHashes = new LinkedHashMap<>();
+        for (SkillConfig s : skills) skillHashes.put(s.id, contentHash(s));
+        Map<String, String> recipeHashes = new LinkedHashMap<>();
+        for (RecipeConfig r : recipes) recipeHashes.put(r.id, contentHash(r));
+        if (skillHashes.isEmpty() && recipeHashes.isEmpty()) return;
+        
+        Set<String> changedSkills;
+        Set<String> changedRecipes;
+        try (Connection c = db.getWriteConnection()) {
+            changedSkills = new HashSet<>();
+            changedRecipes = new HashSet<>();
+            diffHashes(c, skillHashes, recipeHashes, changedSkills, changedRecipes);
+            if (changedSkills.isEmpty() && changedRecipes.isEmpty()) {
+                LOG.infof("✅ Configs up to date (%d skills, %d recipes)", skillHashes.size(), recipeHashes.size());
+                return;
+            }
+            
+            c.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = c.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+                    ps.setLong(1, SEED_LOCK_KEY);
+                    ps.executeQuery().close();
+                }
+                // пока ждали лок, другая реплика могла уже всё записать
+                changedSkills.clear();
+                changedRecipes.clear();
+                diffHashes(c, skillHashes, recipeHashes, changedSkills, changedRecipes);
+                
+                List<SkillConfig> skillsToWrite = new ArrayList<>();
+                for (SkillConfig s : skills) if (changedSkills.contains(s.id)) skillsToWrite.add(s);
+                List<ExtendedRecipeService.Recipe> recipesToWrite = new ArrayList<>();
+                for (RecipeConfig r : recipes) if (changedRecipes.contains(r.id)) recipesToWrite.add(toRecipe(r));
+                
+                writeSkills(c, skillsToWrite, skillHashes);
+                recipeService.upsertRecipes(c, recipesToWrite, recipeHashes);
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+        
+        LOG.infof("✅ Synced configs: skills %s, recipes %s", changedSkills, changedRecipes);
+        if (!changedRecipes.isEmpty()) recipeService.refreshRecipes(changedRecipes);
+    }
+    
+    /** Один SELECT: сравнить хеши с сохранёнными, отличающиеся (и новые) id сложить в changed*. */
+    private static void diffHashes(Connection c, Map<String, String> skillHashes, Map<String, String> recipeHashes,
+                                   Set<String> changedSkills, Set<String> changedRecipes) throws Exception {
+        changedSkills.addAll(skillHashes.keySet());
+        changedRecipes.addAll(recipeHashes.keySet());
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT 's', id, config_hash FROM skills WHERE id = any(?) " +
+                "UNION ALL SELECT 'r', id, config_hash FROM recipes WHERE id = any(?)")) {
+            ps.setArray(1, c.createArrayOf("text", skillHashes.keySet().toArray()));
+            ps.setArray(2, c.createArrayOf("text", recipeHashes.keySet().toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    boolean skill = "s".equals(rs.getString(1));
+                    String id = rs.getString(2);
+                    String stored = rs.getString(3);
+                    if (skill && stored != null && stored.equals(skillHashes.get(id))) changedSkills.remove(id);
+                    if (!skill && stored != null && stored.equals(recipeHashes.get(id))) changedRecipes.remove(id);
+                }
+            }
+        }
+    }
+    
+    private void writeSkills(Connection c, List<SkillConfig> skills, Map<String, String> hashes) throws Exception {
+        if (skills.isEmpty()) return;
+        try (PreparedStatement ps = c.prepareStatement("""
+                INSERT INTO skills (id, title, description, max_level, durations_ms, enabled, version, config_hash)
+                VALUES (?, ?, ?, ?, ?::jsonb, ?, 1, ?)
                 ON CONFLICT (id) DO UPDATE SET
                     title = EXCLUDED.title,
                     description = EXCLUDED.description,
@@ -292,35 +376,38 @@ public class ConfigurationManager {
                     durations_ms = EXCLUDED.durations_ms,
                     enabled = EXCLUDED.enabled,
                     version = skills.version + 1,
+                    config_hash = EXCLUDED.config_hash,
                     updated_at = now()
                 """)) {
-            
-            ps.setString(1, config.id);
-            ps.setString(2, config.title);
-            ps.setString(3, config.description);
-            ps.setInt(4, config.maxLevel);
-            ps.setString(5, durationsJson);
-            ps.setBoolean(6, config.enabled);
-            ps.executeUpdate();
-        }
-        
-        // Синхронизируем бонусы
-        if (config.bonuses != null) {
-            // Удаляем старые бонусы
-            try (Connection c = db.get();
-                 PreparedStatement ps = c.prepareStatement(
-                    "DELETE FROM skill_bonuses WHERE skill_id = ?")) {
+            for (SkillConfig config : skills) {
+                long[] durationsMs = config.durations.stream()
+                    .mapToLong(d -> d.durationMs)
+                    .toArray();
                 ps.setString(1, config.id);
-                ps.executeUpdate();
+                ps.setString(2, config.title);
+                ps.setString(3, config.description);
+                ps.setInt(4, config.maxLevel);
+                ps.setString(5, objectMapper.writeValueAsString(durationsMs));
+                ps.setBoolean(6, config.enabled);
+                ps.setString(7, hashes.get(config.id));
+                ps.addBatch();
             }
-            
-            // Добавляем новые бонусы
-            for (SkillConfig.BonusConfig bonus : config.bonuses) {
-                try (Connection c = db.get();
-                     PreparedStatement ps = c.prepareStatement("""
-                        INSERT INTO skill_bonuses (skill_id, kind, target, op, per_level_bps, cap_bps, enabled, description)
-                        VALUES (?, ?, ?, ?, ?, ?, ?, ?)
-                        """)) {
+            ps.executeBatch();
+        }
+        
+        // Бонусы заменяем целиком только у скиллов, где они заданы в конфиге
+        List<SkillConfig> withBonuses = skills.stream().filter(s -> s.bonuses != null).toList();
+        if (withBonuses.isEmpty()) return;
+        try (PreparedStatement ps = c.prepareStatement("DELETE FROM skill_bonuses WHERE skill_id = any(?)")) {
+            ps.setArray(1, c.createArrayOf("text", withBonuses.stream().map(s -> s.id).toArray()));
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = c.prepareStatement("""
+                INSERT INTO skill_bonuses (skill_id, kind, target, op, per_level_bps, cap_bps, enabled, description)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+                """)) {
+            for (SkillConfig config : withBonuses) {
+                for (SkillConfig.BonusConfig bonus : config.bonuses) {
                     ps.setString(1, config.id);
                     ps.setString(2, bonus.kind);
                     ps.setString(3, bonus.target);
@@ -329,18 +416,28 @@ public class ConfigurationManager {
                     ps.setInt(6, bonus.capBps);
                     ps.setBoolean(7, bonus.enabled);
                     ps.setString(8, bonus.description);
-                    ps.executeUpdate();
+                    ps.addBatch();
                 }
             }
+            ps.executeBatch();
         }
-        
-        LOG.infof("✅ Synced skill to database: %s", config.id);
+    }
+    
+    /** SHA-256 канонического JSON сущности (поля и ключи map — по алфавиту). */
+    private static String contentHash(Object config) throws Exception {
+        byte[] json = HASH_MAPPER.writeValueAsBytes(config);
+        var md = MessageDigest.getInstance("SHA-256");
+        md.update(SEED_FORMAT.getBytes(StandardCharsets.UTF_8));
+        byte[] d = md.digest(json);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : d) sb.append(String.format("%02x", b));
+        return sb.toString();
     }
     
     /**
-     * Синхронизировать рецепт с базой данных
+     * Конфиг рецепта -> DTO для записи в БД
      */
-    private void syncRecipeToDatabase(RecipeConfig config) throws Exception {
+    private static ExtendedRecipeService.Recipe toRecipe(RecipeConfig config) {
         ExtendedRecipeService.Recipe recipe = new ExtendedRecipeService.Recipe();
         recipe.id = config.id;
         recipe.name = config.name;
@@ -411,19 +508,7 @@ public class ConfigurationManager {
             }
         }
         
-        // Пытаемся создать рецепт, если не существует
-        try {
-            recipeService.createRecipe(recipe);
-            LOG.infof("✅ Created recipe: %s", config.id);
-        } catch (Exception e) {
-            // Если рецепт уже существует, обновляем его
-            try {
-                recipeService.updateRecipe(recipe);
-                LOG.infof("✅ Updated recipe: %s", config.id);
-            } catch (Exception updateError) {
-                LOG.errorf(updateError, "Failed to sync recipe: %s", config.id);
-            }
-        }
+        return recipe;
     }
     
     /**
@@ -20,9 +20,9 @@ public class Database {
     @DataSource("write")
     AgroalDataSource primaryDataSource; // Primary (default) - для записи
 
+    // чтение — через роутер: по пулу на реплику, выбор по задержкам и отставанию
     @Inject
-    @DataSource("read")
-    AgroalDataSource replicaDataSource; // Replica - для чтения
+    DatabaseRouter router;
 
     /** Вернуть Connection для записи (primary) */
     public Connection getWriteConnection() throws SQLException {
@@ -31,14 +31,8 @@ public class Database {
 
     /** Вернуть Connection для чтения (replica) */
     public Connection getReadConnection() throws SQLException {
-        try {
-            // Используем replica datasource для чтения
-            return replicaDataSource.getConnection();
-        } catch (SQLException e) {
-            // Fallback на primary если replica недоступна
-            LOG.warning("Replica connection failed, falling back to primary: " + e.getMessage());
-            return primaryDataSource.getConnection();
-        }
+        // реплика по весам DatabaseRouter; если все исключены или недоступны — primary
+        return router.getReadConnection();
     }
 
     /** Старый метод для обратной совместимости - использует primary */
@@ -71,10 +65,9 @@ public class Database {
         return withWriteConnection(work);
     }
 
-    /** Получить конкретную replica по номеру (1 или 2) */
+    /** Получить конкретную replica по номеру (1 — первый пул из app.db.read-pools) */
     public Connection getReplicaConnection(int replicaNumber) throws SQLException {
-        // Всегда возвращаем replica datasource, так как у нас только один источник для чтения
-        return replicaDataSource.getConnection();
+        return router.getReplicaConnection(replicaNumber);
     }
 
     /** Проверка доступности replica */
@@ -97,8 +90,10 @@ public class Database {
             status.append("ERROR - ").append(e.getMessage());
         }
         
-        status.append(", Replica: ");
-        status.append(isReplicaAvailable(1) ? "OK" : "FAILED");
+        for (int i = 1; i <= router.replicaCount(); i++) {
+            status.append(", Replica ").append(i).append(": ");
+            status.append(isReplicaAvailable(i) ? "OK" : "FAILED");
+        }
         
         return status.toString();
     }
@@ -2,22 +2,83 @@ package com.example.economy.core;
 
 import io.agroal.api.AgroalDataSource;
 import io.quarkus.agroal.DataSource;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.Instance;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 /**
  * Роутер для разделения read/write операций между primary и replica базами данных
+ *
+ * По пулу на реплику (app.db.read-pools, у каждой свой PgBouncer). Фоновый опрос снимает
+ * отставание реплик и перцентили задержек выдачи соединения и запросов; чтение уходит на
+ * лучшую из двух случайных реплик, а реплика с отставанием выше порога исключается, пока не догонит.
+ *
+ * Read-your-writes: после записи от имени владельца запоминается LSN primary
+ * (pg_current_wal_lsn) — токен владельца в near cache. Чтение этого владельца идёт на реплику,
+ * только если её pg_last_wal_replay_lsn уже дошёл до токена, иначе на primary. Позиция реплики
+ * кэшируется фоновым опросом, так что в обычном случае проверка не стоит лишнего запроса.
+ * Токен живёт до тех пор, пока реплика его не догонит, но не дольше token-ttl-ms.
+ * Токены локальны для узла: чтение через другой узел той же гарантии не даёт.
+ *
+ * Шардирование по владельцу: данные игрока (production_jobs, player_materials, skill_*,
+ * player_rewards и его outbox) лежат на шарде, который {@link ShardRing} выдаёт по UUID.
+ * У шарда свой primary и свои реплики (app.db.shard.&lt;имя&gt;.write / .read-pools). Глобальный
+ * шард {@value #GLOBAL_SHARD} — это datasources write/read: каталог, авторизация, кошельки,
+ * биржа и сама карта шардов (таблица db_shards, V17). Методы без владельца работают с ним.
+ * Карта перечитывается каждые app.db.shard.refresh-every; пока идёт переезд ({@link ShardSplitter}),
+ * запись переезжающих владельцев в фазе FROZEN ждёт переключения, остальные не замечают ничего.
  */
 @ApplicationScoped
 public class DatabaseRouter {
     private static final Logger LOG = Logger.getLogger(DatabaseRouter.class);
 
+    public static final String GLOBAL_SHARD = "main";
+
+    // состояния строки db_shards
+    static final String SHARD_COPYING = "COPYING";
+    static final String SHARD_FROZEN = "FROZEN";
+    static final String SHARD_ACTIVE = "ACTIVE";
+
     @Inject
     @DataSource("write")
     AgroalDataSource writeDataSource;
@@ -30,6 +91,263 @@ public class DatabaseRouter {
     @Inject
     AgroalDataSource defaultDataSource;
 
+    // прочие пулы реплик (read2, ...) — по имени из app.db.read-pools
+    @Inject
+    @Any
+    Instance<AgroalDataSource> dataSources;
+
+    // по пулу (и PgBouncer) на реплику
+    @ConfigProperty(name = "app.db.read-pools", defaultValue = "read")
+    List<String> readPoolNames;
+
+    // отставание (байт WAL), после которого реплика исключается из чтения;
+    // обратно возвращается, когда догонит до половины порога
+    @ConfigProperty(name = "app.db.replica.eject-lag-bytes", defaultValue = "16777216")
+    long ejectLagBytes;
+
+    @ConfigProperty(name = "app.db.ryw.enabled", defaultValue = "true")
+    boolean rywEnabled;
+
+    // реплика, отстающая дольше, всё равно неисправна — токен не держим вечно
+    @ConfigProperty(name = "app.db.ryw.token-ttl-ms", defaultValue = "30000")
+    long tokenTtlMs;
+
+    // hedged reads: повтор медленного чтения на другой реплике или primary
+    @ConfigProperty(name = "app.db.hedge.enabled", defaultValue = "true")
+    boolean hedgeEnabled;
+
+    // нижняя граница порога: быстрее p95 всё равно не дублируем
+    @ConfigProperty(name = "app.db.hedge.min-delay-ms", defaultValue = "5")
+    long hedgeMinDelayMs;
+
+    // доля дополнительных запросов на точку вызова и сколько их можно накопить впрок
+    @ConfigProperty(name = "app.db.hedge.budget-percent", defaultValue = "10")
+    int hedgeBudgetPercent;
+
+    @ConfigProperty(name = "app.db.hedge.burst", defaultValue = "20")
+    int hedgeBurst;
+
+    @ConfigProperty(name = "app.db.hedge.threads", defaultValue = "16")
+    int hedgeThreads;
+
+    // виртуальных узлов на шард, пока db_shards ещё нет (до V17)
+    @ConfigProperty(name = "app.db.shard.vnodes", defaultValue = "128")
+    int defaultVnodes;
+
+    // сколько запись переезжающего владельца ждёт переключения, прежде чем отказать
+    @ConfigProperty(name = "app.db.shard.freeze-wait-ms", defaultValue = "3000")
+    long freezeWaitMs;
+
+    private static final String SQL_WRITE_LSN = "select pg_current_wal_lsn() - '0/0'::pg_lsn";
+    // на сервере не в recovery (dev: read смотрит на primary) реплика "догнала" всё
+    private static final String SQL_REPLAY_LSN =
+        "select case when pg_is_in_recovery() then pg_last_wal_replay_lsn() - '0/0'::pg_lsn end";
+    private static final String SQL_SERVER_ADDR = "select host(inet_server_addr())";
+    // replication_lag() — из sql/primary-setup.sql
+    private static final String SQL_LAG = "select host(client_addr), lag_bytes from replication_lag()";
+    private static final String SQL_SHARDS = "select name, vnodes, state from db_shards order by name";
+
+    /** LSN записи владельца на primary его шарда и момент, когда он снят. */
+    private record Token(String shard, long lsn, long atMs) {}
+
+    /** Соединение, шард и пул, из которого оно взято (null — primary шарда). */
+    private record Routed(Shard shard, ReplicaPool pool, Connection conn) {}
+
+    /** Шард: свой primary и свои реплики. */
+    static final class Shard {
+        final String name;
+        final AgroalDataSource write;
+        final List<ReplicaPool> replicas;
+
+        Shard(String name, AgroalDataSource write, List<ReplicaPool> replicas) {
+            this.name = name;
+            this.write = write;
+            this.replicas = replicas;
+        }
+    }
+
+    /**
+     * Снимок карты: active — по нему идут чтение и запись, pending — с учётом переезжающего
+     * шарда. Владелец "переезжает", если кольца для него расходятся; frozen — его запись стоит.
+     */
+    private record ShardState(ShardRing active, ShardRing pending, boolean frozen,
+                              Map<String, Shard> shards, String signature) {
+        Shard shard(String name) {
+            return shards.get(name);
+        }
+    }
+
+    private final ConcurrentHashMap<UUID, Token> tokens = new ConcurrentHashMap<>();
+    // шарды переживают смену карты вместе с накопленной статистикой реплик
+    private final ConcurrentHashMap<String, Shard> shardCache = new ConcurrentHashMap<>();
+    private volatile ShardState state;
+    private Shard global;
+    private final ConcurrentHashMap<String, HedgeSite> hedgeSites = new ConcurrentHashMap<>();
+    private ScheduledThreadPoolExecutor hedgeTimer;
+    private ThreadPoolExecutor hedgePool;
+
+    @PostConstruct
+    void init() {
+        List<ReplicaPool> pools = new ArrayList<>();
+        for (String name : readPoolNames) {
+            AgroalDataSource ds = "read".equals(name) ? readDataSource : dataSource(name);
+            pools.add(new ReplicaPool(name, ds));
+        }
+        global = new Shard(GLOBAL_SHARD, writeDataSource, List.copyOf(pools));
+        shardCache.put(GLOBAL_SHARD, global);
+        ShardRing ring = ShardRing.of(Map.of(GLOBAL_SHARD, defaultVnodes));
+        state = new ShardState(ring, ring, false, Map.of(GLOBAL_SHARD, global), "");
+        refreshShards();
+
+        hedgeTimer = new ScheduledThreadPoolExecutor(1, daemon("db-hedge-timer"));
+        hedgeTimer.setRemoveOnCancelPolicy(true);
+        // без очереди: нет свободного потока — хеджа не будет, первая попытка дождётся сама
+        hedgePool = new ThreadPoolExecutor(hedgeThreads, hedgeThreads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), daemon("db-hedge"), new ThreadPoolExecutor.AbortPolicy());
+        hedgePool.allowCoreThreadTimeOut(true);
+        LOG.infof("DatabaseRouter initialized: read pools %s, eject lag %d bytes, shards %s",
+                readPoolNames, ejectLagBytes, state.shards().keySet());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (hedgeTimer != null) hedgeTimer.shutdownNow();
+        if (hedgePool != null) hedgePool.shutdownNow();
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread th = new Thread(r, name + "-" + n.incrementAndGet());
+            th.setDaemon(true);
+            return th;
+        };
+    }
+
+    private AgroalDataSource dataSource(String name) {
+        Instance<AgroalDataSource> ds = dataSources.select(new DataSource.DataSourceLiteral(name));
+        if (!ds.isResolvable()) throw new IllegalStateException("Datasource '" + name + "' is not configured");
+        return ds.get();
+    }
+
+    /** Шард по имени из db_shards: datasources из app.db.shard.&lt;имя&gt;.*, по умолчанию write = имя. */
+    private Shard resolveShard(String name) {
+        return shardCache.computeIfAbsent(name, n -> {
+            Config cfg = ConfigProvider.getConfig();
+            String write = cfg.getOptionalValue("app.db.shard." + n + ".write", String.class).orElse(n);
+            List<ReplicaPool> pools = new ArrayList<>();
+            for (String r : cfg.getOptionalValues("app.db.shard." + n + ".read-pools", String.class).orElse(List.of())) {
+                pools.add(new ReplicaPool(r, dataSource(r)));
+            }
+            return new Shard(n, dataSource(write), List.copyOf(pools));
+        });
+    }
+
+    /**
+     * Перечитать карту шардов с глобального primary. Карта применяется целиком: если хоть
+     * один шард не сконфигурирован на этом узле, остаётся прежняя (иначе часть владельцев
+     * молча ушла бы не туда). До V17 таблицы нет — работаем одним глобальным шардом.
+     */
+    @Scheduled(every = "${app.db.shard.refresh-every:1s}", concurrentExecution = ConcurrentExecution.SKIP)
+    void refreshShards() {
+        Map<String, Integer> active = new TreeMap<>();
+        Map<String, Integer> pending = new TreeMap<>();
+        boolean frozen = false;
+        StringBuilder sig = new StringBuilder();
+        try (Connection c = writeDataSource.getConnection();
+             PreparedStatement ps = c.prepareStatement(SQL_SHARDS);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                int vnodes = rs.getInt(2);
+                String st = rs.getString(3);
+                sig.append(name).append(':').append(vnodes).append(':').append(st).append(';');
+                pending.put(name, vnodes);
+                if (SHARD_ACTIVE.equals(st)) active.put(name, vnodes);
+                else if (SHARD_FROZEN.equals(st)) frozen = true;
+            }
+        } catch (SQLException e) {
+            LOG.debugf("Shard map refresh failed: %s", e.getMessage());
+            return;
+        }
+        if (active.isEmpty() || sig.toString().equals(state.signature())) return;
+
+        Map<String, Shard> shards = new HashMap<>();
+        try {
+            for (String name : pending.keySet()) shards.put(name, resolveShard(name));
+        } catch (RuntimeException e) {
+            LOG.errorf("Shard map %s not applied: %s", sig, e.getMessage());
+            return;
+        }
+        state = new ShardState(ShardRing.of(active), ShardRing.of(pending), frozen, Map.copyOf(shards), sig.toString());
+        LOG.infof("Shard map applied: %s", sig);
+    }
+
+    /** Шард, на котором сейчас лежат данные владельца. */
+    public String shardOf(UUID owner) {
+        return state.active().shardOf(owner);
+    }
+
+    /**
+     * Действующие шарды — для обходов, где владелец заранее неизвестен (outbox, сверка, завершение
+     * задач). Шард, на который идёт переезд, сюда не входит: там пока копия, а не данные.
+     */
+    public List<String> shardNames() {
+        return List.copyOf(new TreeMap<>(state.active().vnodes()).keySet());
+    }
+
+    /** Можно ли сейчас менять данные владельца на этом шарде: он там живёт и не заморожен переездом. */
+    public boolean isWritable(String shard, UUID owner) {
+        ShardState st = state;
+        String name = st.active().shardOf(owner);
+        return name.equals(shard) && (!st.frozen() || name.equals(st.pending().shardOf(owner)));
+    }
+
+    ShardRing activeRing() {
+        return state.active();
+    }
+
+    ShardRing pendingRing() {
+        return state.pending();
+    }
+
+    /**
+     * Шард для записи владельца. Если владелец переезжает и карта в фазе FROZEN, ждём
+     * переключения (не дольше freeze-wait-ms), а не пишем в источник, который уже докопирован.
+     */
+    private Shard writeShard(UUID owner) {
+        long deadline = 0;
+        while (true) {
+            ShardState st = state;
+            String name = st.active().shardOf(owner);
+            if (!st.frozen() || name.equals(st.pending().shardOf(owner))) return st.shard(name);
+            long now = System.currentTimeMillis();
+            if (deadline == 0) {
+                deadline = now + freezeWaitMs;
+            } else if (now >= deadline) {
+                throw new IllegalStateException("Player data is being moved between shards, retry later");
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for shard move", e);
+            }
+        }
+    }
+
+    private Shard readShard(UUID owner) {
+        if (owner == null) return global;
+        ShardState st = state;
+        return st.shard(st.active().shardOf(owner));
+    }
+
+    private Shard shardByName(String name) throws SQLException {
+        Shard s = state.shard(name);
+        if (s == null) throw new SQLException("Unknown shard " + name);
+        return s;
+    }
+
     /**
      * Получить соединение для записи (всегда primary)
      */
@@ -37,15 +355,277 @@ public class DatabaseRouter {
         return writeDataSource.getConnection();
     }
 
+    /** Соединение с primary шарда владельца. */
+    public Connection getWriteConnection(UUID owner) throws SQLException {
+        return writeShard(owner).write.getConnection();
+    }
+
+    /** Соединение с primary шарда по имени (обходы всех шардов, перенос данных). */
+    public Connection getShardWriteConnection(String shard) throws SQLException {
+        return shardByName(shard).write.getConnection();
+    }
+
+    /** Соединение для чтения с реплики шарда по имени (без read-your-writes). */
+    public Connection getShardReadConnection(String shard) throws SQLException {
+        return route(shardByName(shard), null).conn();
+    }
+
     /**
-     * Получить соединение для чтения (replica с fallback на primary)
+     * Получить соединение для чтения: реплика, выбранная "из двух случайных" по задержкам
+     * и отставанию; если все реплики исключены или недоступны — primary.
      */
     public Connection getReadConnection() throws SQLException {
+        return route(null).conn();
+    }
+
+    /**
+     * Соединение для чтения данных владельца: реплика его шарда, если она уже воспроизвела
+     * его последнюю запись, иначе primary шарда.
+     */
+    public Connection getReadConnection(UUID owner) throws SQLException {
+        return route(owner).conn();
+    }
+
+    /** Соединение с конкретной репликой глобального шарда (1 — первый пул из app.db.read-pools). */
+    public Connection getReplicaConnection(int replicaNumber) throws SQLException {
+        List<ReplicaPool> all = global.replicas;
+        if (replicaNumber < 1 || replicaNumber > all.size()) {
+            throw new SQLException("No replica #" + replicaNumber + ", configured: " + all.size());
+        }
+        return all.get(replicaNumber - 1).getConnection();
+    }
+
+    public int replicaCount() {
+        return global.replicas.size();
+    }
+
+    /** Состояние пулов реплик для мониторинга. */
+    public List<Map<String, Object>> replicaStats() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Shard s : state.shards().values()) {
+            for (ReplicaPool p : s.replicas) {
+                Map<String, Object> m = p.stats();
+                m.put("shard", s.name);
+                out.add(m);
+            }
+        }
+        return out;
+    }
+
+    /** Карта шардов для мониторинга. */
+    public Map<String, Object> shardStats() {
+        ShardState st = state;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("active", new TreeMap<>(st.active().vnodes()));
+        out.put("pending", new TreeMap<>(st.pending().vnodes()));
+        out.put("frozen", st.frozen());
+        return out;
+    }
+
+    private Routed route(UUID owner) throws SQLException {
+        return route(readShard(owner), owner);
+    }
+
+    private Routed route(Shard s, UUID owner) throws SQLException {
+        long need = requiredLsn(s, owner);
+
+        ReplicaPool p = pick(s, need, null);
+        if (p != null) {
+            Connection c = acquire(p);
+            if (c != null) return new Routed(s, p, c);
+        }
+        if (need >= 0) {
+            // по кэшу ни одна реплика не догнала — спрашиваем лучшую на том соединении, которым будем читать
+            ReplicaPool q = pick(s, -1, null);
+            Connection c = q == null ? null : acquire(q);
+            if (c != null) {
+                try {
+                    if (replayLsn(q, c) >= need) return new Routed(s, q, c);
+                } catch (SQLException e) {
+                    LOG.debugf("Replica %s LSN check failed: %s", q.name, e.getMessage());
+                }
+                c.close();
+            }
+        }
+        return new Routed(s, null, s.write.getConnection());
+    }
+
+    /**
+     * LSN, который реплика шарда должна воспроизвести для чтения владельца; -1 — любая.
+     * Токен, снятый на другом шарде (владелец только что переехал), с этими LSN не сравним —
+     * такое чтение идёт на primary, пока токен не истечёт.
+     */
+    private long requiredLsn(Shard s, UUID owner) {
+        Token t = owner == null || !rywEnabled ? null : tokens.get(owner);
+        if (t == null) return -1;
+        if (t.atMs() + tokenTtlMs < System.currentTimeMillis()) {
+            tokens.remove(owner, t);
+            return -1;
+        }
+        return t.shard().equals(s.name) ? t.lsn() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Выбор "из двух случайных" среди неисключённых реплик шарда, уже воспроизведших minLsn
+     * (-1 — любая): двое кандидатов набираются reservoir sampling без аллокаций,
+     * побеждает меньшая стоимость. null — подходящих реплик нет.
+     */
+    private ReplicaPool pick(Shard s, long minLsn, ReplicaPool exclude) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        ReplicaPool a = null, b = null;
+        int seen = 0;
+        for (ReplicaPool p : s.replicas) {
+            if (p == exclude || p.ejected || p.replayLsn < minLsn) continue;
+            seen++;
+            if (a == null) a = p;
+            else if (b == null) b = p;
+            else {
+                int r = rnd.nextInt(seen);
+                if (r == 0) a = p; else if (r == 1) b = p;
+            }
+        }
+        if (b == null) return a;
+        return a.cost() <= b.cost() ? a : b;
+    }
+
+    /** Соединение из пула реплики; при отказе реплика исключается до следующего удачного опроса. */
+    private Connection acquire(ReplicaPool p) {
         try {
-            return readDataSource.getConnection();
+            return p.getConnection();
         } catch (SQLException e) {
-            LOG.warnf("Read replica unavailable, falling back to primary: %s", e.getMessage());
-            return writeDataSource.getConnection();
+            eject(p, "connection failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Запомнить токен read-your-writes для владельцев после коммита на соединении primary
+     * их шарда. Если LSN снять не удалось, владельцы читают с primary до истечения token-ttl-ms.
+     */
+    public void recordWrite(Collection<UUID> owners, Connection primary) {
+        if (!rywEnabled || owners.isEmpty()) return;
+        long lsn;
+        try (PreparedStatement ps = primary.prepareStatement(SQL_WRITE_LSN);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            lsn = rs.getLong(1);
+        } catch (SQLException e) {
+            LOG.debugf("Failed to read primary LSN: %s", e.getMessage());
+            lsn = Long.MAX_VALUE;
+        }
+        long now = System.currentTimeMillis();
+        ShardRing ring = state.active();
+        for (UUID owner : owners) {
+            Token t = new Token(ring.shardOf(owner), lsn, now);
+            tokens.merge(owner, t, (a, b) ->
+                    a.shard().equals(b.shard()) && a.lsn() >= b.lsn() ? new Token(a.shard(), a.lsn(), b.atMs()) : b);
+        }
+    }
+
+    public void recordWrite(UUID owner, Connection primary) {
+        recordWrite(List.of(owner), primary);
+    }
+
+    /**
+     * Фоновый опрос реплик каждого шарда: отставание по replication_lag() на primary шарда
+     * (сопоставление по адресу сервера; если адрес не совпал — по разнице LSN primary и реплики),
+     * позиция воспроизведения, исключение/возврат реплик, пересчёт стоимости и чистка
+     * догнанных/просроченных токенов.
+     */
+    @Scheduled(every = "${app.db.replica.sample-every:500ms}", concurrentExecution = ConcurrentExecution.SKIP)
+    void sampleReplicas() {
+        Map<String, Long> caughtUp = new HashMap<>();
+        for (Shard s : state.shards().values()) caughtUp.put(s.name, sampleShard(s));
+        for (HedgeSite s : hedgeSites.values()) s.recompute();
+
+        if (tokens.isEmpty()) return;
+        // токен не нужен, когда его догнали все реплики шарда, на которые может уйти чтение
+        long now = System.currentTimeMillis();
+        tokens.entrySet().removeIf(e -> e.getValue().lsn() <= caughtUp.getOrDefault(e.getValue().shard(), -1L)
+                || e.getValue().atMs() + tokenTtlMs < now);
+    }
+
+    /**
+     * Опрос реплик одного шарда; возвращает минимальную позицию среди неисключённых — только
+     * они получают чтения. Если исключены все, возвращает -1: токены шарда не снимаются, пока
+     * реплики не вернутся (иначе вернувшаяся отстающая реплика отдала бы старые данные).
+     * Шард без реплик читает только с primary — его токены не нужны (Long.MAX_VALUE).
+     */
+    private long sampleShard(Shard s) {
+        Map<String, Long> lagByAddr = new HashMap<>();
+        long primaryLsn = -1;
+        try (Connection c = s.write.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_WRITE_LSN);
+                 ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) primaryLsn = rs.getLong(1);
+            }
+            if (!s.replicas.isEmpty()) {
+                try (PreparedStatement ps = c.prepareStatement(SQL_LAG);
+                     ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        if (rs.getString(1) != null) lagByAddr.put(rs.getString(1), rs.getLong(2));
+                    }
+                } catch (SQLException e) {
+                    LOG.debugf("replication_lag() unavailable on %s, using LSN difference: %s", s.name, e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            LOG.debugf("Primary LSN sample failed on %s: %s", s.name, e.getMessage());
+        }
+
+        long minReplay = Long.MAX_VALUE;
+        int live = 0;
+        for (ReplicaPool p : s.replicas) {
+            try (Connection c = p.getConnection()) {
+                if (p.serverAddr == null) {
+                    try (PreparedStatement ps = c.prepareStatement(SQL_SERVER_ADDR);
+                         ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) p.serverAddr = rs.getString(1);
+                    }
+                }
+                long replay = replayLsn(p, c);
+                Long lag = p.serverAddr == null ? null : lagByAddr.get(p.serverAddr);
+                if (lag == null) {
+                    lag = replay == Long.MAX_VALUE || primaryLsn < 0 ? 0L : Math.max(0, primaryLsn - replay);
+                }
+                p.lagBytes = lag;
+                if (lag > ejectLagBytes) {
+                    eject(p, "lag " + lag + " bytes");
+                } else if (p.ejected && lag <= ejectLagBytes / 2) {
+                    p.ejected = false;
+                    p.ejectReason = null;
+                    LOG.infof("Replica %s readmitted, lag %d bytes", p.name, lag);
+                }
+            } catch (SQLException e) {
+                eject(p, "probe failed: " + e.getMessage());
+            }
+            p.recompute(ejectLagBytes);
+            if (!p.ejected) {
+                live++;
+                minReplay = Math.min(minReplay, p.replayLsn);
+            }
+        }
+        return s.replicas.isEmpty() || live > 0 ? minReplay : -1;
+    }
+
+    private void eject(ReplicaPool p, String reason) {
+        if (!p.ejected) LOG.warnf("Replica %s ejected from reads: %s", p.name, reason);
+        p.ejectReason = reason;
+        p.ejected = true;
+    }
+
+    /** Позиция воспроизведения сервера за соединением (с замером запроса); обновляет пул. */
+    private long replayLsn(ReplicaPool p, Connection c) throws SQLException {
+        long t0 = System.nanoTime();
+        try (PreparedStatement ps = c.prepareStatement(SQL_REPLAY_LSN);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            long lsn = rs.getLong(1);
+            if (rs.wasNull()) lsn = Long.MAX_VALUE; // не реплика — отставания нет
+            if (lsn > p.replayLsn) p.replayLsn = lsn;
+            return lsn;
+        } finally {
+            p.recordQuery(System.nanoTime() - t0);
         }
     }
 
@@ -64,11 +644,7 @@ public class DatabaseRouter {
      * Выполнить операцию чтения
      */
     public <T> T executeRead(Function<Connection, T> operation) {
-        try (Connection conn = getReadConnection()) {
-            return operation.apply(conn);
-        } catch (SQLException e) {
-            throw new RuntimeException("Read operation failed", e);
-        }
+        return executeRead(null, operation);
     }
 
     /**
@@ -90,6 +666,291 @@ public class DatabaseRouter {
         }
     }
 
+    /** Чтение данных владельца (с его шарда) с гарантией read-your-writes. */
+    public <T> T executeRead(UUID owner, Function<Connection, T> operation) {
+        Routed r;
+        try {
+            r = route(owner);
+        } catch (SQLException e) {
+            throw new RuntimeException("Read operation failed", e);
+        }
+        try (Connection conn = r.conn()) {
+            long t0 = System.nanoTime();
+            T result = operation.apply(conn);
+            if (r.pool() != null) r.pool().recordQuery(System.nanoTime() - t0);
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException("Read operation failed", e);
+        }
+    }
+
+    /**
+     * Чтение с хеджированием для чувствительных к задержке путей; operation должна быть
+     * только чтением — она может выполниться дважды.
+     *
+     * Первая попытка идёт как обычно (реплика по весам, с учётом read-your-writes). Если за
+     * адаптивный порог (скользящий p95 этой точки вызова, не меньше min-delay-ms) ответа нет,
+     * тот же запрос уходит на другую реплику (или primary) того же шарда. Побеждает первый
+     * успешный ответ, запросы проигравшего снимаются через Statement.cancel. Бюджет точки
+     * вызова — не больше budget-percent дополнительных запросов от числа вызовов (с запасом burst).
+     */
+    public <T> T executeReadHedged(String site, UUID owner, Function<Connection, T> operation) {
+        if (!hedgeEnabled) return executeRead(owner, operation);
+        HedgeSite hs = hedgeSites.computeIfAbsent(site, HedgeSite::new);
+        hs.onCall();
+
+        Routed first;
+        try {
+            first = route(owner);
+        } catch (SQLException e) {
+            throw new RuntimeException("Read operation failed", e);
+        }
+        Tracked a = new Tracked(first.conn());
+        Hedge<T> h = new Hedge<>();
+        ScheduledFuture<?> timer = hedgeTimer.schedule(() -> launchHedge(hs, owner, first, operation, a, h),
+                hs.delayNanos, TimeUnit.NANOSECONDS);
+
+        long t0 = System.nanoTime();
+        try {
+            T result;
+            try {
+                result = operation.apply(a.proxy);
+            } catch (RuntimeException e) {
+                timer.cancel(false);
+                // хедж уже в работе (или победил и снял наш запрос) — ждём его результат
+                if (h.launched.get()) return h.await(e);
+                h.decided.set(true);
+                if (h.launched.get()) return h.await(e);
+                throw e;
+            }
+            long took = System.nanoTime() - t0;
+            if (h.decided.compareAndSet(false, true)) {
+                timer.cancel(false);
+                h.cancelLoser();
+                hs.latency.record(took);
+                if (first.pool() != null) first.pool().recordQuery(took);
+                return result;
+            }
+            // хедж успел раньше — его ответ уже есть
+            T hedged = h.await(null);
+            hs.latency.record(System.nanoTime() - t0);
+            return hedged;
+        } finally {
+            // соединение первой попытки закрываем сами: операция работает через прокси a
+            try {
+                first.conn().close();
+            } catch (SQLException e) {
+                LOG.debugf("Closing hedged read connection failed: %s", e.getMessage());
+            }
+        }
+    }
+
+    private <T> void launchHedge(HedgeSite hs, UUID owner, Routed first,
+                                 Function<Connection, T> operation, Tracked a, Hedge<T> h) {
+        if (h.decided.get() || !hs.tryAcquire()) return;
+        h.launched.set(true);
+        try {
+            hedgePool.execute(() -> runHedge(hs, owner, first, operation, a, h));
+        } catch (RejectedExecutionException e) {
+            hs.refund();
+            h.result.completeExceptionally(e);
+        }
+    }
+
+    private <T> void runHedge(HedgeSite hs, UUID owner, Routed first,
+                              Function<Connection, T> operation, Tracked a, Hedge<T> h) {
+        if (h.decided.get()) {
+            h.result.cancel(false);
+            return;
+        }
+        long t0 = System.nanoTime();
+        try {
+            Shard s = first.shard();
+            long need = requiredLsn(s, owner);
+            ReplicaPool p = pick(s, need, first.pool());
+            Connection c = p == null ? null : acquire(p);
+            if (c == null) {
+                p = null;
+                c = s.write.getConnection();
+            }
+            try (Connection conn = c) {
+                Tracked b = new Tracked(conn);
+                h.loser = b;
+                if (h.decided.get()) b.cancelAll();
+                T result = operation.apply(b.proxy);
+                long took = System.nanoTime() - t0;
+                if (p != null) p.recordQuery(took);
+                if (h.decided.compareAndSet(false, true)) {
+                    hs.wins.incrementAndGet();
+                    a.cancelAll();
+                }
+                h.result.complete(result);
+            }
+        } catch (Exception e) {
+            h.result.completeExceptionally(e);
+        }
+    }
+
+    /** Состояние хеджирования по точкам вызова для мониторинга. */
+    public List<Map<String, Object>> hedgeStats() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (HedgeSite s : hedgeSites.values()) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("site", s.name);
+            m.put("calls", s.latency.count());
+            m.put("delayUs", s.delayNanos / 1000);
+            m.put("hedges", s.hedges.get());
+            m.put("wins", s.wins.get());
+            out.add(m);
+        }
+        return out;
+    }
+
+    /** Точка вызова: скользящие задержки, порог и бюджет (в тысячных долях запроса). */
+    private final class HedgeSite {
+        final String name;
+        final ReplicaPool.Window latency = new ReplicaPool.Window();
+        final AtomicLong credits = new AtomicLong();
+        final AtomicLong hedges = new AtomicLong();
+        final AtomicLong wins = new AtomicLong();
+        volatile long delayNanos;
+
+        HedgeSite(String name) {
+            this.name = name;
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMs);
+        }
+
+        void onCall() {
+            long cap = hedgeBurst * 1000L;
+            credits.updateAndGet(c -> Math.min(cap, c + hedgeBudgetPercent * 10L));
+        }
+
+        boolean tryAcquire() {
+            long c;
+            do {
+                c = credits.get();
+                if (c < 1000) return false;
+            } while (!credits.compareAndSet(c, c - 1000));
+            hedges.incrementAndGet();
+            return true;
+        }
+
+        void refund() {
+            credits.addAndGet(1000);
+            hedges.decrementAndGet();
+        }
+
+        void recompute() {
+            long p95 = latency.percentileNanos(0.95);
+            delayNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMs), p95);
+        }
+    }
+
+    /** Общее состояние пары попыток: кто победил и результат хеджа. */
+    private static final class Hedge<T> {
+        final AtomicBoolean decided = new AtomicBoolean();
+        final AtomicBoolean launched = new AtomicBoolean();
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        volatile Tracked loser;
+
+        void cancelLoser() {
+            Tracked b = loser;
+            if (b != null) b.cancelAll();
+        }
+
+        /** Результат хеджа; если и он не удался — исходная ошибка первой попытки (если была). */
+        T await(RuntimeException firstError) {
+            try {
+                return result.join();
+            } catch (RuntimeException e) {
+                if (firstError != null) {
+                    firstError.addSuppressed(e);
+                    throw firstError;
+                }
+                throw e instanceof CompletionException && e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+    }
+
+    /**
+     * Соединение, запоминающее созданные через него Statement, чтобы проигравшую попытку
+     * можно было снять Statement.cancel из другого потока.
+     */
+    private static final class Tracked {
+        final Connection proxy;
+        private final List<Statement> statements = new ArrayList<>(2);
+        private boolean cancelled;
+
+        Tracked(Connection target) {
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, (p, m, args) -> {
+                        // попытка уже проиграла — новые запросы не начинаем
+                        if (Statement.class.isAssignableFrom(m.getReturnType()) && isCancelled()) {
+                            throw new SQLException("Hedged read cancelled", "57014");
+                        }
+                        Object r;
+                        try {
+                            r = m.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                        if (r instanceof Statement s) track(s);
+                        return r;
+                    });
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void track(Statement s) {
+            boolean late;
+            synchronized (this) {
+                statements.add(s);
+                late = cancelled;
+            }
+            if (late) cancelQuietly(s);
+        }
+
+        void cancelAll() {
+            List<Statement> copy;
+            synchronized (this) {
+                cancelled = true;
+                copy = List.copyOf(statements);
+            }
+            for (Statement s : copy) cancelQuietly(s);
+        }
+
+        private static void cancelQuietly(Statement s) {
+            try {
+                s.cancel();
+            } catch (SQLException ignored) {
+                // уже закрыт или завершён
+            }
+        }
+    }
+
+    /** Транзакция записи от имени владельца на его шарде: после коммита запоминается его токен. */
+    public <T> T executeWriteTransaction(UUID owner, Function<Connection, T> operation) {
+        try (Connection conn = getWriteConnection(owner)) {
+            conn.setAutoCommit(false);
+            T result;
+            try {
+                result = operation.apply(conn);
+                conn.commit();
+            } catch (Exception e) {
+                conn.rollback();
+                throw e;
+            }
+            conn.setAutoCommit(true);
+            recordWrite(owner, conn);
+            return result;
+        } catch (SQLException e) {
+            throw new RuntimeException("Write transaction failed", e);
+        }
+    }
+
+
     /**
      * Проверка доступности datasources для health check
      */
@@ -103,11 +964,14 @@ public class DatabaseRouter {
     }
 
     public boolean isReadHealthy() {
-        try (Connection conn = readDataSource.getConnection()) {
-            return conn.isValid(5);
-        } catch (Exception e) {
-            LOG.debugf("Read datasource health check failed: %s", e.getMessage());
-            return false;
+        for (ReplicaPool p : global.replicas) {
+            if (p.ejected) continue;
+            try (Connection conn = p.getConnection()) {
+                if (conn.isValid(5)) return true;
+            } catch (Exception e) {
+                LOG.debugf("Read datasource %s health check failed: %s", p.name, e.getMessage());
+            }
         }
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,201 @@
+package com.example.economy.core;
+
+import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Сверка due-сетов Redis (prod:due:N, skill:due:N) с Postgres.
+ *
+ * Если Redis перезапустился или был очищен, IN_PROGRESS-строки production_jobs и
+ * skill_training больше никто не завершит. Сверщик потоково читает их курсором
+ * (DECLARE/FETCH — работает и в simple query mode, и через PgBouncer), пачкой проверяет
+ * наличие в Redis одним ZMSCORE на шард и досыпает недостающее одним ZADD на шард.
+ * Работает на узле, держащем шард 0: при его захвате (в т.ч. после потери Redis) и периодически.
+ */
+@ApplicationScoped
+@Startup
+public class DueReconciler implements TimerShards.Listener {
+    private static final Logger LOG = Logger.getLogger(DueReconciler.class.getName());
+
+    // порядок совпадает с ix_jobs_owner_status_end
+    private static final String SQL_JOBS =
+            "select id, owner_uuid, end_ms from production_jobs where status='IN_PROGRESS' order by owner_uuid, status, end_ms";
+    private static final String SQL_SKILLS =
+            "select owner_uuid, end_ms from skill_training where status='IN_PROGRESS'";
+
+    /** Итоги последнего прохода. */
+    public record Stats(long startedAtMs, long tookMs, long jobsScanned, long jobsRepaired,
+                        long skillsScanned, long skillsRepaired) {}
+
+    @Inject DatabaseRouter router;
+    @Inject RedisBus redis;
+    @Inject TimerShards shards;
+
+    @ConfigProperty(name = "app.reconcile.fetch-size", defaultValue = "5000")
+    int fetchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong totalRepaired = new AtomicLong();
+    private volatile Stats last;
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "due-reconciler");
+            t.setDaemon(true);
+            return t;
+        });
+        shards.addListener(this);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    @Override
+    public void onShardAcquired(int shard) {
+        // не держим поток обслуживания аренд — сверка идёт в своём потоке
+        if (shard == 0) executor.execute(this::reconcile);
+    }
+
+    @Override
+    public void onShardReleased(int shard) { }
+
+    @Scheduled(every = "${app.reconcile.every:5m}", delayed = "${app.reconcile.delay:1m}",
+            concurrentExecution = ConcurrentExecution.SKIP)
+    void periodic() {
+        if (shards.owns(0)) reconcile();
+    }
+
+    public Stats lastStats() { return last; }
+    public long totalRepaired() { return totalRepaired.get(); }
+
+    /** Один полный проход; если проход уже идёт — возвращает итоги предыдущего. */
+    public Stats reconcile() {
+        if (!running.compareAndSet(false, true)) return last;
+        long started = System.currentTimeMillis();
+        try {
+            long[] jobs = sweepJobs();
+            long[] skills = sweepSkills();
+            Stats s = new Stats(started, System.currentTimeMillis() - started, jobs[0], jobs[1], skills[0], skills[1]);
+            last = s;
+            totalRepaired.addAndGet(jobs[1] + skills[1]);
+            if (jobs[1] + skills[1] > 0) {
+                LOG.warning("Due-set drift repaired: " + s);
+            } else {
+                LOG.info("Due-set reconcile OK: " + s);
+            }
+            return s;
+        } catch (Exception e) {
+            LOG.severe("Due-set reconcile failed: " + e.getMessage());
+            return last;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /** {просмотрено, досыпано} по production_jobs. */
+    private long[] sweepJobs() throws Exception {
+        long[] counts = new long[2];
+        stream(SQL_JOBS, rs -> {
+            Map<Integer, List<RedisBus.DueJob>> byShard = new HashMap<>();
+            while (rs.next()) {
+                UUID owner = (UUID) rs.getObject(2);
+                var job = new RedisBus.DueJob(owner, rs.getObject(1).toString(), rs.getLong(3));
+                byShard.computeIfAbsent(redis.shardOf(owner), s -> new ArrayList<>()).add(job);
+                counts[0]++;
+            }
+            List<RedisBus.DueJob> repair = new ArrayList<>();
+            for (var e : byShard.entrySet()) {
+                Map<String, RedisBus.DueJob> byId = new LinkedHashMap<>();
+                for (var j : e.getValue()) byId.put(j.jobId(), j);
+                for (String id : redis.missingJobs(e.getKey(), new ArrayList<>(byId.keySet()))) {
+                    repair.add(byId.get(id));
+                }
+            }
+            if (!repair.isEmpty()) redis.scheduleJobs(repair);
+            counts[1] += repair.size();
+        });
+        return counts;
+    }
+
+    /** {просмотрено, досыпано} по skill_training. */
+    private long[] sweepSkills() throws Exception {
+        long[] counts = new long[2];
+        stream(SQL_SKILLS, rs -> {
+            Map<Integer, Map<String, Long>> byShard = new HashMap<>();
+            while (rs.next()) {
+                UUID owner = (UUID) rs.getObject(1);
+                byShard.computeIfAbsent(redis.shardOf(owner), s -> new LinkedHashMap<>()).put(owner.toString(), rs.getLong(2));
+                counts[0]++;
+            }
+            Map<UUID, Long> repair = new HashMap<>();
+            for (var e : byShard.entrySet()) {
+                for (String owner : redis.missingSkills(e.getKey(), new ArrayList<>(e.getValue().keySet()))) {
+                    repair.put(UUID.fromString(owner), e.getValue().get(owner));
+                }
+            }
+            if (!repair.isEmpty()) redis.scheduleSkills(repair);
+            counts[1] += repair.size();
+        });
+        return counts;
+    }
+
+    private interface BatchHandler {
+        void handle(ResultSet rs) throws Exception;
+    }
+
+    /**
+     * Потоковое чтение серверным курсором по каждому шарду БД по очереди:
+     * в памяти не больше одной пачки fetchSize строк. Читаем с primary шарда: курсор держит
+     * одну длинную транзакцию, которую на реплике отменил бы конфликт восстановления
+     * (max_standby_streaming_delay), а отстающая реплика вернула бы уже завершённые задачи
+     * в Redis. Сверка редкая, курсор нагружает primary умеренно.
+     */
+    private void stream(String query, BatchHandler handler) throws Exception {
+        for (String shard : router.shardNames()) stream(shard, query, handler);
+    }
+
+    private void stream(String shard, String query, BatchHandler handler) throws Exception {
+        try (Connection c = router.getShardWriteConnection(shard)) {
+            c.setAutoCommit(false);
+            try (Statement st = c.createStatement()) {
+                st.execute("declare due_cur no scroll cursor for " + query);
+                while (true) {
+                    try (ResultSet rs = st.executeQuery("fetch forward " + fetchSize + " from due_cur")) {
+                        if (!rs.isBeforeFirst()) break;
+                        handler.handle(rs);
+                    }
+                }
+                st.execute("close due_cur");
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+}
@@ -1,9 +1,20 @@
 package com.example.economy.core;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import org.jboss.logging.Logger;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -20,6 +31,16 @@ public class ExtendedRecipeService {
     @Inject Database db;
     @Inject DatabaseRouter databaseRouter;
     @Inject SkillCatalogService skillCatalog;
+
+    // NDJSON импорт/экспорт; поток не закрываем за вызывающего
+    private static final ObjectMapper JSON = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+        .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+        .configure(com.fasterxml.jackson.core.JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+
+    // снимок каталога; подменяется целиком (refresh) или копией с изменёнными рецептами (refreshRecipes)
+    private volatile RecipeCatalog catalog = RecipeCatalog.EMPTY;
+    private final List<RecipeCatalog.Listener> listeners = new java.util.concurrent.CopyOnWriteArrayList<>();
     
     // DTO классы
     public static class Recipe {
@@ -74,42 +95,162 @@ public class ExtendedRecipeService {
         public String description;
     }
     
+    /** Текущий снимок каталога рецептов и бонусов (без обращения к БД). */
+    public RecipeCatalog catalog() {
+        return catalog;
+    }
+
     /**
-     * Получить все рецепты - READ операция, идет на реплики
+     * Получить все рецепты из снимка каталога
      */
-    public List<Recipe> getAllRecipes() throws Exception {
-        return databaseRouter.executeRead(conn -> {
-            List<Recipe> recipes = new ArrayList<>();
-            
-            try (PreparedStatement ps = conn.prepareStatement(
-                "SELECT id, name, description, tag, base_duration_ms, enabled, category " +
-                "FROM recipes ORDER BY category, name");
-                 ResultSet rs = ps.executeQuery()) {
-                
-                while (rs.next()) {
-                    Recipe recipe = new Recipe();
-                    recipe.id = rs.getString("id");
-                    recipe.name = rs.getString("name");
-                    recipe.description = rs.getString("description");
-                    recipe.tag = rs.getString("tag");
-                    recipe.baseDurationMs = rs.getLong("base_duration_ms");
-                    recipe.enabled = rs.getBoolean("enabled");
-                    recipe.category = rs.getString("category");
-                    
-                    // Загружаем связанные данные через read соединение
-                    loadRecipeInputs(recipe, conn);
-                    loadRecipeOutputs(recipe, conn);
-                    loadRecipeRequirements(recipe, conn);
-                    
-                    recipes.add(recipe);
+    public List<Recipe> getAllRecipes() {
+        return catalog.recipes();
+    }
+
+    /**
+     * Подписаться на подмену снимка. Подписчик сразу получает текущий снимок как полную пересборку.
+     */
+    public synchronized void addListener(RecipeCatalog.Listener listener) {
+        listeners.add(listener);
+        listener.onCatalogChanged(catalog, null);
+    }
+
+    /**
+     * Перечитать каталог из БД и атомарно подменить снимок. При ошибке остаётся старый снимок.
+     */
+    public synchronized RecipeCatalog refresh() {
+        try {
+            List<Recipe> recipes = new ArrayList<>(loadRecipes(null).values());
+            List<SkillBonus> bonuses = loadAllSkillBonuses(false);
+            publish(new RecipeCatalog(catalog.version() + 1, recipes, bonuses), null);
+            LOG.infof("Recipe catalog v%d: %d recipes, %d bonuses, etag=%s",
+                    catalog.version(), recipes.size(), bonuses.size(), catalog.etag());
+        } catch (Exception e) {
+            LOG.errorf(e, "Failed to refresh recipe catalog, keeping v%d", catalog.version());
+        }
+        return catalog;
+    }
+
+    /**
+     * Перечитать только указанные рецепты (удалённые из БД пропадут из снимка) и подменить снимок
+     * копией, в которой заменены лишь они. При ошибке остаётся старый снимок.
+     */
+    public synchronized RecipeCatalog refreshRecipes(Collection<String> ids) {
+        if (ids.isEmpty()) return catalog;
+        try {
+            Set<String> changed = Set.copyOf(ids);
+            publish(catalog.withRecipes(changed, loadRecipes(changed)), changed);
+            LOG.infof("Recipe catalog v%d: refreshed %s", catalog.version(), changed);
+        } catch (Exception e) {
+            LOG.errorf(e, "Failed to refresh recipes %s, keeping v%d", ids, catalog.version());
+        }
+        return catalog;
+    }
+
+    /** Перечитать бонусы скиллов (рецепты в снимке не меняются). */
+    public synchronized RecipeCatalog refreshBonuses() {
+        try {
+            publish(catalog.withBonuses(loadAllSkillBonuses(true)), Set.of());
+        } catch (Exception e) {
+            LOG.errorf(e, "Failed to refresh skill bonuses, keeping v%d", catalog.version());
+        }
+        return catalog;
+    }
+
+    private void publish(RecipeCatalog next, Set<String> changedIds) {
+        catalog = next;
+        for (var l : listeners) {
+            try {
+                l.onCatalogChanged(next, changedIds);
+            } catch (Exception e) {
+                LOG.errorf(e, "Recipe catalog listener failed");
+            }
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        refresh();
+    }
+
+    /**
+     * Загрузить рецепты четырьмя запросами (рецепты + входы/выходы/требования целыми таблицами
+     * или по списку ids; null — все) вместо трёх запросов на каждый рецепт. Все запросы — в одной
+     * read-only транзакции, чтобы связанные строки были согласованы с рецептами.
+     * Полная загрузка идет на реплики; точечная — на primary: её вызывают сразу после записи,
+     * и реплика может ещё не догнать.
+     */
+    private Map<String, Recipe> loadRecipes(Collection<String> ids) throws Exception {
+        String byId = ids == null ? "" : "WHERE id = any(?) ";
+        String byRecipe = ids == null ? "" : "WHERE recipe_id = any(?) ";
+        java.util.function.Function<Connection, Map<String, Recipe>> load = conn -> {
+            try {
+                conn.setAutoCommit(false);
+                conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                conn.setReadOnly(true);
+                try {
+                    Map<String, Recipe> recipes = new LinkedHashMap<>();
+                    try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT id, name, description, tag, base_duration_ms, enabled, category " +
+                        "FROM recipes " + byId + "ORDER BY category, name")) {
+                        bindIds(conn, ps, ids);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                Recipe recipe = readRecipe(rs);
+                                recipes.put(recipe.id, recipe);
+                            }
+                        }
+                    }
+
+                    try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT recipe_id, item_id, quantity, description, sort_order FROM recipe_inputs " +
+                        byRecipe + "ORDER BY recipe_id, sort_order")) {
+                        bindIds(conn, ps, ids);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                Recipe recipe = recipes.get(rs.getString("recipe_id"));
+                                if (recipe != null) recipe.inputs.add(readInput(rs));
+                            }
+                        }
+                    }
+
+                    try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT recipe_id, item_id, quantity, chance, description, sort_order FROM recipe_outputs " +
+                        byRecipe + "ORDER BY recipe_id, sort_order")) {
+                        bindIds(conn, ps, ids);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                Recipe recipe = recipes.get(rs.getString("recipe_id"));
+                                if (recipe != null) recipe.outputs.add(readOutput(rs));
+                            }
+                        }
+                    }
+
+                    try (PreparedStatement ps = conn.prepareStatement(
+                        "SELECT recipe_id, type, target, value, description FROM recipe_requirements " +
+                        byRecipe + "ORDER BY recipe_id")) {
+                        bindIds(conn, ps, ids);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                Recipe recipe = recipes.get(rs.getString("recipe_id"));
+                                if (recipe != null) recipe.requirements.add(readRequirement(rs));
+                            }
+                        }
+                    }
+
+                    conn.commit();
+                    return recipes;
+                } finally {
+                    if (!conn.getAutoCommit()) conn.rollback();
+                    conn.setReadOnly(false);
+                    conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                    conn.setAutoCommit(true);
                 }
             } catch (Exception e) {
                 throw new RuntimeException("Failed to load recipes", e);
             }
-            
-            LOG.infof("Loaded %d recipes", recipes.size());
-            return recipes;
-        });
+        };
+        return ids == null ? databaseRouter.executeRead(load) : databaseRouter.executeWrite(load);
     }
     
     /**
@@ -134,48 +275,7 @@ public class ExtendedRecipeService {
                     ps.executeUpdate();
                 }
                 
-                // Добавляем входы
-                for (RecipeInput input : recipe.inputs) {
-                    try (PreparedStatement ps = c.prepareStatement(
-                        "INSERT INTO recipe_inputs (recipe_id, item_id, quantity, description, sort_order) " +
-                        "VALUES (?, ?, ?, ?, ?)")) {
-                        ps.setString(1, recipe.id);
-                        ps.setString(2, input.itemId);
-                        ps.setInt(3, input.quantity);
-                        ps.setString(4, input.description);
-                        ps.setInt(5, input.sortOrder);
-                        ps.executeUpdate();
-                    }
-                }
-                
-                // Добавляем выходы
-                for (RecipeOutput output : recipe.outputs) {
-                    try (PreparedStatement ps = c.prepareStatement(
-                        "INSERT INTO recipe_outputs (recipe_id, item_id, quantity, chance, description, sort_order) " +
-                        "VALUES (?, ?, ?, ?, ?, ?)")) {
-                        ps.setString(1, recipe.id);
-                        ps.setString(2, output.itemId);
-                        ps.setInt(3, output.quantity);
-                        ps.setDouble(4, output.chance);
-                        ps.setString(5, output.description);
-                        ps.setInt(6, output.sortOrder);
-                        ps.executeUpdate();
-                    }
-                }
-                
-                // Добавляем требования
-                for (RecipeRequirement req : recipe.requirements) {
-                    try (PreparedStatement ps = c.prepareStatement(
-                        "INSERT INTO recipe_requirements (recipe_id, type, target, value, description) " +
-                        "VALUES (?, ?, ?, ?, ?)")) {
-                        ps.setString(1, recipe.id);
-                        ps.setString(2, req.type);
-                        ps.setString(3, req.target);
-                        ps.setString(4, req.value);
-                        ps.setString(5, req.description);
-                        ps.executeUpdate();
-                    }
-                }
+                insertRecipeRelations(c, List.of(recipe));
                 
                 c.commit();
                 LOG.infof("Created recipe: %s", recipe.id);
@@ -186,6 +286,7 @@ public class ExtendedRecipeService {
                 c.setAutoCommit(true);
             }
         }
+        refreshRecipes(List.of(recipe.id));
     }
     
     /**
@@ -213,8 +314,8 @@ public class ExtendedRecipeService {
                 // Удаляем старые связанные записи
                 deleteRecipeRelations(c, recipe.id);
                 
-                // Добавляем новые связанные записи (код аналогичен createRecipe)
-                // ... (аналогично методу createRecipe)
+                // Добавляем новые связанные записи (иначе рецепт остался бы без входов)
+                insertRecipeRelations(c, List.of(recipe));
                 
                 c.commit();
                 LOG.infof("Updated recipe: %s", recipe.id);
@@ -225,13 +326,133 @@ public class ExtendedRecipeService {
                 c.setAutoCommit(true);
             }
         }
+        refreshRecipes(List.of(recipe.id));
+    }
+    
+    /** Итог массового импорта. */
+    public record BulkImportResult(int imported, int chunks, List<String> errors) {}
+    
+    /**
+     * Массовый импорт рецептов из NDJSON (один рецепт на строку, формат как у GET /recipes).
+     * Тело читается потоково (Jackson MappingIterator поверх JsonParser), в памяти — не больше
+     * одного чанка. Каждая запись читается деревом и только затем отображается в Recipe, поэтому
+     * запись с полем не того типа ("quantity":"x") пропускается с ошибкой в отчёте, как и
+     * невалидная; импорт прерывает только синтаксически битый NDJSON. Каждый чанк пишется
+     * отдельной транзакцией через {@link #upsertRecipes}; уже закоммиченные чанки при ошибке
+     * в следующих остаются.
+     */
+    public BulkImportResult importRecipes(InputStream ndjson, int chunkSize) throws Exception {
+        int chunk = Math.max(1, chunkSize);
+        List<String> errors = new ArrayList<>();
+        Set<String> imported = new LinkedHashSet<>();
+        int chunks = 0;
+        int line = 0;
+        
+        try (MappingIterator<JsonNode> it = JSON.readerFor(JsonNode.class).readValues(ndjson)) {
+            List<Recipe> batch = new ArrayList<>(chunk);
+            try {
+                while (it.hasNextValue()) {
+                    JsonNode node = it.nextValue();
+                    line++;
+                    Recipe recipe;
+                    try {
+                        recipe = JSON.treeToValue(node, Recipe.class);
+                    } catch (JsonProcessingException e) {
+                        errors.add("record " + line + ": " + e.getOriginalMessage());
+                        continue;
+                    }
+                    String problem = validateForImport(recipe);
+                    if (problem != null) {
+                        errors.add("record " + line + ": " + problem);
+                        continue;
+                    }
+                    batch.add(recipe);
+                    if (batch.size() >= chunk) {
+                        writeChunk(batch);
+                        for (Recipe r : batch) imported.add(r.id);
+                        chunks++;
+                        batch.clear();
+                    }
+                }
+            } catch (JsonParseException e) {
+                errors.add("record " + (line + 1) + ": malformed JSON, import stopped: " + e.getOriginalMessage());
+            }
+            if (!batch.isEmpty()) {
+                writeChunk(batch);
+                for (Recipe r : batch) imported.add(r.id);
+                chunks++;
+            }
+        } finally {
+            // NOTIFY и так обновит каталог, но локально — сразу (чтение с primary)
+            if (!imported.isEmpty()) refreshRecipes(imported);
+        }
+        
+        LOG.infof("Bulk import: %d recipes in %d chunks, %d errors", imported.size(), chunks, errors.size());
+        return new BulkImportResult(imported.size(), chunks, errors);
+    }
+    
+    private void writeChunk(List<Recipe> batch) throws Exception {
+        // один и тот же id дважды в чанке сломал бы ON CONFLICT — побеждает последний
+        Map<String, Recipe> dedup = new LinkedHashMap<>();
+        for (Recipe r : batch) dedup.put(r.id, r);
+        try (Connection c = db.getWriteConnection()) {
+            c.setAutoCommit(false);
+            try {
+                upsertRecipes(c, new ArrayList<>(dedup.values()), null);
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+    }
+    
+    private static String validateForImport(Recipe r) {
+        if (r == null) return "empty record";
+        if (r.id == null || r.id.isBlank()) return "id is required";
+        if (r.name == null || r.name.isBlank()) return "name is required (" + r.id + ")";
+        if (r.tag == null || r.tag.isBlank()) return "tag is required (" + r.id + ")";
+        if (r.inputs == null) r.inputs = new ArrayList<>();
+        if (r.outputs == null) r.outputs = new ArrayList<>();
+        if (r.requirements == null) r.requirements = new ArrayList<>();
+        for (RecipeInput in : r.inputs) {
+            if (in.itemId == null || in.quantity <= 0) return "bad input in " + r.id;
+        }
+        for (RecipeOutput out : r.outputs) {
+            if (out.itemId == null || out.quantity <= 0) return "bad output in " + r.id;
+        }
+        return null;
     }
     
     /**
-     * Получить все бонусы скиллов - READ операция, идет на реплики
+     * Потоковый экспорт снимка каталога в NDJSON (формат совместим с импортом). Пишет по одному
+     * рецепту через общий JsonGenerator — без БД и без промежуточных списков/строк.
      */
-    public List<SkillBonus> getAllSkillBonuses() throws Exception {
-        return databaseRouter.executeRead(conn -> {
+    public void exportRecipes(RecipeCatalog snapshot, OutputStream out) throws Exception {
+        try (JsonGenerator gen = JSON.getFactory().createGenerator(out)) {
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            for (Recipe r : snapshot.recipes()) {
+                JSON.writeValue(gen, r);
+            }
+            gen.writeRaw('\n');
+        }
+    }
+    
+    /**
+     * Получить все бонусы скиллов из снимка каталога
+     */
+    public List<SkillBonus> getAllSkillBonuses() {
+        return catalog.bonuses();
+    }
+
+    /**
+     * Загрузить все бонусы скиллов (включая выключенные). primary=false — с реплик; true — сразу
+     * после записи/уведомления, когда реплика может ещё не догнать.
+     */
+    private List<SkillBonus> loadAllSkillBonuses(boolean primary) throws Exception {
+        java.util.function.Function<Connection, List<SkillBonus>> load = conn -> {
             List<SkillBonus> bonuses = new ArrayList<>();
             
             try (PreparedStatement ps = conn.prepareStatement(
@@ -255,9 +476,9 @@ public class ExtendedRecipeService {
                 throw new RuntimeException("Failed to load skill bonuses", e);
             }
             
-            LOG.infof("Loaded %d skill bonuses", bonuses.size());
             return bonuses;
-        });
+        };
+        return primary ? databaseRouter.executeWrite(load) : databaseRouter.executeRead(load);
     }
     
     /**
@@ -280,6 +501,7 @@ public class ExtendedRecipeService {
         }
         
         LOG.infof("Created skill bonus: %s -> %s", bonus.skillId, bonus.operation);
+        refreshBonuses();
     }
     
     /**
@@ -319,91 +541,138 @@ public class ExtendedRecipeService {
     }
     // Приватные методы
     
-    private void loadRecipeInputs(Recipe recipe, Connection conn) throws Exception {
-        try (PreparedStatement ps = conn.prepareStatement(
-            "SELECT item_id, quantity, description, sort_order FROM recipe_inputs " +
-            "WHERE recipe_id = ? ORDER BY sort_order")) {
-            ps.setString(1, recipe.id);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    RecipeInput input = new RecipeInput();
-                    input.itemId = rs.getString("item_id");
-                    input.quantity = rs.getInt("quantity");
-                    input.description = rs.getString("description");
-                    input.sortOrder = rs.getInt("sort_order");
-                    recipe.inputs.add(input);
-                }
-            }
-        }
+    private static Recipe readRecipe(ResultSet rs) throws Exception {
+        Recipe recipe = new Recipe();
+        recipe.id = rs.getString("id");
+        recipe.name = rs.getString("name");
+        recipe.description = rs.getString("description");
+        recipe.tag = rs.getString("tag");
+        recipe.baseDurationMs = rs.getLong("base_duration_ms");
+        recipe.enabled = rs.getBoolean("enabled");
+        recipe.category = rs.getString("category");
+        return recipe;
     }
     
-    private void loadRecipeOutputs(Recipe recipe, Connection conn) throws Exception {
-        try (PreparedStatement ps = conn.prepareStatement(
-            "SELECT item_id, quantity, chance, description, sort_order FROM recipe_outputs " +
-            "WHERE recipe_id = ? ORDER BY sort_order")) {
-            ps.setString(1, recipe.id);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    RecipeOutput output = new RecipeOutput();
-                    output.itemId = rs.getString("item_id");
-                    output.quantity = rs.getInt("quantity");
-                    output.chance = rs.getDouble("chance");
-                    output.description = rs.getString("description");
-                    output.sortOrder = rs.getInt("sort_order");
-                    recipe.outputs.add(output);
-                }
-            }
-        }
+    private static RecipeInput readInput(ResultSet rs) throws Exception {
+        RecipeInput input = new RecipeInput();
+        input.itemId = rs.getString("item_id");
+        input.quantity = rs.getInt("quantity");
+        input.description = rs.getString("description");
+        input.sortOrder = rs.getInt("sort_order");
+        return input;
     }
     
-    private void loadRecipeRequirements(Recipe recipe, Connection conn) throws Exception {
-        try (PreparedStatement ps = conn.prepareStatement(
-            "SELECT type, target, value, description FROM recipe_requirements " +
-            "WHERE recipe_id = ?")) {
-            ps.setString(1, recipe.id);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    RecipeRequirement req = new RecipeRequirement();
-                    req.type = rs.getString("type");
-                    req.target = rs.getString("target");
-                    req.value = rs.getString("value");
-                    req.description = rs.getString("description");
-                    recipe.requirements.add(req);
-                }
+    private static RecipeOutput readOutput(ResultSet rs) throws Exception {
+        RecipeOutput output = new RecipeOutput();
+        output.itemId = rs.getString("item_id");
+        output.quantity = rs.getInt("quantity");
+        output.chance = rs.getDouble("chance");
+        output.description = rs.getString("description");
+        output.sortOrder = rs.getInt("sort_order");
+        return output;
+    }
+    
+    private static RecipeRequirement readRequirement(ResultSet rs) throws Exception {
+        RecipeRequirement req = new RecipeRequirement();
+        req.type = rs.getString("type");
+        req.target = rs.getString("target");
+        req.value = rs.getString("value");
+        req.description = rs.getString("description");
+        return req;
+    }
+    
+    private Recipe getRecipeById(String id) {
+        return catalog.recipeOrNull(id);
+    }
+    
+    private static void bindIds(Connection conn, PreparedStatement ps, Collection<String> ids) throws Exception {
+        if (ids != null) ps.setArray(1, conn.createArrayOf("text", ids.toArray()));
+    }
+    
+    /**
+     * Upsert пачки рецептов целиком в транзакции вызывающего: рецепты одним батчем, связанные
+     * строки — DELETE по всем id и по батчу на таблицу. configHashes — хеши встроенных конфигов
+     * (null — рецепт не из конфига, config_hash сбрасывается). Снимок каталога не трогает.
+     */
+    public void upsertRecipes(Connection c, List<Recipe> recipes, Map<String, String> configHashes) throws Exception {
+        if (recipes.isEmpty()) return;
+        try (PreparedStatement ps = c.prepareStatement("""
+                INSERT INTO recipes (id, name, description, tag, base_duration_ms, enabled, category, config_hash)
+                VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+                ON CONFLICT (id) DO UPDATE SET
+                    name = EXCLUDED.name,
+                    description = EXCLUDED.description,
+                    tag = EXCLUDED.tag,
+                    base_duration_ms = EXCLUDED.base_duration_ms,
+                    enabled = EXCLUDED.enabled,
+                    category = EXCLUDED.category,
+                    config_hash = EXCLUDED.config_hash,
+                    updated_at = now()
+                """)) {
+            for (Recipe recipe : recipes) {
+                ps.setString(1, recipe.id);
+                ps.setString(2, recipe.name);
+                ps.setString(3, recipe.description);
+                ps.setString(4, recipe.tag);
+                ps.setLong(5, recipe.baseDurationMs);
+                ps.setBoolean(6, recipe.enabled);
+                ps.setString(7, recipe.category);
+                ps.setString(8, configHashes == null ? null : configHashes.get(recipe.id));
+                ps.addBatch();
             }
+            ps.executeBatch();
         }
+        
+        Object[] ids = recipes.stream().map(r -> r.id).toArray();
+        for (String table : new String[]{"recipe_inputs", "recipe_outputs", "recipe_requirements"}) {
+            try (PreparedStatement ps = c.prepareStatement("DELETE FROM " + table + " WHERE recipe_id = any(?)")) {
+                ps.setArray(1, c.createArrayOf("text", ids));
+                ps.executeUpdate();
+            }
+        }
+        
+        insertRecipeRelations(c, recipes);
     }
     
-    // SELECT операция - читаем с реплик согласно правилам
-    private Recipe getRecipeById(String id) throws Exception {
-        return databaseRouter.executeRead(conn -> {
-            try (PreparedStatement ps = conn.prepareStatement(
-                "SELECT id, name, description, tag, base_duration_ms, enabled, category " +
-                "FROM recipes WHERE id = ?")) {
-                ps.setString(1, id);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        Recipe recipe = new Recipe();
-                        recipe.id = rs.getString("id");
-                        recipe.name = rs.getString("name");
-                        recipe.description = rs.getString("description");
-                        recipe.tag = rs.getString("tag");
-                        recipe.baseDurationMs = rs.getLong("base_duration_ms");
-                        recipe.enabled = rs.getBoolean("enabled");
-                        recipe.category = rs.getString("category");
-                        
-                        loadRecipeInputs(recipe, conn);
-                        loadRecipeOutputs(recipe, conn);
-                        loadRecipeRequirements(recipe, conn);
-                        
-                        return recipe;
-                    }
+    /** Входы, выходы и требования рецептов — по одному батчу на таблицу. */
+    private static void insertRecipeRelations(Connection c, List<Recipe> recipes) throws Exception {
+        try (PreparedStatement ins = c.prepareStatement(
+                "INSERT INTO recipe_inputs (recipe_id, item_id, quantity, description, sort_order) VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement outs = c.prepareStatement(
+                "INSERT INTO recipe_outputs (recipe_id, item_id, quantity, chance, description, sort_order) VALUES (?, ?, ?, ?, ?, ?)");
+             PreparedStatement reqs = c.prepareStatement(
+                "INSERT INTO recipe_requirements (recipe_id, type, target, value, description) VALUES (?, ?, ?, ?, ?)")) {
+            for (Recipe recipe : recipes) {
+                for (RecipeInput in : recipe.inputs) {
+                    ins.setString(1, recipe.id);
+                    ins.setString(2, in.itemId);
+                    ins.setInt(3, in.quantity);
+                    ins.setString(4, in.description);
+                    ins.setInt(5, in.sortOrder);
+                    ins.addBatch();
+                }
+                for (RecipeOutput out : recipe.outputs) {
+                    outs.setString(1, recipe.id);
+                    outs.setString(2, out.itemId);
+                    outs.setInt(3, out.quantity);
+                    outs.setDouble(4, out.chance);
+                    outs.setString(5, out.description);
+                    outs.setInt(6, out.sortOrder);
+                    outs.addBatch();
+                }
+                for (RecipeRequirement req : recipe.requirements) {
+                    reqs.setString(1, recipe.id);
+                    reqs.setString(2, req.type);
+                    reqs.setString(3, req.target);
+                    reqs.setString(4, req.value);
+                    reqs.setString(5, req.description);
+                    reqs.addBatch();
                 }
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to get recipe by id: " + id, e);
             }
-            return null;
-        });
+            ins.executeBatch();
+            outs.executeBatch();
+            reqs.executeBatch();
+        }
     }
     
     private void deleteRecipeRelations(Connection c, String recipeId) throws Exception {
@@ -464,8 +733,8 @@ public class ExtendedRecipeService {
     }
     
     private int getPlayerSkillLevel(UUID playerUuid, String skillId) throws Exception {
-        // Интеграция с существующей системой уровней
-        try (Connection c = db.get();
+        // Интеграция с существующей системой уровней; уровни лежат на шарде игрока, каталог — на глобальном
+        try (Connection c = databaseRouter.getReadConnection(playerUuid);
              PreparedStatement ps = c.prepareStatement(
                 "SELECT level FROM skill_levels WHERE owner_uuid = ? AND skill_id = ?")) {
             ps.setObject(1, playerUuid);
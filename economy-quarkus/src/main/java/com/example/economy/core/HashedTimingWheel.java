@@ -0,0 +1,134 @@
+package com.example.economy.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Хешированное колесо таймеров (в духе Netty HashedWheelTimer) для дедлайнов в миллисекундах.
+ * Один рабочий поток крутит колесо с шагом tickMs; добавление — lock-free через очередь,
+ * поэтому add() можно вызывать из любых потоков. Все сработавшие за тик ключи
+ * отдаются обработчику одним списком.
+ */
+public final class HashedTimingWheel implements Runnable {
+    private static final Logger LOG = Logger.getLogger(HashedTimingWheel.class.getName());
+
+    private static final class Timeout {
+        final String key;
+        final long deadlineMs;
+        long rounds;
+        Timeout(String key, long deadlineMs) { this.key = key; this.deadlineMs = deadlineMs; }
+    }
+
+    private final long tickMs;
+    private final int mask;
+    private final List<Timeout>[] buckets;
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Consumer<List<String>> onExpired;
+    private final String threadName;
+
+    private volatile boolean running;
+    private volatile boolean clearRequested;
+    private Thread worker;
+    private long startMs;
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String threadName, long tickMs, int wheelSize, Consumer<List<String>> onExpired) {
+        if (tickMs <= 0) throw new IllegalArgumentException("tickMs must be > 0");
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1; // ближайшая степень двойки
+        this.threadName = threadName;
+        this.tickMs = tickMs;
+        this.mask = size - 1;
+        this.buckets = new List[size];
+        for (int i = 0; i < size; i++) buckets[i] = new ArrayList<>();
+        this.onExpired = onExpired;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        startMs = System.currentTimeMillis();
+        tick = 0;
+        worker = new Thread(this, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) worker.interrupt();
+    }
+
+    /** Запланировать ключ на deadlineMs (epoch ms). Просроченные сработают на ближайшем тике. */
+    public void add(String key, long deadlineMs) {
+        pending.add(new Timeout(key, deadlineMs));
+    }
+
+    /** Сбросить все запланированные таймеры (например, при потере лидерства). */
+    public void clear() {
+        clearRequested = true;
+    }
+
+    @Override
+    public void run() {
+        List<String> expired = new ArrayList<>();
+        while (running) {
+            try {
+                long tickEnd = startMs + (tick + 1) * tickMs;
+                long sleep = tickEnd - System.currentTimeMillis();
+                if (sleep > 0) {
+                    TimeUnit.MILLISECONDS.sleep(sleep);
+                    continue;
+                }
+
+                if (clearRequested) {
+                    clearRequested = false;
+                    pending.clear();
+                    for (List<Timeout> b : buckets) b.clear();
+                }
+                transferPending();
+
+                long now = System.currentTimeMillis();
+                Iterator<Timeout> it = buckets[(int) (tick & mask)].iterator();
+                while (it.hasNext()) {
+                    Timeout t = it.next();
+                    if (t.rounds <= 0 && t.deadlineMs <= now) {
+                        it.remove();
+                        expired.add(t.key);
+                    } else if (t.rounds > 0) {
+                        t.rounds--;
+                    }
+                }
+                tick++;
+
+                if (!expired.isEmpty()) {
+                    List<String> batch = expired;
+                    expired = new ArrayList<>();
+                    try {
+                        onExpired.accept(batch);
+                    } catch (Exception e) {
+                        LOG.warning("Timing wheel handler failed: " + e.getMessage());
+                    }
+                }
+            } catch (InterruptedException ie) {
+                if (!running) break;
+            } catch (Exception e) {
+                LOG.severe("Error in timing wheel " + threadName + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void transferPending() {
+        Timeout t;
+        while ((t = pending.poll()) != null) {
+            long ticks = Math.max(tick, (t.deadlineMs - startMs) / tickMs);
+            t.rounds = (ticks - tick) / buckets.length;
+            buckets[(int) (ticks & mask)].add(t);
+        }
+    }
+}
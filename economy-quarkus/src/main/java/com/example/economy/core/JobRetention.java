@@ -0,0 +1,214 @@
+package com.example.economy.core;
+
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Обслуживание партиций production_jobs (см. V18__production_jobs_partitioned.sql).
+ *
+ * На каждом шарде БД: заводит суточные партиции на partitions-ahead дней вперёд, пачками
+ * по archive-batch переносит завершённые задачи старше retention-days в production_jobs_archive
+ * (упакованными по владельцу и дню), чистит старые ключи идемпотентности, а опустевшие старые
+ * партиции отсоединяет и удаляет. Работает на узле, держащем шард таймеров 0, как и сверка.
+ */
+@ApplicationScoped
+public class JobRetention {
+    private static final Logger LOG = Logger.getLogger(JobRetention.class.getName());
+
+    private static final long DAY_MS = 86_400_000L;
+    private static final String PARTITION_PREFIX = "production_jobs_p";
+    private static final DateTimeFormatter PARTITION_DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    // верхняя граница по end_ms дублируется снаружи подзапроса — для отсечения партиций
+    private static final String SQL_ARCHIVE = """
+        with moved as (
+            delete from production_jobs
+            where end_ms < ? and (id, end_ms) in (
+                select id, end_ms from production_jobs
+                where end_ms < ? and status <> 'IN_PROGRESS'
+                limit ?)
+            returning *
+        ), packed as (
+            insert into production_jobs_archive(owner_uuid, day, jobs_count, jobs)
+            select owner_uuid, (to_timestamp(end_ms / 1000.0) at time zone 'UTC')::date, count(*),
+                   jsonb_agg(to_jsonb(moved) - 'owner_uuid' order by end_ms)
+            from moved
+            group by 1, 2
+        )
+        select count(*) from moved
+        """;
+
+    private static final String SQL_EXPIRE_KEYS = """
+        delete from production_job_keys
+        where idempotency_key in (
+            select idempotency_key from production_job_keys where created_at < to_timestamp(? / 1000.0) limit ?)
+        """;
+
+    private static final String SQL_PARTITIONS = """
+        select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid
+        where i.inhparent = 'production_jobs'::regclass
+        """;
+
+    /** Итоги последнего прохода. */
+    public record Stats(long startedAtMs, long tookMs, int partitionsCreated, long jobsArchived,
+                        long keysExpired, int partitionsDropped) {}
+
+    @Inject DatabaseRouter router;
+    @Inject TimerShards shards;
+
+    @ConfigProperty(name = "app.jobs.retention-days", defaultValue = "7")
+    int retentionDays;
+
+    @ConfigProperty(name = "app.jobs.partitions-ahead", defaultValue = "7")
+    int partitionsAhead;
+
+    @ConfigProperty(name = "app.jobs.archive-batch", defaultValue = "5000")
+    int archiveBatch;
+
+    // ACCESS EXCLUSIVE на DETACH не должна ставить в очередь горячие запросы — не успели, попробуем в следующий раз
+    @ConfigProperty(name = "app.jobs.detach-lock-timeout-ms", defaultValue = "2000")
+    long detachLockTimeoutMs;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Stats last;
+
+    @Scheduled(every = "${app.jobs.retention-every:1m}", delayed = "${app.jobs.retention-delay:30s}",
+            concurrentExecution = ConcurrentExecution.SKIP)
+    void periodic() {
+        if (shards.owns(0)) run();
+    }
+
+    public Stats lastStats() { return last; }
+
+    /** Один проход по всем шардам; если проход уже идёт — возвращает итоги предыдущего. */
+    public Stats run() {
+        if (!running.compareAndSet(false, true)) return last;
+        long started = System.currentTimeMillis();
+        long today = Math.floorDiv(started, DAY_MS) * DAY_MS;
+        // граница хранения по суткам: партиция целиком либо старше неё, либо нет
+        long cutoff = today - retentionDays * DAY_MS;
+        int created = 0, dropped = 0;
+        long archived = 0, expired = 0;
+        try {
+            for (String shard : router.shardNames()) {
+                try (Connection c = router.getShardWriteConnection(shard)) {
+                    created += ensurePartitions(c, today);
+                    archived += archive(c, cutoff);
+                    expired += expireKeys(c, cutoff);
+                    dropped += dropEmpty(c, cutoff);
+                } catch (SQLException e) {
+                    LOG.severe("Job retention failed on shard " + shard + ": " + e.getMessage());
+                }
+            }
+            Stats s = new Stats(started, System.currentTimeMillis() - started, created, archived, expired, dropped);
+            last = s;
+            if (created + archived + dropped > 0) LOG.info("Job retention: " + s);
+            return s;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int ensurePartitions(Connection c, long today) throws SQLException {
+        int created = 0;
+        try (PreparedStatement ps = c.prepareStatement("select production_jobs_ensure_partition(?)")) {
+            for (int d = 0; d <= partitionsAhead; d++) {
+                ps.setLong(1, today + d * DAY_MS);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getBoolean(1)) created++;
+                }
+            }
+        }
+        return created;
+    }
+
+    /** Перенос в архив пачками: каждая пачка — своя короткая транзакция (autocommit). */
+    private long archive(Connection c, long cutoff) throws SQLException {
+        long total = 0;
+        try (PreparedStatement ps = c.prepareStatement(SQL_ARCHIVE)) {
+            while (true) {
+                ps.setLong(1, cutoff);
+                ps.setLong(2, cutoff);
+                ps.setInt(3, archiveBatch);
+                long n;
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    n = rs.getLong(1);
+                }
+                total += n;
+                if (n < archiveBatch) return total;
+            }
+        }
+    }
+
+    private long expireKeys(Connection c, long cutoff) throws SQLException {
+        long total = 0;
+        try (PreparedStatement ps = c.prepareStatement(SQL_EXPIRE_KEYS)) {
+            while (true) {
+                ps.setLong(1, cutoff);
+                ps.setInt(2, archiveBatch);
+                int n = ps.executeUpdate();
+                total += n;
+                if (n < archiveBatch) return total;
+            }
+        }
+    }
+
+    /**
+     * Отсоединить и удалить суточные партиции целиком старше границы хранения, в которых ничего
+     * не осталось. Партиция с зависшей IN_PROGRESS-задачей живёт, пока задачу не завершат.
+     */
+    private int dropEmpty(Connection c, long cutoff) throws SQLException {
+        List<String> old = new ArrayList<>();
+        try (PreparedStatement ps = c.prepareStatement(SQL_PARTITIONS);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                String name = rs.getString(1);
+                if (!name.startsWith(PARTITION_PREFIX)) continue;
+                long dayStart = LocalDate.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_DAY)
+                        .atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                if (dayStart + DAY_MS <= cutoff) old.add(name);
+            }
+        }
+        int dropped = 0;
+        for (String name : old) {
+            c.setAutoCommit(false);
+            try (Statement st = c.createStatement()) {
+                st.execute("set local lock_timeout = " + detachLockTimeoutMs);
+                boolean empty;
+                try (ResultSet rs = st.executeQuery("select not exists (select 1 from " + name + ")")) {
+                    rs.next();
+                    empty = rs.getBoolean(1);
+                }
+                if (empty) {
+                    st.execute("alter table production_jobs detach partition " + name);
+                    st.execute("drop table " + name);
+                    dropped++;
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                LOG.warning("Partition " + name + " not dropped, will retry: " + e.getMessage());
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.economy.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Единый планировщик завершения производственных задач.
+ *
+ * Источник истины — шардированные ZSET prod:due:N в Redis. Узел держит ближайший горизонт
+ * дедлайнов своих шардов (см. {@link TimerShards}) в локальном хешированном колесе таймеров
+ * и забирает задачи из Redis ровно в момент end_ms, а не опросом. В простое Redis видит
+ * только продление аренд и редкую подгрузку горизонта.
+ */
+@ApplicationScoped
+@Startup
+public class JobTimerService implements TimerShards.Listener {
+    private static final Logger LOG = Logger.getLogger(JobTimerService.class.getName());
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    // сигнал владельцу шарда от других узлов: "я запланировал задачу"
+    public static final String SCHEDULE_SUBJECT = "econ.timer.production";
+
+    // сколько просроченных задач забираем из Redis за один round-trip
+    private static final int BATCH = 500;
+    // максимум записей горизонта, подгружаемых за раз на шард
+    private static final int HORIZON_LIMIT = 10_000;
+
+    @Inject Repositories repo;
+    @Inject RedisBus redis;
+    @Inject NatsBus nats;
+    @Inject TimerShards shards;
+
+    @ConfigProperty(name = "app.timer.tick-ms", defaultValue = "5")
+    long tickMs;
+
+    @ConfigProperty(name = "app.timer.horizon-ms", defaultValue = "10000")
+    long horizonMs;
+
+    // jobId -> шард, уже заведённые в колесо (чтобы не дублировать при подгрузке горизонта)
+    private final Map<String, Integer> armed = new ConcurrentHashMap<>();
+    // шарды, по которым сработали таймеры и которые ждут слива
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private HashedTimingWheel wheel;
+    private ExecutorService drainer;
+
+    @PostConstruct
+    void init() {
+        wheel = new HashedTimingWheel("prod-timer-wheel", tickMs, 1024, this::onExpired);
+        wheel.start();
+        drainer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "prod-timer-drain");
+            t.setDaemon(true);
+            return t;
+        });
+        nats.subscribe(SCHEDULE_SUBJECT, this::onRemoteScheduled);
+        shards.addListener(this);
+        shards.rebalance();
+        LOG.info("JobTimerService initialized: tick=" + tickMs + "ms, horizon=" + horizonMs + "ms");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (wheel != null) wheel.stop();
+        if (drainer != null) drainer.shutdownNow();
+    }
+
+    /**
+     * Вызывается после того, как задача записана в prod:due:&lt;shard&gt;.
+     * Если шард наш — заводим таймер сами, иначе сообщаем владельцу через NATS.
+     */
+    public void onJobScheduled(UUID owner, String jobId, long endMs) {
+        int shard = redis.shardOf(owner);
+        if (shards.owns(shard)) {
+            arm(shard, jobId, endMs);
+        } else {
+            nats.publishCore(SCHEDULE_SUBJECT,
+                    "{\"shard\":" + shard + ",\"jobId\":\"" + jobId + "\",\"endMs\":" + endMs + "}");
+        }
+    }
+
+    public int armedCount() { return armed.size(); }
+
+    @Override
+    public void onShardAcquired(int shard) {
+        loadHorizon(shard);
+    }
+
+    @Override
+    public void onShardReleased(int shard) {
+        // таймеры шарда остаются в колесе, но при срабатывании будут проигнорированы
+        armed.values().removeIf(s -> s == shard);
+        if (shards.ownedShards().isEmpty()) wheel.clear();
+    }
+
+    /** Подгрузка горизонта дедлайнов своих шардов из Redis. */
+    @Scheduled(every = "${app.timer.maintain-every:3s}", concurrentExecution = ConcurrentExecution.SKIP)
+    void maintain() {
+        for (int shard : shards.ownedShards()) {
+            try {
+                loadHorizon(shard);
+            } catch (Exception e) {
+                LOG.warning("Timer horizon load failed for shard " + shard + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void loadHorizon(int shard) {
+        long until = System.currentTimeMillis() + horizonMs;
+        for (var e : redis.peekDueJobs(shard, until, HORIZON_LIMIT)) {
+            arm(shard, e.getKey(), e.getValue());
+        }
+    }
+
+    private void arm(int shard, String jobId, long endMs) {
+        // дальние дедлайны подхватит следующая подгрузка горизонта
+        if (endMs > System.currentTimeMillis() + horizonMs) return;
+        if (armed.putIfAbsent(jobId, shard) == null) {
+            wheel.add(jobId, endMs);
+        }
+    }
+
+    private void onRemoteScheduled(String json) {
+        try {
+            JsonNode node = JSON.readTree(json);
+            int shard = node.path("shard").asInt(-1);
+            if (!shards.owns(shard)) return;
+            arm(shard, node.path("jobId").asText(), node.path("endMs").asLong());
+        } catch (Exception e) {
+            LOG.warning("Bad timer schedule message: " + e.getMessage());
+        }
+    }
+
+    private void onExpired(List<String> jobIds) {
+        for (String id : jobIds) {
+            Integer shard = armed.remove(id);
+            if (shard != null) dirty.add(shard);
+        }
+        if (!dirty.isEmpty()) requestDrain();
+    }
+
+    private void requestDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            drainer.execute(this::drain);
+        }
+    }
+
+    /** Забрать из Redis все наступившие задачи сработавших шардов и завершить их пачками. */
+    private void drain() {
+        drainScheduled.set(false);
+        for (Integer shard : List.copyOf(dirty)) {
+            dirty.remove(shard);
+            if (!shards.owns(shard)) continue;
+            try {
+                while (true) {
+                    List<Map.Entry<String, Long>> due = redis.popDueJobs(shard, System.currentTimeMillis(), BATCH);
+                    if (due.isEmpty()) break;
+                    complete(shard, due);
+                    if (due.size() < BATCH) break;
+                }
+            } catch (Exception e) {
+                LOG.severe("Error draining due jobs of shard " + shard + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void complete(int shard, List<Map.Entry<String, Long>> due) {
+        Map<UUID, Long> endByJob = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : due) {
+            try {
+                endByJob.put(UUID.fromString(e.getKey()), e.getValue());
+            } catch (IllegalArgumentException bad) {
+                LOG.warning("Skipping malformed job id in " + RedisBus.ZSET_DUE + ": " + e.getKey());
+            }
+        }
+
+        // уведомления econ.production.done пишутся в outbox той же транзакцией
+        Map<UUID, UUID> done;
+        int deferred;
+        try {
+            Repositories.DoneBatch res = repo.markDoneAndRewardBatch(endByJob);
+            done = res.done();
+            deferred = res.deferred().size();
+            // задачи переезжающих владельцев — обратно в очередь, завершатся после переключения шарда
+            for (UUID jobId : res.deferred()) {
+                try {
+                    redis.scheduleJobInShard(shard, jobId.toString(), endByJob.get(jobId));
+                } catch (Exception e) {
+                    LOG.warning("Failed to re-queue deferred job " + jobId + ": " + e.getMessage());
+                }
+            }
+            if (!res.deferred().isEmpty()) {
+                LOG.info("Deferred " + res.deferred().size() + " jobs of owners moving between DB shards");
+            }
+        } catch (Exception ex) {
+            // транзакция откатилась — возвращаем задачи в очередь, чтобы не потерять их
+            LOG.severe("Error completing " + endByJob.size() + " jobs: " + ex.getMessage());
+            for (var e : endByJob.entrySet()) {
+                try { redis.scheduleJobInShard(shard, e.getKey().toString(), e.getValue()); } catch (Exception ignored) {}
+            }
+            return;
+        }
+
+        if (done.size() + deferred < endByJob.size()) {
+            LOG.warning("markDoneAndRewardBatch skipped " + (endByJob.size() - done.size() - deferred) + " of " + endByJob.size() + " jobs (not IN_PROGRESS)");
+        }
+
+        LOG.info("Completed " + done.size() + " expired jobs");
+    }
+}
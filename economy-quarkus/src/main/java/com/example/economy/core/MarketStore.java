@@ -0,0 +1,288 @@
+package com.example.economy.core;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Персистентность market_orders для {@link MatchingEngine}.
+ *
+ * Write-behind: потоки шардов только кладут изменённые заявки в очередь, отдельный поток
+ * раз в flush-ms (или сразу при накоплении batch строк) склеивает их по id — остаётся последнее
+ * состояние заявки — и пишет пачку одним INSERT ... SELECT FROM unnest(...) ON CONFLICT в своей
+ * транзакции. Новые заявки вставляются, исполненные/отменённые обновляются тем же оператором.
+ * Подтверждённая клиенту заявка попадает в БД с задержкой до flush-ms; при падении узла это окно
+ * теряется (стакан на старте восстанавливается из того, что успело записаться).
+ */
+@ApplicationScoped
+public class MarketStore {
+    private static final Logger LOG = Logger.getLogger(MarketStore.class.getName());
+
+    public static final String OPEN = "OPEN";
+    public static final String PARTIAL = "PARTIAL";
+    public static final String FILLED = "FILLED";
+    public static final String CANCELLED = "CANCELLED";
+
+    /** Состояние заявки на момент изменения (одна строка market_orders). */
+    public record OrderRow(long id, UUID owner, String itemId, boolean buy, long price,
+                           long qty, long filled, String status, long createdMs) {
+        OrderRow cancelled() {
+            return new OrderRow(id, owner, itemId, buy, price, qty, filled, CANCELLED, createdMs);
+        }
+    }
+
+    // filled только растёт: страховка от повторной записи старого состояния после ретрая
+    private static final String SQL_UPSERT = """
+        insert into market_orders (id, owner_uuid, item_id, side, price, qty, filled, status, created_at)
+        select t.id, t.owner_uuid, t.item_id, t.side::order_side, t.price, t.qty, t.filled,
+               t.status::order_status, to_timestamp(t.created_ms / 1000.0)
+        from unnest(?::bigint[], ?::uuid[], ?::text[], ?::text[], ?::bigint[], ?::bigint[], ?::bigint[], ?::text[], ?::bigint[])
+             as t(id, owner_uuid, item_id, side, price, qty, filled, status, created_ms)
+        on conflict (id) do update
+           set filled = greatest(market_orders.filled, excluded.filled),
+               status = excluded.status
+        """;
+
+    private static final String SQL_OPEN = """
+        select id, owner_uuid, item_id, side::text, price, qty, filled, (extract(epoch from created_at) * 1000)::bigint
+        from market_orders
+        where status in ('OPEN', 'PARTIAL')
+        order by id
+        """;
+
+    private static final String SQL_IDS =
+        "select nextval(pg_get_serial_sequence('market_orders', 'id')) from generate_series(1, ?)";
+
+    private static final String SQL_PLAYER = "select 1 from players where uuid = ?";
+
+    // известные владельцы; кеш только положительный, при переполнении сбрасывается целиком
+    private static final int KNOWN_OWNERS_MAX = 100_000;
+
+    @Inject Database db;
+
+    @ConfigProperty(name = "app.market.flush-ms", defaultValue = "20")
+    long flushMs;
+
+    @ConfigProperty(name = "app.market.flush-batch", defaultValue = "2000")
+    int batch;
+
+    private final ConcurrentLinkedQueue<OrderRow> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Semaphore signal = new Semaphore(0);
+    // строки, которые не удалось записать — уходят первыми в следующую попытку
+    private final Map<Long, OrderRow> pending = new LinkedHashMap<>();
+    private final Set<UUID> knownOwners = ConcurrentHashMap.newKeySet();
+    private Thread worker;
+    private volatile boolean running;
+
+    @PostConstruct
+    void init() {
+        running = true;
+        worker = new Thread(this::run, "market-write-behind");
+        worker.setDaemon(true);
+        worker.start();
+        LOG.info("MarketStore initialized: flush=" + flushMs + "ms, batch=" + batch);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try { worker.join(5000); } catch (InterruptedException ignored) {}
+        }
+        flushAll();
+    }
+
+    public static String status(long qty, long filled) {
+        return filled == qty ? FILLED : filled > 0 ? PARTIAL : OPEN;
+    }
+
+    /** Поставить изменённые заявки в очередь записи (вызывается из потоков шардов). */
+    public void enqueue(Collection<OrderRow> rows) {
+        if (rows.isEmpty()) return;
+        queue.addAll(rows);
+        if (queued.addAndGet(rows.size()) >= batch && signal.availablePermits() == 0) signal.release();
+    }
+
+    /** Сколько строк ждут записи (для метрик/админки). */
+    public int backlog() {
+        return queued.get();
+    }
+
+    /** Выделить n id из последовательности market_orders одним запросом. */
+    public long[] allocateIds(int n) {
+        return db.withWriteConnection(c -> {
+            try (PreparedStatement ps = c.prepareStatement(SQL_IDS)) {
+                ps.setInt(1, n);
+                long[] ids = new long[n];
+                int i = 0;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) ids[i++] = rs.getLong(1);
+                }
+                Arrays.sort(ids);
+                return ids;
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to allocate market order ids", e);
+            }
+        });
+    }
+
+    /**
+     * Есть ли игрок в players. Заявку неизвестного владельца write-behind не запишет (FK),
+     * а сведение к тому моменту уже состоится — поэтому проверяем до постановки в стакан.
+     */
+    public boolean ownerExists(UUID owner) {
+        if (knownOwners.contains(owner)) return true;
+        boolean exists = db.withWriteConnection(c -> {
+            try (PreparedStatement ps = c.prepareStatement(SQL_PLAYER)) {
+                ps.setObject(1, owner);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to check player " + owner, e);
+            }
+        });
+        if (exists) {
+            if (knownOwners.size() >= KNOWN_OWNERS_MAX) knownOwners.clear();
+            knownOwners.add(owner);
+        }
+        return exists;
+    }
+
+    /** Прочитать все открытые заявки с primary (порядок id = порядок поступления). */
+    public void loadOpenOrders(Consumer<OrderRow> sink) {
+        db.withWriteConnection(c -> {
+            try (PreparedStatement ps = c.prepareStatement(SQL_OPEN);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long qty = rs.getLong(6), filled = rs.getLong(7);
+                    sink.accept(new OrderRow(rs.getLong(1), (UUID) rs.getObject(2), rs.getString(3),
+                            "BUY".equals(rs.getString(4)), rs.getLong(5), qty, filled,
+                            status(qty, filled), rs.getLong(8)));
+                }
+                return null;
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to load open market orders", e);
+            }
+        });
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                signal.tryAcquire(flushMs, TimeUnit.MILLISECONDS);
+                signal.drainPermits();
+                // крутимся, пока пачки полные
+                while (running && flushOnce() >= batch) { }
+            } catch (InterruptedException ie) {
+                if (!running) break;
+            } catch (Exception e) {
+                LOG.warning("Market write-behind failed, will retry: " + e.getMessage());
+                try { TimeUnit.MILLISECONDS.sleep(Math.max(flushMs, 200)); } catch (InterruptedException ie) { if (!running) break; }
+            }
+        }
+    }
+
+    /** Дописать всё, что осталось в очереди (при остановке). */
+    synchronized void flushAll() {
+        try {
+            while (flushOnce() > 0) { }
+        } catch (Exception e) {
+            LOG.severe("Market write-behind lost " + (pending.size() + queued.get()) + " rows on shutdown: " + e.getMessage());
+        }
+    }
+
+    /** Склеить до batch строк по id и записать одной транзакцией; возвращает число записанных. */
+    synchronized int flushOnce() throws SQLException {
+        OrderRow r;
+        while (pending.size() < batch && (r = queue.poll()) != null) {
+            queued.decrementAndGet();
+            pending.put(r.id(), r); // более позднее состояние заменяет раннее
+        }
+        if (pending.isEmpty()) return 0;
+
+        List<OrderRow> rows = new ArrayList<>(pending.values());
+        try (Connection c = db.getWriteConnection()) {
+            c.setAutoCommit(false);
+            try {
+                upsert(c, rows);
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                // нарушение ограничения (например, владельца удалили) — отсеиваем виновные строки,
+                // иначе одна плохая строка блокировала бы всю очередь; прочие ошибки — ретрай целиком
+                if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) throw e;
+                isolate(c, rows);
+            }
+        }
+        pending.clear();
+        return rows.size();
+    }
+
+    private void isolate(Connection c, List<OrderRow> rows) throws SQLException {
+        c.setAutoCommit(true);
+        for (OrderRow row : rows) {
+            try {
+                upsert(c, List.of(row));
+            } catch (SQLException e) {
+                if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) throw e;
+                LOG.warning("Dropping market order " + row.id() + " state " + row.status() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void upsert(Connection c, List<OrderRow> rows) throws SQLException {
+        int n = rows.size();
+        Long[] ids = new Long[n], prices = new Long[n], qty = new Long[n], filled = new Long[n], created = new Long[n];
+        UUID[] owners = new UUID[n];
+        String[] items = new String[n], sides = new String[n], statuses = new String[n];
+        for (int i = 0; i < n; i++) {
+            OrderRow r = rows.get(i);
+            ids[i] = r.id();
+            owners[i] = r.owner();
+            items[i] = r.itemId();
+            sides[i] = r.buy() ? "BUY" : "SELL";
+            prices[i] = r.price();
+            qty[i] = r.qty();
+            filled[i] = r.filled();
+            statuses[i] = r.status();
+            created[i] = r.createdMs();
+        }
+        try (PreparedStatement ps = c.prepareStatement(SQL_UPSERT)) {
+            ps.setArray(1, c.createArrayOf("bigint", ids));
+            ps.setArray(2, c.createArrayOf("uuid", owners));
+            ps.setArray(3, c.createArrayOf("text", items));
+            ps.setArray(4, c.createArrayOf("text", sides));
+            ps.setArray(5, c.createArrayOf("bigint", prices));
+            ps.setArray(6, c.createArrayOf("bigint", qty));
+            ps.setArray(7, c.createArrayOf("bigint", filled));
+            ps.setArray(8, c.createArrayOf("text", statuses));
+            ps.setArray(9, c.createArrayOf("bigint", created));
+            ps.executeUpdate();
+        }
+    }
+}
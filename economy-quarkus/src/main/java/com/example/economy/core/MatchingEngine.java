@@ -0,0 +1,340 @@
+package com.example.economy.core;
+
+import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Биржевой движок: сведение заявок market_orders по приоритету цена-время.
+ *
+ * Стаканы ({@link OrderBook}) разложены по шардам по хешу item_id; каждый шард обслуживает
+ * один поток-писатель с ограниченной очередью команд, поэтому стаканы не требуют блокировок.
+ * Поток разбирает очередь пачками, изменённые заявки за пачку уходят в {@link MarketStore}
+ * (write-behind), результат отдаётся вызывающему через CompletableFuture сразу после сведения.
+ * id заявок шард берёт блоками из последовательности market_orders — внутри шарда они растут
+ * в порядке поступления, и восстановление на старте (order by id) сохраняет очерёдность.
+ *
+ * Стаканы живут в памяти одного узла, поэтому движок выключен по умолчанию
+ * (app.market.enabled=false) и включается явно на узле, куда направляются запросы к рынку.
+ * Страховка от ошибки конфигурации — аренда в Redis (market:engine:lease), как у
+ * {@link TimerShards}: стаканы поднимает только узел, захвативший её, и при потере аренды
+ * движок останавливается. Тот же единственный писатель обслуживает {@link WalletService}.
+ */
+@ApplicationScoped
+@Startup
+public class MatchingEngine {
+    private static final Logger LOG = Logger.getLogger(MatchingEngine.class.getName());
+
+    public enum Side { BUY, SELL }
+
+    public record Trade(long makerOrderId, UUID makerOwner, long price, long qty) {}
+
+    public record PlaceResult(long orderId, String status, long filled, long remaining, List<Trade> trades) {}
+
+    public record DepthLevel(long price, long qty, int orders) {}
+
+    public record Depth(String itemId, List<DepthLevel> bids, List<DepthLevel> asks) {}
+
+    static final String LEASE_KEY = "market:engine:lease";
+
+    @Inject MarketStore store;
+    @Inject RedisBus redis;
+    @Inject TimerShards nodes;
+
+    @ConfigProperty(name = "app.market.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.market.lease-ms", defaultValue = "15000")
+    long leaseMs;
+
+    @ConfigProperty(name = "app.market.shards", defaultValue = "4")
+    int shardCount;
+
+    // ограничение очереди шарда: при переполнении заявка отклоняется, а не копится в памяти
+    @ConfigProperty(name = "app.market.queue-capacity", defaultValue = "65536")
+    int queueCapacity;
+
+    @ConfigProperty(name = "app.market.id-block", defaultValue = "1000")
+    int idBlock;
+
+    private volatile Shard[] shards = new Shard[0];
+    private volatile boolean active;
+    private volatile long generation;
+    private long renewedAtMs;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            LOG.info("MatchingEngine disabled");
+            return;
+        }
+        maintainLease();
+        if (!active) LOG.warning("MatchingEngine enabled but lease " + LEASE_KEY + " is held by another node; waiting");
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (!active) return;
+        deactivate();
+        redis.releaseLease(LEASE_KEY, nodes.nodeId());
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /** Держит ли узел аренду движка (стаканы подняты и принимают заявки). */
+    public boolean isActive() { return active; }
+
+    /** Номер захвата аренды: растёт при каждом подъёме движка на этом узле. */
+    public long generation() { return generation; }
+
+    /** Продление аренды движка; свободную — захватить и поднять стаканы, потерянную — остановить. */
+    @Scheduled(every = "${app.market.lease-every:3s}", concurrentExecution = ConcurrentExecution.SKIP)
+    synchronized void maintainLease() {
+        if (!enabled) return;
+        long now = System.currentTimeMillis();
+        try {
+            if (active) {
+                if (redis.renewLeases(List.of(LEASE_KEY), nodes.nodeId(), leaseMs)[0]) {
+                    renewedAtMs = now;
+                } else {
+                    LOG.severe("Market engine lease lost; stopping engine");
+                    deactivate();
+                }
+            } else if (!redis.acquireLeases(List.of(LEASE_KEY), nodes.nodeId(), leaseMs, 1).isEmpty()) {
+                renewedAtMs = now;
+                activate();
+            }
+        } catch (Exception e) {
+            LOG.warning("Market engine lease maintenance failed: " + e.getMessage());
+            // не смогли продлить дольше TTL — аренду уже может держать другой узел
+            if (active && now - renewedAtMs >= leaseMs) {
+                LOG.severe("Market engine lease expired; stopping engine");
+                deactivate();
+            }
+        }
+    }
+
+    private void activate() {
+        Shard[] next = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) next[i] = new Shard(i);
+
+        // восстановление до старта потоков: стаканы ещё никому не видны
+        long[] restored = {0};
+        store.loadOpenOrders(r -> {
+            shardOf(next, r.itemId()).book(r.itemId())
+                    .rest(r.id(), r.owner(), r.buy(), r.price(), r.qty(), r.filled(), r.createdMs());
+            restored[0]++;
+        });
+
+        for (Shard s : next) s.start();
+        shards = next;
+        generation++;
+        active = true;
+        LOG.info("MatchingEngine active: shards=" + shardCount + ", restored " + restored[0] + " open orders");
+    }
+
+    private void deactivate() {
+        active = false;
+        Shard[] old = shards;
+        shards = new Shard[0];
+        for (Shard s : old) s.stop();
+        store.flushAll();
+        LOG.info("MatchingEngine stopped");
+    }
+
+    /** Подать лимитную заявку: сводится со встречной стороной, остаток встаёт в стакан. */
+    public CompletableFuture<PlaceResult> place(UUID owner, String itemId, Side side, long price, long qty) {
+        if (owner == null) throw new IllegalArgumentException("ownerUuid is required");
+        if (itemId == null || itemId.isBlank()) throw new IllegalArgumentException("itemId is required");
+        if (side == null) throw new IllegalArgumentException("side must be BUY or SELL");
+        if (price <= 0) throw new IllegalArgumentException("price must be positive");
+        if (qty <= 0) throw new IllegalArgumentException("qty must be positive");
+        if (!store.ownerExists(owner)) throw new IllegalArgumentException("Unknown player " + owner);
+        return submit(itemId, s -> s.place(owner, itemId, side == Side.BUY, price, qty));
+    }
+
+    /** Снять свою заявку; false — заявки уже нет в стакане. */
+    public CompletableFuture<Boolean> cancel(UUID owner, String itemId, long orderId) {
+        if (owner == null) throw new IllegalArgumentException("ownerUuid is required");
+        if (itemId == null || itemId.isBlank()) throw new IllegalArgumentException("itemId is required");
+        return submit(itemId, s -> s.cancel(owner, itemId, orderId));
+    }
+
+    /** Агрегированная глубина стакана (снимается в потоке шарда — согласованная). */
+    public CompletableFuture<Depth> depth(String itemId, int levels) {
+        if (itemId == null || itemId.isBlank()) throw new IllegalArgumentException("itemId is required");
+        int n = Math.max(1, Math.min(levels, 100));
+        return submit(itemId, s -> {
+            OrderBook b = s.books.get(itemId);
+            if (b == null) return new Depth(itemId, List.of(), List.of());
+            return new Depth(itemId, b.depth(true, n), b.depth(false, n));
+        });
+    }
+
+    /** Сводка по шардам для админки; значения читаются без синхронизации и приблизительны. */
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        Shard[] ss = shards;
+        out.put("enabled", enabled);
+        out.put("active", active);
+        out.put("shards", ss.length);
+        List<Map<String, Object>> per = new ArrayList<>();
+        for (Shard s : ss) {
+            per.add(Map.of("shard", s.index, "queued", s.queue.size(), "books", s.bookCount));
+        }
+        out.put("perShard", per);
+        out.put("writeBehindBacklog", store.backlog());
+        return out;
+    }
+
+    private <T> CompletableFuture<T> submit(String itemId, Function<Shard, T> op) {
+        Shard[] ss = shards;
+        if (!active || ss.length == 0) throw new IllegalStateException("Market engine is not active on this node");
+        Shard s = shardOf(ss, itemId);
+        CompletableFuture<T> f = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                f.complete(op.apply(s));
+            } catch (Exception e) {
+                f.completeExceptionally(e);
+            }
+        };
+        if (!s.queue.offer(task)) {
+            f.completeExceptionally(new IllegalStateException("Market is overloaded, retry later"));
+        } else if (!s.running && s.queue.remove(task)) {
+            // шард остановили между проверкой и offer — его очередь уже никто не разберёт
+            f.completeExceptionally(new IllegalStateException("Market engine is not active on this node"));
+        }
+        return f;
+    }
+
+    private static Shard shardOf(Shard[] ss, String itemId) {
+        return ss[(itemId.hashCode() & 0x7fffffff) % ss.length];
+    }
+
+    /** Шард: поток-писатель, его стаканы и блок id. Всё, кроме queue, трогает только этот поток. */
+    private final class Shard {
+        final int index;
+        final ArrayBlockingQueue<Runnable> queue;
+        final Map<String, OrderBook> books = new HashMap<>();
+        volatile int bookCount;
+
+        private final List<MarketStore.OrderRow> dirty = new ArrayList<>();
+        private final List<OrderBook.Fill> fills = new ArrayList<>();
+        private long[] ids = new long[0];
+        private int idPos;
+        private Thread thread;
+        private volatile boolean running;
+
+        Shard(int index) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        void start() {
+            running = true;
+            thread = new Thread(this::run, "market-shard-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            running = false;
+            if (thread == null) return;
+            thread.interrupt();
+            try { thread.join(5000); } catch (InterruptedException ignored) {}
+            // поток остановлен — доделываем принятые команды здесь, чтобы не оставить висящих future
+            List<Runnable> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            for (Runnable r : rest) r.run();
+            flushDirty();
+        }
+
+        OrderBook book(String itemId) {
+            OrderBook b = books.get(itemId);
+            if (b == null) {
+                b = new OrderBook(itemId);
+                books.put(itemId, b);
+                bookCount = books.size();
+            }
+            return b;
+        }
+
+        private void run() {
+            List<Runnable> batch = new ArrayList<>(256);
+            while (running) {
+                try {
+                    Runnable first = queue.poll(200, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    queue.drainTo(batch, 1023);
+                    for (Runnable r : batch) r.run();
+                } catch (InterruptedException ie) {
+                    if (!running) break;
+                } catch (Exception e) {
+                    LOG.warning("Market shard " + index + " task failed: " + e.getMessage());
+                } finally {
+                    batch.clear();
+                    flushDirty();
+                }
+            }
+        }
+
+        private void flushDirty() {
+            if (dirty.isEmpty()) return;
+            store.enqueue(dirty);
+            dirty.clear();
+        }
+
+        PlaceResult place(UUID owner, String itemId, boolean buy, long price, long qty) {
+            long id = nextId();
+            long now = System.currentTimeMillis();
+            OrderBook b = book(itemId);
+
+            fills.clear();
+            long filled = b.match(buy, price, qty, fills, dirty);
+            if (filled < qty) b.rest(id, owner, buy, price, qty, filled, now);
+            String status = MarketStore.status(qty, filled);
+            dirty.add(new MarketStore.OrderRow(id, owner, itemId, buy, price, qty, filled, status, now));
+
+            List<Trade> trades = new ArrayList<>(fills.size());
+            for (OrderBook.Fill f : fills) trades.add(new Trade(f.makerOrderId(), f.makerOwner(), f.price(), f.qty()));
+            return new PlaceResult(id, status, filled, qty - filled, trades);
+        }
+
+        boolean cancel(UUID owner, String itemId, long orderId) {
+            OrderBook b = books.get(itemId);
+            if (b == null) return false;
+            MarketStore.OrderRow row = b.cancel(orderId, owner);
+            if (row == null) return false;
+            dirty.add(row);
+            return true;
+        }
+
+        private long nextId() {
+            // синхронный поход в БД раз в id-block заявок
+            if (idPos == ids.length) {
+                ids = store.allocateIds(idBlock);
+                idPos = 0;
+            }
+            return ids[idPos++];
+        }
+    }
+}
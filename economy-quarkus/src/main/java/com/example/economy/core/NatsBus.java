@@ -4,6 +4,7 @@ import io.nats.client.*;
 import io.nats.client.api.RetentionPolicy;
 import io.nats.client.api.StorageType;
 import io.nats.client.api.StreamConfiguration;
+import io.nats.client.api.PublishAck;
 import io.nats.client.api.StreamInfo;
 import io.quarkus.runtime.Startup;
 import jakarta.annotation.PostConstruct;
@@ -14,8 +15,12 @@ import org.eclipse.microprofile.config.inject.ConfigProperty;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 @ApplicationScoped
@@ -36,8 +41,14 @@ public class NatsBus {
     @ConfigProperty(name = "app.nats.js.subject", defaultValue = "econ.production.done")
     String defaultSubject;
 
+    // econ.> сохранял в стрим и служебные core-сигналы; со стримов, где он уже есть, снимается
+    private static final List<String> RETIRED_SUBJECTS = List.of("econ.>");
+
     private volatile Connection nc;
     private volatile JetStream js;
+    // subject-паттерны стрима; публикации вне них JetStream не подтвердит — такие идут через core
+    private volatile List<String> streamSubjects = List.of();
+    private Dispatcher dispatcher;
 
     @PostConstruct
     void init() {
@@ -58,9 +69,12 @@ public class NatsBus {
             // JetStream mgmt может падать если JS выключен — это нормально, мы всё равно сможем core publish-ить
             try {
                 JetStreamManagement jsm = nc.jetStreamManagement();
-                ensureStreamHasSubjects(jsm, stream, List.of("econ.*", "player.*.skill.training", "player.*.skill.level"));
+                // события outbox многоуровневые (econ.production.done, econ.skill.done) — перечисляем их явно:
+                // служебные сигналы econ.timer.production и econ.skill.level.invalidate в стрим попадать не должны
+                streamSubjects = ensureStreamHasSubjects(jsm, stream, List.of("econ.*", "econ.production.*", "econ.skill.*",
+                        "player.*.skill.training", "player.*.skill.level"));
                 js = nc.jetStream();
-                LOG.info("JetStream ready: stream=" + stream + ", subjects include econ.*, player.*.skill.training, player.*.skill.level");
+                LOG.info("JetStream ready: stream=" + stream + ", subjects " + streamSubjects);
             } catch (Exception jsErr) {
                 js = null;
                 LOG.warning("JetStream is not available now: " + jsErr.getMessage() + " (core publish will be used)");
@@ -78,14 +92,20 @@ public class NatsBus {
         }
     }
 
-    /** Гарантирует существование стрима и наличие всех указанных subject-паттернов. */
-    private void ensureStreamHasSubjects(JetStreamManagement jsm, String stream, List<String> needed) throws Exception {
+    /**
+     * Гарантирует существование стрима и наличие всех указанных subject-паттернов.
+     * Паттерны, которые покрывает более широкий из нужных, убираются — пересекающиеся subjects
+     * в одном стриме сервер не принимает; выведенные из употребления (RETIRED_SUBJECTS) — тоже.
+     * Возвращает итоговый список.
+     */
+    private List<String> ensureStreamHasSubjects(JetStreamManagement jsm, String stream, List<String> needed) throws Exception {
         try {
             StreamInfo info = jsm.getStreamInfo(stream);
             var cfg = info.getConfiguration();
             List<String> subjects = new ArrayList<>(cfg.getSubjects());
             LOG.info("Current stream '" + stream + "' subjects: " + subjects);
-            boolean changed = false;
+            boolean changed = subjects.removeIf(s -> !needed.contains(s)
+                    && (RETIRED_SUBJECTS.contains(s) || needed.stream().anyMatch(n -> subjectMatches(n, s))));
             for (String s : needed) {
                 if (!subjects.contains(s)) {
                     subjects.add(s);
@@ -101,6 +121,7 @@ public class NatsBus {
             } else {
                 LOG.info("Stream '" + stream + "' already has subjects " + subjects);
             }
+            return List.copyOf(subjects);
         } catch (JetStreamApiException notFound) {
             // создаём с нужными subjects
             StreamConfiguration sc = StreamConfiguration.builder()
@@ -111,7 +132,31 @@ public class NatsBus {
                     .build();
             jsm.addStream(sc);
             LOG.info("Created stream '" + stream + "' with subjects " + needed);
+            return List.copyOf(needed);
+        }
+    }
+
+    /** Покрывает ли subject-паттерн (с * и >) subject или более узкий паттерн. */
+    static boolean subjectMatches(String pattern, String subject) {
+        String[] p = pattern.split("\\.");
+        String[] s = subject.split("\\.");
+        for (int i = 0; i < p.length; i++) {
+            if (p[i].equals(">")) return s.length > i;
+            if (i >= s.length) return false;
+            if (p[i].equals("*")) {
+                if (s[i].equals(">")) return false;
+            } else if (!p[i].equals(s[i])) {
+                return false;
+            }
         }
+        return p.length == s.length;
+    }
+
+    private boolean inStream(String subject) {
+        for (String p : streamSubjects) {
+            if (subjectMatches(p, subject)) return true;
+        }
+        return false;
     }
 
     /**
@@ -155,11 +200,118 @@ public class NatsBus {
         }
     }
 
+    /** Сообщение для пакетной публикации. */
+    public record Outgoing(String subject, String json) {}
+
+    /**
+     * Пакетная публикация с подтверждением: сообщения уходят в JetStream асинхронно, затем
+     * ждём ACK всех разом (общий таймаут 5 с). Subjects вне стрима и вся пачка без JetStream —
+     * core publish + flush. Возвращает неподтверждённые: индекс в batch -> текст ошибки;
+     * пустая карта — доставлено всё. Вызывающий (outbox) повторяет только их.
+     */
+    public Map<Integer, String> publishBatch(List<Outgoing> batch) {
+        Map<Integer, String> failed = new LinkedHashMap<>();
+        if (batch.isEmpty()) return failed;
+        if (nc == null) {
+            for (int i = 0; i < batch.size(); i++) failed.put(i, "NATS connection is null");
+            return failed;
+        }
+
+        Map<Integer, CompletableFuture<PublishAck>> acks = new LinkedHashMap<>();
+        List<Integer> core = new ArrayList<>();
+        JetStream jets = js;
+        PublishOptions po = PublishOptions.builder()
+                .stream(stream)
+                .expectedStream(stream)
+                .build();
+        for (int i = 0; i < batch.size(); i++) {
+            Outgoing m = batch.get(i);
+            if (jets == null || !inStream(m.subject())) {
+                core.add(i);
+                continue;
+            }
+            try {
+                acks.put(i, jets.publishAsync(m.subject(), m.json().getBytes(StandardCharsets.UTF_8), po));
+            } catch (Exception e) {
+                failed.put(i, String.valueOf(e.getMessage()));
+            }
+        }
+
+        if (!core.isEmpty()) {
+            try {
+                for (int i : core) {
+                    nc.publish(batch.get(i).subject(), batch.get(i).json().getBytes(StandardCharsets.UTF_8));
+                }
+                nc.flush(Duration.ofSeconds(2));
+            } catch (Exception e) {
+                for (int i : core) failed.put(i, "core publish: " + e.getMessage());
+            }
+        }
+
+        if (!acks.isEmpty()) {
+            try {
+                CompletableFuture.allOf(acks.values().toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+            } catch (Exception ignored) {
+                // разбираем по одному ниже
+            }
+            for (var e : acks.entrySet()) {
+                CompletableFuture<PublishAck> f = e.getValue();
+                if (!f.isDone()) {
+                    f.cancel(false);
+                    failed.put(e.getKey(), "ack timeout");
+                } else if (f.isCompletedExceptionally()) {
+                    try {
+                        f.join();
+                    } catch (Exception ex) {
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        failed.put(e.getKey(), String.valueOf(cause.getMessage()));
+                    }
+                }
+            }
+        }
+        return failed;
+    }
+
     /** Удобная перегрузка — публикация в дефолтный subject из конфига. */
     public void publish(String json) {
         publish(defaultSubject, json);
     }
 
+    /**
+     * Публикация только через core NATS, без JetStream и ACK — для служебных
+     * межузловых сигналов, которые не нужно хранить в стриме.
+     */
+    public void publishCore(String subject, String json) {
+        if (nc == null) {
+            LOG.warning("NATS connection is null; dropping subject=" + subject);
+            return;
+        }
+        try {
+            nc.publish(subject, json.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            LOG.warning("Core NATS publish failed for '" + subject + "': " + e.getMessage());
+        }
+    }
+
+    /** Подписка core NATS; обработчик получает тело сообщения как UTF-8 строку. */
+    public synchronized void subscribe(String subject, Consumer<String> handler) {
+        if (nc == null) {
+            LOG.warning("NATS connection is null; cannot subscribe to " + subject);
+            return;
+        }
+        if (dispatcher == null) {
+            dispatcher = nc.createDispatcher();
+        }
+        dispatcher.subscribe(subject, msg -> {
+            try {
+                handler.accept(new String(msg.getData(), StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                LOG.warning("NATS handler failed for '" + subject + "': " + e.getMessage());
+            }
+        });
+        LOG.info("Subscribed to NATS subject: " + subject);
+    }
+
     // ====== опционально: небольшой API для отладки ======
     public Connection connection() { return nc; }
     public String streamName() { return stream; }
@@ -0,0 +1,187 @@
+package com.example.economy.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Стакан заявок одного item_id с приоритетом цена-время.
+ *
+ * Не потокобезопасен: принадлежит ровно одному потоку шарда {@link MatchingEngine}.
+ * Уровни цен — деревья (bids по убыванию, asks по возрастанию), внутри уровня заявки лежат
+ * FIFO-очередью в параллельных примитивных массивах. Отменённые заявки помечаются нулевым
+ * остатком и выбрасываются, когда доходят до головы очереди.
+ */
+final class OrderBook {
+
+    /** Сделка: встречная заявка из стакана (maker) исполнена по своей цене. */
+    record Fill(long makerOrderId, UUID makerOwner, long price, long qty) {}
+
+    final String itemId;
+    private final TreeMap<Long, Level> bids = new TreeMap<>(Comparator.reverseOrder());
+    private final TreeMap<Long, Level> asks = new TreeMap<>();
+    // orderId -> уровень, где заявка стоит (для отмены без обхода стакана)
+    private final Map<Long, Level> resting = new HashMap<>();
+
+    OrderBook(String itemId) {
+        this.itemId = itemId;
+    }
+
+    int restingOrders() { return resting.size(); }
+
+    /**
+     * Сводит входящую заявку со встречной стороной. Сделки добавляются в fills, изменённые
+     * maker-заявки — в dirty (для write-behind). Возвращает исполненный объём taker-заявки.
+     */
+    long match(boolean buy, long price, long qty, List<Fill> fills, List<MarketStore.OrderRow> dirty) {
+        TreeMap<Long, Level> opposite = buy ? asks : bids;
+        long left = qty;
+        while (left > 0 && !opposite.isEmpty()) {
+            Level level = opposite.firstEntry().getValue();
+            if (buy ? level.price > price : level.price < price) break;
+
+            while (left > 0 && level.head < level.tail) {
+                int i = level.head;
+                long rem = level.qty[i] - level.filled[i];
+                if (rem == 0) { level.head++; continue; } // отменена
+                long take = Math.min(rem, left);
+                level.filled[i] += take;
+                level.volume -= take;
+                left -= take;
+                fills.add(new Fill(level.ids[i], level.owners[i], level.price, take));
+                dirty.add(level.row(this, i));
+                if (level.filled[i] == level.qty[i]) {
+                    resting.remove(level.ids[i]);
+                    level.owners[i] = null;
+                    level.head++;
+                }
+            }
+            // уровень без живого объёма (исполнен или хвост из отменённых) не должен попадать в глубину
+            if (level.volume == 0) opposite.pollFirstEntry();
+        }
+        return qty - left;
+    }
+
+    /** Ставит остаток заявки в стакан (после match или при восстановлении на старте). */
+    void rest(long id, UUID owner, boolean buy, long price, long qty, long filled, long createdMs) {
+        TreeMap<Long, Level> side = buy ? bids : asks;
+        Level level = side.get(price);
+        if (level == null) {
+            level = new Level(buy, price);
+            side.put(price, level);
+        }
+        level.add(id, owner, qty, filled, createdMs);
+        resting.put(id, level);
+    }
+
+    /**
+     * Снимает заявку владельца. Возвращает строку для записи (status=CANCELLED)
+     * или null, если заявки нет в стакане (исполнена, отменена или чужая).
+     */
+    MarketStore.OrderRow cancel(long id, UUID owner) {
+        Level level = resting.get(id);
+        if (level == null) return null;
+        int i = level.indexOf(id);
+        if (i < 0 || !owner.equals(level.owners[i])) return null;
+
+        MarketStore.OrderRow row = level.row(this, i).cancelled();
+        level.volume -= level.qty[i] - level.filled[i];
+        level.qty[i] = level.filled[i]; // нулевой остаток — пропустим при сведении
+        level.owners[i] = null;
+        resting.remove(id);
+        if (level.volume == 0) {
+            (level.buy ? bids : asks).remove(level.price);
+        }
+        return row;
+    }
+
+    /** Агрегированная глубина: до levels уровней с каждой стороны. */
+    List<MatchingEngine.DepthLevel> depth(boolean buy, int levels) {
+        List<MatchingEngine.DepthLevel> out = new ArrayList<>(Math.min(levels, 32));
+        for (Level l : (buy ? bids : asks).values()) {
+            if (out.size() >= levels) break;
+            out.add(new MatchingEngine.DepthLevel(l.price, l.volume, l.live()));
+        }
+        return out;
+    }
+
+    /** Один ценовой уровень: FIFO заявок в параллельных массивах [head, tail). */
+    private static final class Level {
+        final boolean buy;
+        final long price;
+        long[] ids = new long[4];
+        long[] qty = new long[4];
+        long[] filled = new long[4];
+        long[] createdMs = new long[4];
+        UUID[] owners = new UUID[4];
+        int head, tail;
+        long volume; // сумма остатков живых заявок
+
+        Level(boolean buy, long price) {
+            this.buy = buy;
+            this.price = price;
+        }
+
+        void add(long id, UUID owner, long q, long f, long created) {
+            if (tail == ids.length) grow();
+            ids[tail] = id;
+            owners[tail] = owner;
+            qty[tail] = q;
+            filled[tail] = f;
+            createdMs[tail] = created;
+            tail++;
+            volume += q - f;
+        }
+
+        int indexOf(long id) {
+            // ids внутри уровня возрастают (выдаются шарду монотонно) — бинарный поиск
+            int lo = head, hi = tail - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long v = ids[mid];
+                if (v < id) lo = mid + 1;
+                else if (v > id) hi = mid - 1;
+                else return mid;
+            }
+            // страховка: порядок id не гарантирован, если последовательность сбрасывали вручную
+            for (int i = head; i < tail; i++) if (ids[i] == id) return i;
+            return -1;
+        }
+
+        int live() {
+            int n = 0;
+            for (int i = head; i < tail; i++) if (qty[i] > filled[i]) n++;
+            return n;
+        }
+
+        MarketStore.OrderRow row(OrderBook book, int i) {
+            return new MarketStore.OrderRow(ids[i], owners[i], book.itemId, buy, price,
+                    qty[i], filled[i], MarketStore.status(qty[i], filled[i]), createdMs[i]);
+        }
+
+        /** Сдвигает живую часть к началу; при заполненности больше чем наполовину — удваивает. */
+        private void grow() {
+            int n = tail - head;
+            int cap = n * 2 >= ids.length ? ids.length * 2 : ids.length;
+            ids = shift(ids, cap, n);
+            qty = shift(qty, cap, n);
+            filled = shift(filled, cap, n);
+            createdMs = shift(createdMs, cap, n);
+            UUID[] o = new UUID[cap];
+            System.arraycopy(owners, head, o, 0, n);
+            owners = o;
+            head = 0;
+            tail = n;
+        }
+
+        private long[] shift(long[] a, int cap, int n) {
+            long[] b = new long[cap];
+            System.arraycopy(a, head, b, 0, n);
+            return b;
+        }
+    }
+}
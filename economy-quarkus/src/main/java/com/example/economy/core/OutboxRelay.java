@@ -0,0 +1,271 @@
+package com.example.economy.core;
+
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Доставка транзакционного outbox (таблица outbox, см. V12__outbox.sql).
+ *
+ * Пачка строк забирается одним DELETE ... RETURNING по подзапросу с FOR UPDATE SKIP LOCKED,
+ * поэтому несколько реплик релея не мешают друг другу. Redis-постановки группируются в
+ * один ZADD на шард, NATS-события публикуются в JetStream асинхронно с общим ожиданием ACK.
+ * Ошибка Redis откатывает пачку целиком — строки вернутся и будут доставлены повторно
+ * (at-least-once). Неподтверждённые NATS-события пачку не держат: они возвращаются в outbox
+ * с отсрочкой (V19__outbox_retry.sql), а после max-attempts попыток уходят в outbox_dead.
+ * outbox лежит на шарде владельца (строки пишутся в его транзакциях) — релей обходит все шарды.
+ */
+@ApplicationScoped
+@Startup
+public class OutboxRelay {
+    private static final Logger LOG = Logger.getLogger(OutboxRelay.class.getName());
+
+    public static final String KIND_PROD_SCHEDULE = "prod.schedule";
+    public static final String KIND_SKILL_SCHEDULE = "skill.schedule";
+    public static final String KIND_NATS = "nats";
+
+    private static final String SQL_CLAIM = """
+        delete from outbox
+        where id in (select id from outbox where retry_at is null or retry_at <= now()
+                     order by id limit ? for update skip locked)
+        returning id, kind, owner_uuid, ref, due_ms, subject, payload, attempts, created_at
+        """;
+
+    private static final String SQL_RETRY = """
+        insert into outbox(id, kind, owner_uuid, subject, payload, attempts, retry_at, created_at)
+        select u.id, 'nats', u.owner_uuid, u.subject, u.payload, u.attempts,
+               now() + u.delay_ms * interval '1 millisecond', u.created_at
+        from unnest(?::bigint[], ?::uuid[], ?::text[], ?::text[], ?::int[], ?::bigint[], ?::timestamptz[])
+             as u(id, owner_uuid, subject, payload, attempts, delay_ms, created_at)
+        """;
+
+    private static final String SQL_DEAD = """
+        insert into outbox_dead(id, kind, owner_uuid, subject, payload, attempts, last_error, created_at)
+        select u.id, 'nats', u.owner_uuid, u.subject, u.payload, u.attempts, u.last_error, u.created_at
+        from unnest(?::bigint[], ?::uuid[], ?::text[], ?::text[], ?::int[], ?::text[], ?::timestamptz[])
+             as u(id, owner_uuid, subject, payload, attempts, last_error, created_at)
+        on conflict (id) do nothing
+        """;
+
+    /** NATS-строка outbox: нужна целиком, чтобы вернуть её при неудаче. */
+    private record EventRow(long id, UUID owner, String subject, String payload, int attempts, Timestamp createdAt) {}
+
+    @Inject DatabaseRouter router;
+    @Inject RedisBus redis;
+    @Inject NatsBus nats;
+    @Inject JobTimerService timers;
+
+    @ConfigProperty(name = "app.outbox.batch", defaultValue = "500")
+    int batch;
+
+    // интервал опроса в простое; после коммита писатели будят релей через wakeup()
+    @ConfigProperty(name = "app.outbox.poll-ms", defaultValue = "200")
+    long pollMs;
+
+    // отсрочка повтора NATS-события растёт вдвое от poll-ms до max-backoff-ms
+    @ConfigProperty(name = "app.outbox.max-attempts", defaultValue = "20")
+    int maxAttempts;
+
+    @ConfigProperty(name = "app.outbox.max-backoff-ms", defaultValue = "60000")
+    long maxBackoffMs;
+
+    private final Semaphore signal = new Semaphore(0);
+    private Thread worker;
+    private volatile boolean running;
+
+    @PostConstruct
+    void init() {
+        running = true;
+        worker = new Thread(this::run, "outbox-relay");
+        worker.setDaemon(true);
+        worker.start();
+        LOG.info("OutboxRelay initialized: batch=" + batch + ", poll=" + pollMs + "ms");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (worker != null) worker.interrupt();
+    }
+
+    /** Сигнал "в outbox появились строки" — вызывать после коммита. */
+    public void wakeup() {
+        if (signal.availablePermits() == 0) signal.release();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                signal.tryAcquire(pollMs, TimeUnit.MILLISECONDS);
+                signal.drainPermits();
+                // крутимся, пока пачки полные хоть на одном шарде
+                boolean full;
+                do {
+                    full = false;
+                    for (String shard : router.shardNames()) {
+                        if (relayOnce(shard) >= batch) full = true;
+                    }
+                } while (running && full);
+            } catch (InterruptedException ie) {
+                if (!running) break;
+            } catch (Exception e) {
+                LOG.warning("Outbox relay failed, will retry: " + e.getMessage());
+                try { TimeUnit.MILLISECONDS.sleep(pollMs); } catch (InterruptedException ie) { if (!running) break; }
+            }
+        }
+    }
+
+    /** Забрать и доставить одну пачку шарда; возвращает число доставленных строк. */
+    int relayOnce(String shard) throws Exception {
+        try (Connection c = router.getShardWriteConnection(shard)) {
+            c.setAutoCommit(false);
+            try {
+                List<RedisBus.DueJob> jobs = new ArrayList<>();
+                Map<UUID, Long> skills = new LinkedHashMap<>();
+                List<NatsBus.Outgoing> events = new ArrayList<>();
+                List<EventRow> eventRows = new ArrayList<>();
+                int n = 0;
+
+                try (PreparedStatement ps = c.prepareStatement(SQL_CLAIM)) {
+                    ps.setInt(1, batch);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            n++;
+                            String kind = rs.getString(2);
+                            UUID owner = (UUID) rs.getObject(3);
+                            switch (kind) {
+                                case KIND_PROD_SCHEDULE -> jobs.add(new RedisBus.DueJob(owner, rs.getString(4), rs.getLong(5)));
+                                case KIND_SKILL_SCHEDULE -> skills.merge(owner, rs.getLong(5), Math::max);
+                                case KIND_NATS -> {
+                                    events.add(new NatsBus.Outgoing(rs.getString(6), rs.getString(7)));
+                                    eventRows.add(new EventRow(rs.getLong(1), owner, rs.getString(6), rs.getString(7),
+                                            rs.getInt(8), rs.getTimestamp(9)));
+                                }
+                                default -> LOG.warning("Dropping outbox row " + rs.getLong(1) + " of unknown kind " + kind);
+                            }
+                        }
+                    }
+                }
+                if (n == 0) {
+                    c.rollback();
+                    return 0;
+                }
+
+                if (!jobs.isEmpty()) redis.scheduleJobs(jobs);
+                if (!skills.isEmpty()) redis.scheduleSkills(skills);
+                Map<Integer, String> failed = nats.publishBatch(events);
+                if (!failed.isEmpty()) requeue(c, eventRows, failed);
+                c.commit();
+
+                // таймеры — только подсказка владельцу шарда; горизонт всё равно подгружается из Redis
+                for (RedisBus.DueJob j : jobs) {
+                    try {
+                        timers.onJobScheduled(j.owner(), j.jobId(), j.endMs());
+                    } catch (Exception e) {
+                        LOG.warning("Timer notification failed for job " + j.jobId() + ": " + e.getMessage());
+                    }
+                }
+                return n - failed.size();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /** Неподтверждённые события — обратно в outbox с отсрочкой либо, после maxAttempts, в outbox_dead. */
+    private void requeue(Connection c, List<EventRow> rows, Map<Integer, String> failed) throws SQLException {
+        List<EventRow> retry = new ArrayList<>();
+        List<EventRow> dead = new ArrayList<>();
+        List<String> deadErrors = new ArrayList<>();
+        for (var e : failed.entrySet()) {
+            EventRow r = rows.get(e.getKey());
+            if (r.attempts() + 1 >= maxAttempts) {
+                dead.add(r);
+                deadErrors.add(e.getValue());
+            } else {
+                retry.add(r);
+            }
+        }
+
+        if (!retry.isEmpty()) {
+            int k = retry.size();
+            Long[] ids = new Long[k];
+            UUID[] owners = new UUID[k];
+            String[] subjects = new String[k];
+            String[] payloads = new String[k];
+            Integer[] attempts = new Integer[k];
+            Long[] delays = new Long[k];
+            Timestamp[] created = new Timestamp[k];
+            for (int i = 0; i < k; i++) {
+                EventRow r = retry.get(i);
+                ids[i] = r.id();
+                owners[i] = r.owner();
+                subjects[i] = r.subject();
+                payloads[i] = r.payload();
+                attempts[i] = r.attempts() + 1;
+                delays[i] = Math.min(maxBackoffMs, pollMs << Math.min(r.attempts(), 20));
+                created[i] = r.createdAt();
+            }
+            try (PreparedStatement ps = c.prepareStatement(SQL_RETRY)) {
+                ps.setArray(1, c.createArrayOf("bigint", ids));
+                ps.setArray(2, c.createArrayOf("uuid", owners));
+                ps.setArray(3, c.createArrayOf("text", subjects));
+                ps.setArray(4, c.createArrayOf("text", payloads));
+                ps.setArray(5, c.createArrayOf("int4", attempts));
+                ps.setArray(6, c.createArrayOf("bigint", delays));
+                ps.setArray(7, c.createArrayOf("timestamptz", created));
+                ps.executeUpdate();
+            }
+            LOG.warning("Outbox: " + k + " NATS event(s) not acknowledged, will retry; first error: "
+                    + failed.values().iterator().next());
+        }
+
+        if (!dead.isEmpty()) {
+            int k = dead.size();
+            Long[] ids = new Long[k];
+            UUID[] owners = new UUID[k];
+            String[] subjects = new String[k];
+            String[] payloads = new String[k];
+            Integer[] attempts = new Integer[k];
+            Timestamp[] created = new Timestamp[k];
+            for (int i = 0; i < k; i++) {
+                EventRow r = dead.get(i);
+                ids[i] = r.id();
+                owners[i] = r.owner();
+                subjects[i] = r.subject();
+                payloads[i] = r.payload();
+                attempts[i] = r.attempts() + 1;
+                created[i] = r.createdAt();
+            }
+            try (PreparedStatement ps = c.prepareStatement(SQL_DEAD)) {
+                ps.setArray(1, c.createArrayOf("bigint", ids));
+                ps.setArray(2, c.createArrayOf("uuid", owners));
+                ps.setArray(3, c.createArrayOf("text", subjects));
+                ps.setArray(4, c.createArrayOf("text", payloads));
+                ps.setArray(5, c.createArrayOf("int4", attempts));
+                ps.setArray(6, c.createArrayOf("text", deadErrors.toArray(new String[0])));
+                ps.setArray(7, c.createArrayOf("timestamptz", created));
+                ps.executeUpdate();
+            }
+            LOG.severe("Outbox: " + k + " NATS event(s) moved to outbox_dead after " + maxAttempts + " attempts");
+        }
+    }
+}
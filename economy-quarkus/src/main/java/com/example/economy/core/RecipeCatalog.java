@@ -0,0 +1,125 @@
+package com.example.economy.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Неизменяемый снимок каталога рецептов (и бонусов навыков для админки).
+ *
+ * Собирается целиком в {@link ExtendedRecipeService#refresh()} и подменяется атомарно
+ * через volatile-ссылку: читатели всегда видят согласованный снимок без блокировок и без БД.
+ * Версия монотонно растёт при каждой подмене, etag — SHA-256 содержимого (как у SkillCatalogService).
+ * Объекты внутри снимка считаются только для чтения.
+ */
+public final class RecipeCatalog {
+    public static final RecipeCatalog EMPTY = new RecipeCatalog(0, List.of(), List.of());
+
+    /** Подписчик на подмену снимка (вызывается после подмены, в потоке того, кто её сделал). */
+    public interface Listener {
+        /** changedIds — изменённые/удалённые рецепты; null — снимок пересобран целиком. */
+        void onCatalogChanged(RecipeCatalog catalog, Set<String> changedIds);
+    }
+
+    private final long version;
+    private final String etag;
+    private final List<ExtendedRecipeService.Recipe> recipes;
+    private final Map<String, ExtendedRecipeService.Recipe> byId;
+    private final List<ExtendedRecipeService.SkillBonus> bonuses;
+    private final int enabledRecipes;
+    private final int categories;
+    private final int enabledBonuses;
+    private final int bonusOperations;
+
+    RecipeCatalog(long version, List<ExtendedRecipeService.Recipe> recipes, List<ExtendedRecipeService.SkillBonus> bonuses) {
+        this.version = version;
+        this.recipes = List.copyOf(recipes);
+        this.bonuses = List.copyOf(bonuses);
+
+        Map<String, ExtendedRecipeService.Recipe> m = new HashMap<>(recipes.size() * 2);
+        Set<String> cats = new HashSet<>();
+        int enabled = 0;
+        for (var r : recipes) {
+            m.put(r.id, r);
+            cats.add(r.category);
+            if (r.enabled) enabled++;
+        }
+        this.byId = Collections.unmodifiableMap(m);
+        this.enabledRecipes = enabled;
+        this.categories = cats.size();
+
+        Set<String> ops = new HashSet<>();
+        int enabledB = 0;
+        for (var b : bonuses) {
+            ops.add(b.operation);
+            if (b.enabled) enabledB++;
+        }
+        this.enabledBonuses = enabledB;
+        this.bonusOperations = ops.size();
+        this.etag = computeEtag(this.recipes, this.bonuses);
+    }
+
+    public long version() { return version; }
+    public String etag() { return etag; }
+    public List<ExtendedRecipeService.Recipe> recipes() { return recipes; }
+    public ExtendedRecipeService.Recipe recipeOrNull(String id) { return byId.get(id); }
+    public List<ExtendedRecipeService.SkillBonus> bonuses() { return bonuses; }
+
+    /**
+     * Новый снимок, в котором рецепты ids заменены на loaded (отсутствующие в loaded — удалены,
+     * новые — добавлены в конец). Остальные рецепты переиспользуются как есть.
+     */
+    RecipeCatalog withRecipes(Collection<String> ids, Map<String, ExtendedRecipeService.Recipe> loaded) {
+        List<ExtendedRecipeService.Recipe> next = new ArrayList<>(recipes.size() + loaded.size());
+        Set<String> placed = new HashSet<>();
+        for (var r : recipes) {
+            if (!ids.contains(r.id)) {
+                next.add(r);
+            } else if (loaded.containsKey(r.id)) {
+                next.add(loaded.get(r.id));
+                placed.add(r.id);
+            }
+        }
+        for (var e : loaded.entrySet()) {
+            if (!placed.contains(e.getKey())) next.add(e.getValue());
+        }
+        return new RecipeCatalog(version + 1, next, bonuses);
+    }
+
+    /** Новый снимок с заменённым списком бонусов. */
+    RecipeCatalog withBonuses(List<ExtendedRecipeService.SkillBonus> nextBonuses) {
+        return new RecipeCatalog(version + 1, recipes, nextBonuses);
+    }
+
+    public int enabledRecipes() { return enabledRecipes; }
+    public int categories() { return categories; }
+    public int enabledBonuses() { return enabledBonuses; }
+    public int bonusOperations() { return bonusOperations; }
+
+    private static String computeEtag(List<ExtendedRecipeService.Recipe> recipes, List<ExtendedRecipeService.SkillBonus> bonuses) {
+        try {
+            var md = MessageDigest.getInstance("SHA-256");
+            recipes.stream().sorted(Comparator.comparing(r -> r.id)).forEach(r -> {
+                update(md, r.id, r.name, r.tag, r.category, Long.toString(r.baseDurationMs), Boolean.toString(r.enabled));
+                for (var in : r.inputs) update(md, "i", in.itemId, Integer.toString(in.quantity), Integer.toString(in.sortOrder));
+                for (var out : r.outputs) update(md, "o", out.itemId, Integer.toString(out.quantity), Double.toString(out.chance));
+                for (var req : r.requirements) update(md, "r", req.type, req.target, req.value);
+            });
+            for (var b : bonuses) {
+                update(md, "b", b.skillId, b.kind, b.target, b.operation,
+                        Integer.toString(b.perLevelBps), Integer.toString(b.capBps), Boolean.toString(b.enabled));
+            }
+            byte[] d = md.digest();
+            StringBuilder sb = new StringBuilder();
+            for (byte bb : d) sb.append(String.format("%02x", bb));
+            return sb.toString();
+        } catch (Exception e) { return Long.toString(System.currentTimeMillis()); }
+    }
+
+    private static void update(MessageDigest md, String... parts) {
+        for (String p : parts) {
+            if (p != null) md.update(p.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0); // разделитель, чтобы "ab"+"c" != "a"+"bc"
+        }
+    }
+}
@@ -1,41 +1,95 @@
 package com.example.economy.core;
 
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 import java.util.*;
+import java.util.logging.Logger;
 
+/**
+ * Рецепты для горячего пути старта производства.
+ *
+ * Copy-on-write снимок поверх каталога {@link ExtendedRecipeService} (таблицы recipes/recipe_inputs):
+ * чтение — один volatile read и HashMap.get, без блокировок и без БД. Входы хранятся
+ * параллельными примитивными массивами, itemId интернированы (одинаковые предметы разных
+ * рецептов — один объект). При точечном изменении каталога пересобираются только изменённые
+ * рецепты, остальные объекты переиспользуются. В снимок попадают только включённые рецепты.
+ */
 @ApplicationScoped
-public class RecipeRegistry {
-    public static final class Input {
-        public final String itemId;
-        public final long qty;
-        public Input(String itemId, long qty) { this.itemId = itemId; this.qty = qty; }
-    }
+@Startup
+public class RecipeRegistry implements RecipeCatalog.Listener {
+    private static final Logger LOG = Logger.getLogger(RecipeRegistry.class.getName());
+
     public static final class Recipe {
         public final String id;          // "demo:diamond"
         public final String tag;         // "industry" (под этот тег вешаем бонусы)
         public final long baseDurationMs;
-        public final List<Input> inputs; // базовые входы без бонусов
-        public Recipe(String id, String tag, long baseDurationMs, List<Input> inputs) {
-            this.id=id; this.tag=tag; this.baseDurationMs=baseDurationMs; this.inputs = List.copyOf(inputs);
+        // базовые входы без бонусов: inputItemIds[i] x inputQty[i]
+        private final String[] inputItemIds;
+        private final long[] inputQty;
+
+        Recipe(String id, String tag, long baseDurationMs, String[] inputItemIds, long[] inputQty) {
+            this.id = id; this.tag = tag; this.baseDurationMs = baseDurationMs;
+            this.inputItemIds = inputItemIds; this.inputQty = inputQty;
         }
+
+        public int inputCount() { return inputItemIds.length; }
+        public String inputItemId(int i) { return inputItemIds[i]; }
+        public long inputQty(int i) { return inputQty[i]; }
     }
 
-    private final Map<String, Recipe> byId;
-    public RecipeRegistry() {
-        Map<String, Recipe> m = new LinkedHashMap<>();
+    @Inject ExtendedRecipeService catalog;
 
-        // === Пример тестового рецепта ===
-        m.put("demo:diamond", new Recipe(
-                "demo:diamond",
-                "industry",                  // на него попадут бонусы skill.kind='tag' target='industry'
-                5_000L,
-                List.of( new Input("ore.iron", 10) )  // по умолчанию надо 10 руды
-        ));
+    private volatile Map<String, Recipe> byId = Map.of();
+    private volatile long catalogVersion;
 
-        byId = Collections.unmodifiableMap(m);
+    @PostConstruct
+    void init() {
+        catalog.addListener(this); // сразу отдаёт текущий снимок как полную пересборку
     }
 
     public Recipe get(String id) { return byId.get(id); }
     public boolean exists(String id) { return byId.containsKey(id); }
+    public int size() { return byId.size(); }
+    /** Версия каталога, из которой собран текущий снимок. */
+    public long catalogVersion() { return catalogVersion; }
+
+    @Override
+    public synchronized void onCatalogChanged(RecipeCatalog snapshot, Set<String> changedIds) {
+        Map<String, Recipe> next;
+        if (changedIds == null) {
+            next = new HashMap<>(snapshot.recipes().size() * 2);
+            for (var r : snapshot.recipes()) {
+                if (r.enabled) next.put(r.id, compile(r));
+            }
+        } else {
+            if (changedIds.isEmpty()) {
+                catalogVersion = snapshot.version();
+                return;
+            }
+            next = new HashMap<>(byId);
+            for (String id : changedIds) {
+                var r = snapshot.recipeOrNull(id);
+                if (r != null && r.enabled) next.put(id, compile(r)); else next.remove(id);
+            }
+        }
+        byId = Collections.unmodifiableMap(next);
+        catalogVersion = snapshot.version();
+        LOG.info("RecipeRegistry rebuilt from catalog v" + snapshot.version() + ": " + next.size() + " recipes"
+                + (changedIds == null ? "" : ", changed " + changedIds));
+    }
+
+    private static Recipe compile(ExtendedRecipeService.Recipe r) {
+        int n = r.inputs.size();
+        String[] items = new String[n];
+        long[] qty = new long[n];
+        for (int i = 0; i < n; i++) {
+            var in = r.inputs.get(i);
+            items[i] = in.itemId.intern();
+            qty[i] = in.quantity;
+        }
+        return new Recipe(r.id.intern(), r.tag == null ? null : r.tag.intern(), r.baseDurationMs, items, qty);
+    }
 }
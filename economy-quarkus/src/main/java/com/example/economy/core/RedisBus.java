@@ -1,128 +1,439 @@
 package com.example.economy.core;
 
 import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.hash.HashCommands;
+import io.quarkus.redis.datasource.sortedset.ScoreRange;
 import io.quarkus.redis.datasource.sortedset.ScoredValue;
 import io.quarkus.redis.datasource.sortedset.SortedSetCommands;
-import io.quarkus.redis.datasource.value.ValueCommands;
+import io.quarkus.redis.datasource.sortedset.ZRangeArgs;
 import io.quarkus.redis.datasource.keys.KeyCommands;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 @ApplicationScoped
 public class RedisBus {
-    // Производство
+    // Производство (базовое имя; реальные ключи — prod:due:<shard>, без суффикса — наследие до шардирования)
     public static final String ZSET_DUE = "prod:due";
-    // Навыки
+    // Навыки (skill:due:<shard>)
     public static final String ZSET_SKILL_DUE = "skill:due";
-    // Кэш уровней навыков (TTL 5 минут)
-    public static final String SKILL_LEVEL_PREFIX = "skill:level:";
+    // Аренды шардов таймеров и реестр живых узлов
+    public static final String SHARD_LEASE_PREFIX = "timer:shard:";
+    public static final String TIMER_NODES = "timer:nodes";
+    // Кэш уровней навыков: один hash на игрока skill:levels:<uuid> (skillId -> level), TTL 5 минут
+    public static final String SKILL_LEVELS_PREFIX = "skill:levels:";
+    // служебное поле hash'а: "уровни игрока загружены целиком" (у игрока без навыков hash иначе пуст)
+    private static final String SKILL_LEVELS_LOADED = "~";
+    private static final long SKILL_LEVELS_TTL_MS = 300_000;
 
+    /**
+     * Lua-скрипт, исполняемый через EVALSHA. SHA лениво загружается через SCRIPT LOAD
+     * и сбрасывается, если Redis потерял кэш скриптов (рестарт/SCRIPT FLUSH).
+     */
+    private static final class Script {
+        final String body;
+        volatile String sha;
+        Script(String body) { this.body = body; }
+    }
+
+    /**
+     * Атомарно забрать до ARGV[2] элементов со score <= ARGV[1] из ZSET KEYS[1].
+     * Возвращает плоский массив [member, score, member, score, ...].
+     * Чтение и удаление выполняются в одном скрипте — другой узел не увидит "полузабранную" запись.
+     */
+    private static final Script POP_DUE = new Script("""
+            local items = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'WITHSCORES', 'LIMIT', 0, tonumber(ARGV[2]))
+            for i = 1, #items, 2 do
+                redis.call('ZREM', KEYS[1], items[i])
+            end
+            return items
+            """);
+
+    /** Освободить аренду KEYS[1], только если она принадлежит ARGV[1]. */
+    private static final Script RELEASE_LEASE = new Script("""
+            if redis.call('GET', KEYS[1]) == ARGV[1] then
+                return redis.call('DEL', KEYS[1])
+            end
+            return 0
+            """);
+
+    /** Продлить все аренды из KEYS, принадлежащие ARGV[1]. Возвращает 1/0 для каждого ключа. */
+    private static final Script RENEW_LEASES = new Script("""
+            local out = {}
+            for i = 1, #KEYS do
+                if redis.call('GET', KEYS[i]) == ARGV[1] then
+                    out[i] = redis.call('PEXPIRE', KEYS[i], ARGV[2])
+                else
+                    out[i] = 0
+                end
+            end
+            return out
+            """);
+
+    /** Захватить (SET NX PX) не более ARGV[3] свободных аренд из KEYS по порядку. Возвращает индексы (с 1). */
+    private static final Script ACQUIRE_LEASES = new Script("""
+            local out = {}
+            local max = tonumber(ARGV[3])
+            for i = 1, #KEYS do
+                if #out >= max then break end
+                if redis.call('SET', KEYS[i], ARGV[1], 'NX', 'PX', ARGV[2]) then
+                    out[#out + 1] = i
+                end
+            end
+            return out
+            """);
+
+    /** Отметить узел ARGV[1] живым на момент ARGV[2], вычистить узлы старше ARGV[3] мс, вернуть число живых. */
+    private static final Script HEARTBEAT = new Script("""
+            redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+            redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', tonumber(ARGV[2]) - tonumber(ARGV[3]))
+            return redis.call('ZCARD', KEYS[1])
+            """);
+
+    /** Записать hash KEYS[1] из пар ARGV[2..] и выставить PEXPIRE ARGV[1] — один round-trip. */
+    private static final Script HSET_PEXPIRE = new Script("""
+            redis.call('HSET', KEYS[1], unpack(ARGV, 2))
+            redis.call('PEXPIRE', KEYS[1], ARGV[1])
+            return 1
+            """);
+
+    private final RedisDataSource ds;
     private final SortedSetCommands<String, String> zset;
-    private final ValueCommands<String, String> values;
     private final KeyCommands<String> keys;
+    private final HashCommands<String, String, String> hashes;
+    private final int shardCount;
 
     @Inject
-    public RedisBus(RedisDataSource ds) {
+    public RedisBus(RedisDataSource ds,
+                    @ConfigProperty(name = "app.timer.shards", defaultValue = "16") int shardCount) {
+        this.ds = ds;
+        this.shardCount = Math.max(1, shardCount);
         this.zset = ds.sortedSet(String.class, String.class);
-        this.values = ds.value(String.class, String.class);
         this.keys = ds.key(String.class);
+        this.hashes = ds.hash(String.class, String.class, String.class);
+    }
+
+    /* ===================== ОБЩЕЕ: ПАКЕТНЫЙ ЗАБОР ТАЙМЕРОВ ===================== */
+
+    /**
+     * Атомарно забрать пачку просроченных записей из ZSET за один round-trip.
+     * Возвращает список (member, score) в порядке возрастания score; пустой, если ничего не наступило.
+     */
+    public List<Map.Entry<String, Long>> popDueBatch(String zsetKey, long nowMs, int limit) {
+        if (limit <= 0) return List.of();
+        var res = eval(POP_DUE, zsetKey, Long.toString(nowMs), Integer.toString(limit));
+        return toScoredEntries(res);
+    }
+
+    /**
+     * Посмотреть (без удаления) записи ZSET со score <= untilMs — для загрузки горизонта в локальный таймер.
+     */
+    public List<Map.Entry<String, Long>> peekDue(String zsetKey, long untilMs, int limit) {
+        var list = zset.zrangebyscoreWithScores(zsetKey, ScoreRange.from(0L, untilMs), new ZRangeArgs().limit(0, limit));
+        List<Map.Entry<String, Long>> out = new ArrayList<>(list.size());
+        for (var sv : list) out.add(Map.entry(sv.value(), (long) sv.score()));
+        return out;
+    }
+
+    private static List<Map.Entry<String, Long>> toScoredEntries(io.vertx.mutiny.redis.client.Response res) {
+        if (res == null || res.size() == 0) return List.of();
+        List<Map.Entry<String, Long>> out = new ArrayList<>(res.size() / 2);
+        for (int i = 0; i + 1 < res.size(); i += 2) {
+            String member = res.get(i).toString();
+            long score = (long) Double.parseDouble(res.get(i + 1).toString());
+            out.add(Map.entry(member, score));
+        }
+        return out;
+    }
+
+    /** Выполнить скрипт с одним ключом через EVALSHA (с откатом на EVAL при NOSCRIPT). */
+    private io.vertx.mutiny.redis.client.Response eval(Script script, String key, String... args) {
+        return eval(script, List.of(key), args);
+    }
+
+    private io.vertx.mutiny.redis.client.Response eval(Script script, List<String> keyList, String... args) {
+        String[] tail = new String[1 + keyList.size() + args.length];
+        tail[0] = Integer.toString(keyList.size());
+        for (int i = 0; i < keyList.size(); i++) tail[1 + i] = keyList.get(i);
+        System.arraycopy(args, 0, tail, 1 + keyList.size(), args.length);
+
+        String sha = script.sha;
+        if (sha == null) {
+            sha = ds.execute("SCRIPT", "LOAD", script.body).toString();
+            script.sha = sha;
+        }
+        try {
+            return ds.execute("EVALSHA", prepend(sha, tail));
+        } catch (Exception e) {
+            // после рестарта/SCRIPT FLUSH скрипта в кэше нет — выполняем целиком и перезагружаем SHA
+            if (!isNoScript(e)) throw e;
+            script.sha = null;
+            return ds.execute("EVAL", prepend(script.body, tail));
+        }
+    }
+
+    private static String[] prepend(String first, String[] rest) {
+        String[] out = new String[rest.length + 1];
+        out[0] = first;
+        System.arraycopy(rest, 0, out, 1, rest.length);
+        return out;
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) return true;
+        }
+        return false;
+    }
+
+    /* ===================== АРЕНДЫ ШАРДОВ ===================== */
+
+    /** Отдать аренду (при остановке узла), чтобы другой узел подхватил её без ожидания TTL. */
+    public void releaseLease(String key, String owner) {
+        try {
+            eval(RELEASE_LEASE, key, owner);
+        } catch (Exception ignored) {}
+    }
+
+    /** Продлить пачку аренд одним вызовом. Возвращает признак успеха для каждого ключа по порядку. */
+    public boolean[] renewLeases(List<String> leaseKeys, String owner, long ttlMs) {
+        boolean[] out = new boolean[leaseKeys.size()];
+        if (leaseKeys.isEmpty()) return out;
+        var res = eval(RENEW_LEASES, leaseKeys, owner, Long.toString(ttlMs));
+        for (int i = 0; i < out.length && i < res.size(); i++) out[i] = res.get(i).toLong() == 1L;
+        return out;
+    }
+
+    /** Захватить до max свободных аренд из списка (по порядку). Возвращает индексы захваченных ключей. */
+    public List<Integer> acquireLeases(List<String> leaseKeys, String owner, long ttlMs, int max) {
+        if (leaseKeys.isEmpty() || max <= 0) return List.of();
+        var res = eval(ACQUIRE_LEASES, leaseKeys, owner, Long.toString(ttlMs), Integer.toString(max));
+        List<Integer> out = new ArrayList<>(res.size());
+        for (int i = 0; i < res.size(); i++) out.add(res.get(i).toInteger() - 1);
+        return out;
+    }
+
+    /** Heartbeat узла в реестре; возвращает число живых узлов (включая этот). */
+    public int heartbeat(String nodeId, long nowMs, long ttlMs) {
+        var res = eval(HEARTBEAT, TIMER_NODES, nodeId, Long.toString(nowMs), Long.toString(ttlMs));
+        return res == null ? 1 : Math.max(1, res.toInteger());
+    }
+
+    /** Убрать узел из реестра (при остановке). */
+    public void removeNode(String nodeId) {
+        try {
+            zset.zrem(TIMER_NODES, nodeId);
+        } catch (Exception ignored) {}
+    }
+
+    /* ===================== ШАРДЫ ТАЙМЕРОВ ===================== */
+
+    public int shardCount() { return shardCount; }
+
+    /** Шард владельца: все таймеры одного игрока живут в одном шарде. */
+    public int shardOf(UUID owner) {
+        return Math.floorMod(owner.hashCode(), shardCount);
+    }
+
+    public static String shardLeaseKey(int shard) { return SHARD_LEASE_PREFIX + shard + ":lease"; }
+    public static String prodDueKey(int shard) { return ZSET_DUE + ":" + shard; }
+    public static String skillDueKey(int shard) { return ZSET_SKILL_DUE + ":" + shard; }
+
+    /**
+     * Ключи, которые обслуживает шард. Шард 0 дополнительно дочищает ключ без суффикса,
+     * куда писали узлы до шардирования.
+     */
+    private static List<String> dueKeysOf(String base, int shard) {
+        String key = base + ":" + shard;
+        return shard == 0 ? List.of(key, base) : List.of(key);
+    }
+
+    private List<Map.Entry<String, Long>> popDueShard(String base, int shard, long nowMs, int limit) {
+        List<Map.Entry<String, Long>> out = new ArrayList<>();
+        for (String key : dueKeysOf(base, shard)) {
+            if (out.size() >= limit) break;
+            out.addAll(popDueBatch(key, nowMs, limit - out.size()));
+        }
+        return out;
+    }
+
+    private List<Map.Entry<String, Long>> peekDueShard(String base, int shard, long untilMs, int limit) {
+        List<Map.Entry<String, Long>> out = new ArrayList<>();
+        for (String key : dueKeysOf(base, shard)) {
+            if (out.size() >= limit) break;
+            out.addAll(peekDue(key, untilMs, limit - out.size()));
+        }
+        return out;
+    }
+
+    private List<ScoredValue<String>> listAll(String base) {
+        List<ScoredValue<String>> out = new ArrayList<>(zset.zrangeWithScores(base, 0, -1));
+        for (int s = 0; s < shardCount; s++) out.addAll(zset.zrangeWithScores(base + ":" + s, 0, -1));
+        out.sort(java.util.Comparator.comparingDouble(ScoredValue::score));
+        return out;
     }
 
     /* ===================== ПРОИЗВОДСТВО ===================== */
 
-    /** Запланировать завершение производственной задачи */
-    public void scheduleJob(String jobId, long endMs) {
-        zset.zadd(ZSET_DUE, endMs, jobId);
+    /** Запланировать завершение производственной задачи (в шард владельца) */
+    public void scheduleJob(UUID owner, String jobId, long endMs) {
+        scheduleJobInShard(shardOf(owner), jobId, endMs);
     }
 
-    /** Атомарно забрать просроченную прод-задачу (или вернуть в ZSET, если ещё рано) */
-    public Map.Entry<String, Long> tryPopDueAtomic(long nowMs) {
-        var popped = zset.zpopmin(ZSET_DUE, 1);
-        if (popped == null || popped.isEmpty()) return null;
+    /** Запланированная задача для пакетной постановки в due-сеты. */
+    public record DueJob(UUID owner, String jobId, long endMs) {}
 
-        var sv = popped.get(0);
-        long endAtMs = (long) sv.score();
-        String jobId = sv.value();
+    /** Пачка задач: один ZADD на затронутый шард вместо ZADD на задачу. */
+    public void scheduleJobs(List<DueJob> jobs) {
+        Map<Integer, Map<String, Double>> byShard = new HashMap<>();
+        for (DueJob j : jobs) {
+            byShard.computeIfAbsent(shardOf(j.owner()), s -> new HashMap<>()).put(j.jobId(), (double) j.endMs());
+        }
+        for (var e : byShard.entrySet()) {
+            zset.zadd(prodDueKey(e.getKey()), e.getValue());
+        }
+    }
 
-        if (endAtMs > nowMs) {
-            // ещё не наступил дедлайн — вернём обратно
-            zset.zadd(ZSET_DUE, endAtMs, jobId);
-            return null;
+    /** Вернуть задачу в конкретный шард (например, после неудачного завершения) */
+    public void scheduleJobInShard(int shard, String jobId, long endMs) {
+        zset.zadd(prodDueKey(shard), endMs, jobId);
+    }
+
+    /** Атомарно забрать пачку просроченных прод-задач шарда (jobId, endAtMs) */
+    public List<Map.Entry<String, Long>> popDueJobs(int shard, long nowMs, int limit) {
+        return popDueShard(ZSET_DUE, shard, nowMs, limit);
+    }
+
+    /** Ближайшие дедлайны прод-задач шарда без удаления */
+    public List<Map.Entry<String, Long>> peekDueJobs(int shard, long untilMs, int limit) {
+        return peekDueShard(ZSET_DUE, shard, untilMs, limit);
+    }
+
+    /** Атомарно забрать одну просроченную прод-задачу из любого шарда (null, если пока рано/пусто) */
+    public Map.Entry<String, Long> tryPopDueAtomic(long nowMs) {
+        for (int s = 0; s < shardCount; s++) {
+            var popped = popDueJobs(s, nowMs, 1);
+            if (!popped.isEmpty()) return popped.get(0);
         }
-        return Map.entry(jobId, endAtMs);
+        return null;
     }
 
-    /** Для отладки: показать все задачи производства */
+    /** Для отладки: показать все задачи производства (все шарды) */
     public List<ScoredValue<String>> listAllJobs() {
-        return zset.zrangeWithScores(ZSET_DUE, 0, -1);
+        return listAll(ZSET_DUE);
     }
 
     /* ======================= НАВЫКИ ======================== */
 
-    /** Запланировать завершение обучения навыка у игрока */
+    /** Запланировать завершение обучения навыка у игрока (в шард владельца) */
     public void scheduleSkill(UUID owner, long endMs) {
-        zset.zadd(ZSET_SKILL_DUE, endMs, owner.toString());
+        zset.zadd(skillDueKey(shardOf(owner)), endMs, owner.toString());
+    }
+
+    /** Какие из jobId отсутствуют в prod:due шарда (один ZMSCORE на пачку). */
+    public List<String> missingJobs(int shard, List<String> jobIds) {
+        return missing(prodDueKey(shard), jobIds);
+    }
+
+    /** Какие из владельцев отсутствуют в skill:due шарда (один ZMSCORE на пачку). */
+    public List<String> missingSkills(int shard, List<String> owners) {
+        return missing(skillDueKey(shard), owners);
+    }
+
+    private List<String> missing(String key, List<String> members) {
+        List<String> out = new ArrayList<>();
+        if (members.isEmpty()) return out;
+        var scores = zset.zmscore(key, members.toArray(new String[0]));
+        for (int i = 0; i < members.size(); i++) {
+            if (scores.get(i).isEmpty()) out.add(members.get(i));
+        }
+        return out;
+    }
+
+    /** Пачка тренировок (owner -> endMs): один ZADD на затронутый шард. */
+    public void scheduleSkills(Map<UUID, Long> endByOwner) {
+        Map<Integer, Map<String, Double>> byShard = new HashMap<>();
+        for (var e : endByOwner.entrySet()) {
+            byShard.computeIfAbsent(shardOf(e.getKey()), s -> new HashMap<>()).put(e.getKey().toString(), (double) e.getValue());
+        }
+        for (var e : byShard.entrySet()) {
+            zset.zadd(skillDueKey(e.getKey()), e.getValue());
+        }
+    }
+
+    /** Атомарно забрать пачку просроченных записей обучения шарда (ownerUuid, endAtMs) */
+    public List<Map.Entry<UUID, Long>> popDueSkills(int shard, long nowMs, int limit) {
+        var popped = popDueShard(ZSET_SKILL_DUE, shard, nowMs, limit);
+        List<Map.Entry<UUID, Long>> out = new ArrayList<>(popped.size());
+        for (var e : popped) out.add(Map.entry(UUID.fromString(e.getKey()), e.getValue()));
+        return out;
     }
 
     /**
-     * Атомарно забрать просроченную запись обучения навыка.
+     * Атомарно забрать просроченную запись обучения навыка из любого шарда.
      * Возвращает (ownerUuid, endAtMs) или null, если пока рано/пусто.
      */
     public Map.Entry<UUID, Long> tryPopSkillDueAtomic(long nowMs) {
-        var popped = zset.zpopmin(ZSET_SKILL_DUE, 1);
-        if (popped == null || popped.isEmpty()) return null;
-
-        var sv = popped.get(0);
-        long endAtMs = (long) sv.score();
-        String ownerStr = sv.value();
-
-        if (endAtMs > nowMs) {
-            // вернём обратно — дедлайн ещё не настал
-            zset.zadd(ZSET_SKILL_DUE, endAtMs, ownerStr);
-            return null;
+        for (int s = 0; s < shardCount; s++) {
+            var popped = popDueSkills(s, nowMs, 1);
+            if (!popped.isEmpty()) return popped.get(0);
         }
-        return Map.entry(UUID.fromString(ownerStr), endAtMs);
+        return null;
     }
 
-    /** Для отладки: показать все таймеры навыков */
+    /** Для отладки: показать все таймеры навыков (все шарды) */
     public List<ScoredValue<String>> listAllSkillTimers() {
-        return zset.zrangeWithScores(ZSET_SKILL_DUE, 0, -1);
+        return listAll(ZSET_SKILL_DUE);
     }
 
     /* ===================== КЭШИРОВАНИЕ НАВЫКОВ ===================== */
 
-    /** Получить уровень навыка из кэша (null если нет в кэше) */
-    public Integer getCachedSkillLevel(UUID owner, String skillId) {
+    /**
+     * Все уровни навыков игрока из кэша одним HGETALL (навыки без записи — уровень 0).
+     * null, если уровни игрока не закэшированы или Redis недоступен.
+     */
+    public Map<String, Integer> getCachedSkillLevels(UUID owner) {
         try {
-            String key = SKILL_LEVEL_PREFIX + owner + ":" + skillId;
-            String value = values.get(key);
-            return value != null ? Integer.parseInt(value) : null;
+            Map<String, String> raw = hashes.hgetall(SKILL_LEVELS_PREFIX + owner);
+            if (raw == null || !raw.containsKey(SKILL_LEVELS_LOADED)) return null;
+            Map<String, Integer> out = new HashMap<>(raw.size());
+            for (var e : raw.entrySet()) {
+                if (!SKILL_LEVELS_LOADED.equals(e.getKey())) out.put(e.getKey(), Integer.parseInt(e.getValue()));
+            }
+            return out;
         } catch (Exception e) {
             return null;
         }
     }
 
-    /** Закэшировать уровень навыка на 5 минут */
-    public void cacheSkillLevel(UUID owner, String skillId, int level) {
+    /** Закэшировать все уровни игрока на 5 минут: HSET всех полей и PEXPIRE одним скриптом. */
+    public void cacheSkillLevels(UUID owner, Map<String, Integer> levels) {
         try {
-            String key = SKILL_LEVEL_PREFIX + owner + ":" + skillId;
-            values.set(key, String.valueOf(level));
-            keys.expire(key, Duration.ofMinutes(5)); // устанавливаем TTL отдельно
+            String[] args = new String[1 + 2 * (levels.size() + 1)];
+            int i = 0;
+            args[i++] = Long.toString(SKILL_LEVELS_TTL_MS);
+            args[i++] = SKILL_LEVELS_LOADED;
+            args[i++] = "1";
+            for (var e : levels.entrySet()) {
+                args[i++] = e.getKey();
+                args[i++] = Integer.toString(e.getValue());
+            }
+            eval(HSET_PEXPIRE, SKILL_LEVELS_PREFIX + owner, args);
         } catch (Exception ignored) {
             // Если Redis недоступен - не падаем
         }
     }
 
-    /** Инвалидировать кэш уровня навыка (при изменении) */
-    public void invalidateSkillLevel(UUID owner, String skillId) {
+    /** Инвалидировать кэш уровней игрока (при изменении любого навыка) */
+    public void invalidateSkillLevels(UUID owner) {
         try {
-            String key = SKILL_LEVEL_PREFIX + owner + ":" + skillId;
-            keys.del(key); // удаляем ключ
+            keys.del(SKILL_LEVELS_PREFIX + owner);
         } catch (Exception ignored) {}
     }
 }
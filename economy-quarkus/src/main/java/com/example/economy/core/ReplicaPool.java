@@ -0,0 +1,126 @@
+package com.example.economy.core;
+
+import io.agroal.api.AgroalDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул соединений одной реплики (свой PgBouncer) и его наблюдаемое состояние для
+ * {@link DatabaseRouter}: отставание, позиция воспроизведения WAL, задержки выдачи соединения
+ * и запросов. Замеры пишут все потоки без блокировок, перцентили и стоимость пересчитывает
+ * фоновый опрос роутера — на горячем пути только чтение volatile-полей.
+ */
+public final class ReplicaPool {
+
+    final String name;
+    final AgroalDataSource ds;
+
+    private final Window acquire = new Window();
+    private final Window query = new Window();
+
+    // адрес сервера, как его видит primary в pg_stat_replication.client_addr
+    volatile String serverAddr;
+    volatile long lagBytes;
+    volatile long replayLsn = -1;
+    volatile boolean ejected;
+    volatile String ejectReason;
+
+    // пересчитываются опросом, в микросекундах
+    private volatile long acquireP50, acquireP99, queryP50, queryP99;
+    private volatile double cost;
+
+    ReplicaPool(String name, AgroalDataSource ds) {
+        this.name = name;
+        this.ds = ds;
+    }
+
+    public String name() { return name; }
+    public boolean ejected() { return ejected; }
+    public long lagBytes() { return lagBytes; }
+
+    /** Соединение с замером времени выдачи. */
+    Connection getConnection() throws SQLException {
+        long t0 = System.nanoTime();
+        Connection c = ds.getConnection();
+        acquire.record(System.nanoTime() - t0);
+        return c;
+    }
+
+    void recordQuery(long nanos) {
+        query.record(nanos);
+    }
+
+    /**
+     * Пересчитать перцентили и стоимость для выбора "из двух случайных".
+     * Стоимость — типичная задержка плюс четверть хвоста, умноженная на долю отставания
+     * от порога исключения (реплика на грани исключения вдвое "дороже" догнавшей).
+     */
+    void recompute(long ejectLagBytes) {
+        long[] a = acquire.percentiles();
+        long[] q = query.percentiles();
+        acquireP50 = a[0]; acquireP99 = a[1];
+        queryP50 = q[0]; queryP99 = q[1];
+        double latency = acquireP50 + queryP50 + (acquireP99 + queryP99) / 4.0;
+        double lagFactor = 1.0 + Math.min(1.0, (double) Math.max(0, lagBytes) / Math.max(1, ejectLagBytes));
+        cost = (latency + 1) * lagFactor;
+    }
+
+    double cost() { return cost; }
+
+    Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("name", name);
+        m.put("ejected", ejected);
+        if (ejectReason != null) m.put("ejectReason", ejectReason);
+        m.put("serverAddr", serverAddr);
+        m.put("lagBytes", lagBytes);
+        m.put("replayLsn", replayLsn);
+        m.put("acquireP50Us", acquireP50);
+        m.put("acquireP99Us", acquireP99);
+        m.put("queryP50Us", queryP50);
+        m.put("queryP99Us", queryP99);
+        m.put("cost", cost);
+        return m;
+    }
+
+    /** Скользящее окно последних замеров (кольцо); гонки записи допустимы — это статистика. */
+    static final class Window {
+        private static final int SIZE = 1024;
+        private final long[] samples = new long[SIZE];
+        private final AtomicLong next = new AtomicLong();
+
+        void record(long nanos) {
+            samples[(int) (next.getAndIncrement() & (SIZE - 1))] = nanos;
+        }
+
+        long count() {
+            return next.get();
+        }
+
+        /** {p50, p99} в микросекундах. */
+        long[] percentiles() {
+            long[] s = sorted();
+            int n = s.length;
+            if (n == 0) return new long[]{0, 0};
+            return new long[]{s[(n - 1) / 2] / 1000, s[(int) ((n - 1) * 0.99)] / 1000};
+        }
+
+        /** Перцентиль q (0..1) в наносекундах; -1 — замеров ещё нет. */
+        long percentileNanos(double q) {
+            long[] s = sorted();
+            return s.length == 0 ? -1 : s[(int) ((s.length - 1) * q)];
+        }
+
+        private long[] sorted() {
+            int n = (int) Math.min(next.get(), SIZE);
+            long[] s = Arrays.copyOf(samples, n);
+            Arrays.sort(s);
+            return s;
+        }
+    }
+}
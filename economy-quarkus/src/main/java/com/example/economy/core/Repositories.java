@@ -1,6 +1,7 @@
 package com.example.economy.core;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.mindrot.jbcrypt.BCrypt;
 
 import java.nio.charset.StandardCharsets;
@@ -13,10 +14,22 @@ import java.util.UUID;
 public class Repositories {
     private final Database db;
     private final RedisBus redis;
+    private final SkillLevelCache levelCache;
+    private final OutboxRelay outbox;
+    // шард владельца и read-your-writes: после записи его чтения не уходят на отстающую реплику
+    private final DatabaseRouter router;
+
+    // глубина истории в listJobs; старше — завершённые задачи, их со временем заберёт архив (JobRetention)
+    @ConfigProperty(name = "app.jobs.list-horizon-ms", defaultValue = "86400000")
+    long listHorizonMs;
     
-    public Repositories(Database db, RedisBus redis) { 
+    public Repositories(Database db, RedisBus redis, SkillLevelCache levelCache, OutboxRelay outbox,
+                        DatabaseRouter router) { 
         this.db = db; 
         this.redis = redis;
+        this.levelCache = levelCache;
+        this.outbox = outbox;
+        this.router = router;
     }
 
     // ===== helpers =====
@@ -36,13 +49,28 @@ public class Repositories {
         }
     }
 
+    private static final String SQL_OUTBOX = "insert into outbox(kind, owner_uuid, ref, due_ms, subject, payload) values (?,?,?,?,?,?)";
+
+    /** Строка outbox в текущей транзакции; доставит {@link OutboxRelay} после коммита. */
+    private static void addOutbox(PreparedStatement ps, String kind, UUID owner, String ref, Long dueMs,
+                                  String subject, String payload) throws SQLException {
+        ps.setString(1, kind);
+        ps.setObject(2, owner);
+        ps.setString(3, ref);
+        if (dueMs == null) ps.setNull(4, Types.BIGINT); else ps.setLong(4, dueMs);
+        ps.setString(5, subject);
+        ps.setString(6, payload);
+        ps.addBatch();
+    }
+
+    private static final String SQL_UPSERT_PLAYER = "insert into players(uuid, username) values(?, ?) " +
+            "on conflict (uuid) do update set username = excluded.username, last_seen = now()";
+
     // ----- AUTH -----
     public void upsertPlayer(UUID uuid, String username) throws Exception {
         try (Connection c = db.getWriteConnection()) {
             c.setAutoCommit(false);
-            try (PreparedStatement ps = c.prepareStatement(
-                    "insert into players(uuid, username) values(?, ?) " +
-                            "on conflict (uuid) do update set username = excluded.username, last_seen = now()")) {
+            try (PreparedStatement ps = c.prepareStatement(SQL_UPSERT_PLAYER)) {
                 ps.setObject(1, uuid);
                 ps.setString(2, username);
                 ps.executeUpdate();
@@ -55,6 +83,15 @@ public class Repositories {
             }
             c.commit();
         }
+        // на шарде владельца нужна своя строка players — на неё ссылаются production_jobs и player_rewards
+        if (!DatabaseRouter.GLOBAL_SHARD.equals(router.shardOf(uuid))) {
+            try (Connection c = router.getWriteConnection(uuid);
+                 PreparedStatement ps = c.prepareStatement(SQL_UPSERT_PLAYER)) {
+                ps.setObject(1, uuid);
+                ps.setString(2, username);
+                ps.executeUpdate();
+            }
+        }
     }
 
     public boolean createAuthUser(UUID uuid, String rawPassword) throws Exception {
@@ -88,6 +125,14 @@ public class Repositories {
     // ----- PRODUCTION -----
     public record JobRow(UUID id, UUID owner, String recipeId, long startMs, long endMs, String status) {}
 
+    // по ключу известен end_ms — поиск задачи попадает в одну партицию
+    private static final String SQL_JOB_BY_KEY = """
+            select j.id, j.owner_uuid, j.recipe_id, j.start_ms, j.end_ms, j.status
+            from production_job_keys k
+            join production_jobs j on j.id = k.job_id and j.end_ms = k.end_ms
+            where k.idempotency_key = ?
+            """;
+
     /**
      * Создаёт job, используя частичный уникальный индекс по idempotency_key.
      * Если вызов повторный (тот же idemKey) — вернёт уже существующую строку.
@@ -97,25 +142,34 @@ public class Repositories {
             idemKey = idemKeyFor(owner, recipeId, startMs, endMs);
         }
 
-        // ВАЖНО: для частичного индекса нужен предикат в ON CONFLICT
+        // задача вставляется, только если ключ новый (production_job_keys, см. V18)
         final String SQL_INSERT = """
+            with key as (
+                insert into production_job_keys(idempotency_key, owner_uuid, job_id, end_ms)
+                values (?,?,?,?)
+                on conflict (idempotency_key) do nothing
+                returning job_id
+            )
             insert into production_jobs(id, owner_uuid, recipe_id, start_ms, end_ms, status, idempotency_key)
-            values (?,?,?,?,?,'IN_PROGRESS',?)
-            on conflict (idempotency_key) where (idempotency_key is not null) do nothing
+            select ?,?,?,?,?,'IN_PROGRESS',? from key
             returning id, owner_uuid, recipe_id, start_ms, end_ms, status
             """;
 
-        try (Connection c = db.getWriteConnection()) {
+        try (Connection c = router.getWriteConnection(owner)) {
             c.setAutoCommit(false);
 
             // Пытаемся вставить
             try (PreparedStatement ps = c.prepareStatement(SQL_INSERT)) {
-                ps.setObject(1, id);
+                ps.setString(1, idemKey);
                 ps.setObject(2, owner);
-                ps.setString(3, recipeId);
-                ps.setLong(4, startMs);
-                ps.setLong(5, endMs);
-                ps.setString(6, idemKey);
+                ps.setObject(3, id);
+                ps.setLong(4, endMs);
+                ps.setObject(5, id);
+                ps.setObject(6, owner);
+                ps.setString(7, recipeId);
+                ps.setLong(8, startMs);
+                ps.setLong(9, endMs);
+                ps.setString(10, idemKey);
 
                 try (ResultSet rs = ps.executeQuery()) {
                     if (rs.next()) {
@@ -128,18 +182,20 @@ public class Repositories {
                                 rs.getLong(5),
                                 rs.getString(6)
                         );
+                        try (PreparedStatement ob = c.prepareStatement(SQL_OUTBOX)) {
+                            addOutbox(ob, OutboxRelay.KIND_PROD_SCHEDULE, owner, id.toString(), endMs, null, null);
+                            ob.executeBatch();
+                        }
                         c.commit();
+                        outbox.wakeup();
+                        router.recordWrite(owner, c);
                         return row;
                     }
                 }
             }
 
             // Вставка не произошла (повтор) — достанем существующую по idemKey
-            try (PreparedStatement sel = c.prepareStatement("""
-                    select id, owner_uuid, recipe_id, start_ms, end_ms, status
-                    from production_jobs
-                    where idempotency_key = ?
-                    """)) {
+            try (PreparedStatement sel = c.prepareStatement(SQL_JOB_BY_KEY)) {
                 sel.setString(1, idemKey);
                 try (ResultSet rs = sel.executeQuery()) {
                     if (rs.next()) {
@@ -163,66 +219,269 @@ public class Repositories {
         }
     }
 
-    public boolean markDoneAndReward(UUID jobId) throws Exception {
-        try (Connection c = db.getWriteConnection()) {
+    /**
+     * Старт производства одной транзакцией и одним запросом: списание материалов
+     * (UPDATE ... FROM unnest) и вставка задачи — в одном CTE, задача вставляется, только
+     * если списались все позиции, вместе с ней пишется строка outbox на постановку в Redis.
+     * Повтор по idempotency key ничего не списывает (списание закрыто проверкой ключа в том же
+     * запросе) и возвращает уже существующую задачу.
+     */
+    public JobRow startJob(UUID id, UUID owner, String recipeId, Map<String, Long> req,
+                           long startMs, long endMs, String idemKey) throws Exception {
+        if (idemKey == null || idemKey.isBlank()) {
+            idemKey = idemKeyFor(owner, recipeId, startMs, endMs);
+        }
+        Map<String, Long> need = new TreeMap<>(req);
+        String[] items = need.keySet().toArray(new String[0]);
+        Long[] qtys = need.values().toArray(new Long[0]);
+
+        final String SQL_START = """
+            with existing as (
+                select job_id from production_job_keys where idempotency_key = ?
+            ), consumed as (
+                update player_materials pm set qty = pm.qty - n.need
+                from unnest(?::text[], ?::bigint[]) as n(item_id, need)
+                where pm.owner_uuid = ? and pm.item_id = n.item_id and pm.qty >= n.need
+                  and not exists (select 1 from existing)
+                returning pm.item_id
+            ), key as (
+                insert into production_job_keys(idempotency_key, owner_uuid, job_id, end_ms)
+                select ?, ?, ?, ?
+                where (select count(*) from consumed) = ?
+                on conflict (idempotency_key) do nothing
+                returning job_id
+            ), job as (
+                insert into production_jobs(id, owner_uuid, recipe_id, start_ms, end_ms, status, idempotency_key)
+                select ?, ?, ?, ?, ?, 'IN_PROGRESS', ? from key
+                returning id, owner_uuid, end_ms
+            ), scheduled as (
+                insert into outbox(kind, owner_uuid, ref, due_ms)
+                select 'prod.schedule', owner_uuid, id::text, end_ms from job
+            )
+            select (select array_agg(item_id) from consumed), (select id from job), exists (select 1 from existing)
+            """;
+
+        try (Connection c = router.getWriteConnection(owner)) {
             c.setAutoCommit(false);
+            Set<String> consumed = new HashSet<>();
+            boolean inserted;
+            boolean replay;
+            try (PreparedStatement ps = c.prepareStatement(SQL_START)) {
+                ps.setString(1, idemKey);
+                ps.setArray(2, c.createArrayOf("text", items));
+                ps.setArray(3, c.createArrayOf("bigint", qtys));
+                ps.setObject(4, owner);
+                ps.setString(5, idemKey);
+                ps.setObject(6, owner);
+                ps.setObject(7, id);
+                ps.setLong(8, endMs);
+                ps.setInt(9, items.length);
+                ps.setObject(10, id);
+                ps.setObject(11, owner);
+                ps.setString(12, recipeId);
+                ps.setLong(13, startMs);
+                ps.setLong(14, endMs);
+                ps.setString(15, idemKey);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    Array arr = rs.getArray(1);
+                    if (arr != null) consumed.addAll(Arrays.asList((String[]) arr.getArray()));
+                    inserted = rs.getObject(2) != null;
+                    replay = rs.getBoolean(3);
+                }
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            }
 
-            // 1) mark done iff IN_PROGRESS
-            int n;
-            try (PreparedStatement up = c.prepareStatement(
-                    "update production_jobs set status='DONE', updated_at=now() where id=? and status='IN_PROGRESS'")) {
-                up.setObject(1, jobId);
-                n = up.executeUpdate();
-                if (n == 0) { c.rollback(); return false; }
+            if (inserted) {
+                c.commit();
+                outbox.wakeup();
+                router.recordWrite(owner, c);
+                return new JobRow(id, owner, recipeId, startMs, endMs, "IN_PROGRESS");
             }
+            c.rollback();
 
-            // 2) add reward to owner
-            UUID owner = null;
-            try (PreparedStatement sel = c.prepareStatement("select owner_uuid from production_jobs where id=?")) {
-                sel.setObject(1, jobId);
-                try (ResultSet rs = sel.executeQuery()) {
-                    if (rs.next()) owner = (UUID) rs.getObject(1);
+            if (!replay && consumed.size() < items.length) {
+                for (String item : items) {
+                    if (consumed.contains(item)) continue;
+                    long have = getMaterial(owner, item);
+                    throw new IllegalStateException("Not enough " + item + " need " + need.get(item) + " have " + have);
                 }
             }
-            if (owner == null) { c.rollback(); return false; }
 
-            try (PreparedStatement rw = c.prepareStatement(
-                    "insert into player_rewards(owner_uuid, count) values(?,1) " +
-                            "on conflict (owner_uuid) do update set count = player_rewards.count + 1, updated_at=now()")) {
-                rw.setObject(1, owner);
-                rw.executeUpdate();
+            // повтор (или параллельный запрос с тем же ключом успел раньше) — возвращаем существующую;
+            // чтение вне транзакции, чтобы соединение не вернулось в пул с открытой
+            c.setAutoCommit(true);
+            try (PreparedStatement sel = c.prepareStatement(SQL_JOB_BY_KEY)) {
+                sel.setString(1, idemKey);
+                try (ResultSet rs = sel.executeQuery()) {
+                    if (rs.next()) {
+                        return new JobRow(
+                                (UUID) rs.getObject(1),
+                                (UUID) rs.getObject(2),
+                                rs.getString(3),
+                                rs.getLong(4),
+                                rs.getLong(5),
+                                rs.getString(6)
+                        );
+                    }
+                    throw new IllegalStateException("Idempotency conflict but no existing row found");
+                }
             }
+        }
+    }
 
-            c.commit();
-            return true;
+    /**
+     * Итог завершения пачки: done — jobId -> owner реально завершённых задач (для уведомлений),
+     * deferred — задачи владельцев, которых сейчас нельзя писать (переезд на другой шард):
+     * их нужно вернуть в очередь и завершить позже.
+     */
+    public record DoneBatch(Map<UUID, UUID> done, Set<UUID> deferred) {}
+
+    public boolean markDoneAndReward(UUID jobId) throws Exception {
+        return !markDoneAndRewardBatch(List.of(jobId)).done().isEmpty();
+    }
+
+    /**
+     * Завершение пачки задач, у которых известен end_ms (due-сет Redis хранит его как score):
+     * запрос ограничен диапазоном end_ms пачки и попадает только в текущие партиции.
+     */
+    public DoneBatch markDoneAndRewardBatch(Map<UUID, Long> endByJob) throws Exception {
+        if (endByJob == null || endByJob.isEmpty()) return new DoneBatch(new LinkedHashMap<>(), new HashSet<>());
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (long end : endByJob.values()) {
+            min = Math.min(min, end);
+            max = Math.max(max, end);
         }
+        return markDoneAndRewardBatch(endByJob.keySet(), min, max);
     }
 
-    public List<JobRow> listJobs(UUID owner) throws Exception {
-        List<JobRow> out = new ArrayList<>();
-        try (Connection c = db.getReadConnection();
-             PreparedStatement ps = c.prepareStatement(
-                     "select id, owner_uuid, recipe_id, start_ms, end_ms, status " +
-                             "from production_jobs where owner_uuid=? order by end_ms asc")) {
-            ps.setObject(1, owner);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    out.add(new JobRow(
-                            (UUID) rs.getObject(1),
-                            (UUID) rs.getObject(2),
-                            rs.getString(3),
-                            rs.getLong(4),
-                            rs.getLong(5),
-                            rs.getString(6)
-                    ));
+    /**
+     * Завершает пачку задач одной транзакцией на шард: UPDATE ... RETURNING отмечает DONE только
+     * те, что ещё IN_PROGRESS, а награды агрегируются по владельцу в единый upsert.
+     * Владельцы, которых на шарде сейчас нельзя писать (переезд), исключаются из UPDATE, а их
+     * задачи возвращаются в deferred — остальная пачка шарда при этом завершается.
+     * Без end_ms запрос проверяет все партиции — для горячего пути есть вариант с end_ms.
+     */
+    public DoneBatch markDoneAndRewardBatch(Collection<UUID> jobIds) throws Exception {
+        return markDoneAndRewardBatch(jobIds, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    private DoneBatch markDoneAndRewardBatch(Collection<UUID> jobIds, long minEndMs, long maxEndMs) throws Exception {
+        Map<UUID, UUID> done = new LinkedHashMap<>();
+        Set<UUID> blocked = new HashSet<>();
+        if (jobIds == null || jobIds.isEmpty()) return new DoneBatch(done, blocked);
+
+        final String SQL_CANDIDATES = """
+            select id, owner_uuid from production_jobs
+            where id = any(?) and end_ms between ? and ? and status='IN_PROGRESS'
+            """;
+
+        // owner'ов сортируем, чтобы параллельные батчи брали блокировки player_rewards в одном порядке
+        final String SQL = """
+            with done as (
+                update production_jobs set status='DONE', updated_at=now()
+                where id = any(?) and end_ms between ? and ? and status='IN_PROGRESS'
+                  and owner_uuid = any(?)
+                returning id, owner_uuid, end_ms
+            ), rewarded as (
+                insert into player_rewards(owner_uuid, count)
+                select owner_uuid, count(*) from done group by owner_uuid order by owner_uuid
+                on conflict (owner_uuid) do update set count = player_rewards.count + excluded.count, updated_at=now()
+            ), notified as (
+                insert into outbox(kind, owner_uuid, subject, payload)
+                select 'nats', owner_uuid, 'econ.production.done',
+                       json_build_object('type', 'done', 'jobId', id, 'owner', owner_uuid, 'endMs', end_ms)::text
+                from done
+            )
+            select id, owner_uuid from done
+            """;
+
+        // задача лежит на шарде владельца, а владелец по jobId неизвестен — запрос идёт на каждый шард
+        for (String shard : router.shardNames()) {
+            Map<UUID, UUID> local = new LinkedHashMap<>();
+            try (Connection c = router.getShardWriteConnection(shard)) {
+                c.setAutoCommit(false);
+                try {
+                    Array ids = c.createArrayOf("uuid", jobIds.toArray());
+                    // владелец переезжает или уже переехал — здесь его копия, которую перенос перезапишет;
+                    // такие задачи не трогаем: их завершат на новом шарде или после переключения
+                    Set<UUID> writable = new HashSet<>();
+                    try (PreparedStatement ps = c.prepareStatement(SQL_CANDIDATES)) {
+                        ps.setArray(1, ids);
+                        ps.setLong(2, minEndMs);
+                        ps.setLong(3, maxEndMs);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                UUID owner = (UUID) rs.getObject(2);
+                                if (router.isWritable(shard, owner)) writable.add(owner);
+                                else blocked.add((UUID) rs.getObject(1));
+                            }
+                        }
+                    }
+                    if (!writable.isEmpty()) {
+                        try (PreparedStatement ps = c.prepareStatement(SQL)) {
+                            ps.setArray(1, ids);
+                            ps.setLong(2, minEndMs);
+                            ps.setLong(3, maxEndMs);
+                            ps.setArray(4, c.createArrayOf("uuid", writable.toArray()));
+                            try (ResultSet rs = ps.executeQuery()) {
+                                while (rs.next()) {
+                                    local.put((UUID) rs.getObject(1), (UUID) rs.getObject(2));
+                                }
+                            }
+                        }
+                    }
+                    c.commit();
+                    if (!local.isEmpty()) {
+                        outbox.wakeup();
+                        router.recordWrite(new HashSet<>(local.values()), c);
+                    }
+                } catch (Exception e) {
+                    c.rollback();
+                    throw e;
                 }
             }
+            done.putAll(local);
         }
-        return out;
+        // копия на старом шарде заблокирована, но на новом задача могла завершиться
+        blocked.removeAll(done.keySet());
+        return new DoneBatch(done, blocked);
+    }
+
+    public List<JobRow> listJobs(UUID owner) throws Exception {
+        // только задачи, заканчивающиеся не раньше горизонта: запрос не трогает старые партиции
+        long since = System.currentTimeMillis() - listHorizonMs;
+        // горячий путь UI: медленную реплику подстраховывает хедж (запрос только читает)
+        return router.executeReadHedged("repo.listJobs", owner, c -> {
+            List<JobRow> out = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "select id, owner_uuid, recipe_id, start_ms, end_ms, status " +
+                            "from production_jobs where owner_uuid=? and end_ms >= ? order by end_ms asc")) {
+                ps.setObject(1, owner);
+                ps.setLong(2, since);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        out.add(new JobRow(
+                                (UUID) rs.getObject(1),
+                                (UUID) rs.getObject(2),
+                                rs.getString(3),
+                                rs.getLong(4),
+                                rs.getLong(5),
+                                rs.getString(6)
+                        ));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to list jobs for " + owner, e);
+            }
+            return out;
+        });
     }
 
     public int claimRewards(UUID owner) throws Exception {
-        try (Connection c = db.getWriteConnection()) {
+        try (Connection c = router.getWriteConnection(owner)) {
             c.setAutoCommit(false);
 
             int current = 0;
@@ -241,21 +500,24 @@ public class Repositories {
             }
 
             c.commit();
+            router.recordWrite(owner, c);
             return current;
         }
     }
 
     // Найти владельца джобы по её id
     public UUID findOwnerByJobId(UUID jobId) throws Exception {
-        try (Connection c = db.getReadConnection();
-             PreparedStatement ps = c.prepareStatement(
-                     "select owner_uuid from production_jobs where id = ?")) {
-            ps.setObject(1, jobId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    Object val = rs.getObject(1);
-                    if (val instanceof UUID) return (UUID) val;
-                    return UUID.fromString(String.valueOf(val));
+        for (String shard : router.shardNames()) {
+            try (Connection c = router.getShardReadConnection(shard);
+                 PreparedStatement ps = c.prepareStatement(
+                         "select owner_uuid from production_jobs where id = ?")) {
+                ps.setObject(1, jobId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        Object val = rs.getObject(1);
+                        if (val instanceof UUID) return (UUID) val;
+                        return UUID.fromString(String.valueOf(val));
+                    }
                 }
             }
         }
@@ -264,28 +526,58 @@ public class Repositories {
 
     /* ===================== НАВЫКИ ===================== */
 
-    /** Текущий уровень навыка (с кэшированием) */
+    /** Текущий уровень навыка (near cache -> Redis -> БД) */
     public int getSkillLevel(UUID owner, String skillId) throws Exception {
-        // Сначала проверяем кэш
-        Integer cached = redis.getCachedSkillLevel(owner, skillId);
-        if (cached != null) {
-            return cached;
+        // Сначала локальный near cache — без сетевых вызовов
+        int near = levelCache.get(owner, skillId);
+        if (near != SkillLevelCache.MISS) {
+            return near;
         }
-        
-        // Если нет в кэше - идем в БД
-        int level;
-        try (var c = db.getReadConnection();
-             var ps = c.prepareStatement("select level from skill_levels where owner_uuid=? and skill_id=?")) {
-            ps.setObject(1, owner);
-            ps.setString(2, skillId);
-            try (var rs = ps.executeQuery()) {
-                level = rs.next() ? rs.getInt(1) : 0;
-            }
+        return getSkillLevels(owner, List.of(skillId)).get(skillId);
+    }
+
+    /**
+     * Уровни набора навыков игрока. Что нет в near cache — берётся из hash'а игрока в Redis
+     * (один HGETALL), а при его отсутствии все уровни игрока читаются одним запросом и
+     * кладутся в Redis целиком. Отсутствующие в skill_levels навыки имеют уровень 0.
+     */
+    public Map<String, Integer> getSkillLevels(UUID owner, Collection<String> skillIds) throws Exception {
+        Map<String, Integer> out = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : skillIds) {
+            int near = levelCache.get(owner, id);
+            if (near != SkillLevelCache.MISS) out.put(id, near); else missing.add(id);
         }
-        
-        // Кэшируем результат
-        redis.cacheSkillLevel(owner, skillId, level);
-        return level;
+        if (missing.isEmpty()) return out;
+
+        Map<String, Integer> all = loadAllSkillLevels(owner);
+        for (String id : missing) {
+            int level = all.getOrDefault(id, 0);
+            levelCache.put(owner, id, level);
+            out.put(id, level);
+        }
+        return out;
+    }
+
+    /** Все уровни игрока: hash в Redis, иначе один запрос в БД с заполнением hash'а. */
+    private Map<String, Integer> loadAllSkillLevels(UUID owner) throws Exception {
+        Map<String, Integer> cached = redis.getCachedSkillLevels(owner);
+        if (cached != null) return cached;
+
+        Map<String, Integer> fromDb = router.executeReadHedged("repo.skillLevels", owner, c -> {
+            Map<String, Integer> levels = new HashMap<>();
+            try (var ps = c.prepareStatement("select skill_id, level from skill_levels where owner_uuid=?")) {
+                ps.setObject(1, owner);
+                try (var rs = ps.executeQuery()) {
+                    while (rs.next()) levels.put(rs.getString(1), rs.getInt(2));
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to load skill levels for " + owner, e);
+            }
+            return levels;
+        });
+        redis.cacheSkillLevels(owner, fromDb);
+        return fromDb;
     }
 
     public record SkillTrainingRow(String skillId, int targetLevel, long startMs, long endMs) {}
@@ -293,7 +585,7 @@ public class Repositories {
 
     /** Старт обучения (ровно одна активная запись на игрока) */
     public SkillTrainingRow startSkillTraining(UUID owner, String skillId, long nowMs, long durationMs) throws Exception {
-        try (var c = db.getWriteConnection()) {
+        try (var c = router.getWriteConnection(owner)) {
             c.setAutoCommit(false);
 
             // запрет второй активной
@@ -318,14 +610,20 @@ public class Repositories {
                 ins.setLong(5, endMs);
                 ins.executeUpdate();
             }
+            try (var ob = c.prepareStatement(SQL_OUTBOX)) {
+                addOutbox(ob, OutboxRelay.KIND_SKILL_SCHEDULE, owner, skillId, endMs, null, null);
+                ob.executeBatch();
+            }
             c.commit();
+            outbox.wakeup();
+            router.recordWrite(owner, c);
             return new SkillTrainingRow(skillId, target, nowMs, endMs);
         }
     }
 
     /** Завершение обучения: апдейт уровня и очистка training */
     public SkillDone completeSkillTraining(UUID owner) throws Exception {
-        try (var c = db.getWriteConnection()) {
+        try (var c = router.getWriteConnection(owner)) {
             c.setAutoCommit(false);
 
             String skill = null; int lvl = 0;
@@ -350,23 +648,61 @@ public class Repositories {
                 up.setInt(3, lvl);
                 up.executeUpdate();
             }
-            
-            // Инвалидируем кэш после изменения уровня
-            redis.invalidateSkillLevel(owner, skill);
 
             try (var del = c.prepareStatement("delete from skill_training where owner_uuid=?")) {
                 del.setObject(1, owner);
                 del.executeUpdate();
             }
 
+            try (var ob = c.prepareStatement(SQL_OUTBOX)) {
+                addSkillDoneEvents(ob, owner, skill, lvl, System.currentTimeMillis());
+                ob.executeBatch();
+            }
+
             c.commit();
+            outbox.wakeup();
+            router.recordWrite(owner, c);
+
+            // Инвалидируем кэши только после коммита, иначе читатель успеет закэшировать старый уровень
+            redis.invalidateSkillLevels(owner);
+            levelCache.invalidate(owner, skill);
             return new SkillDone(skill, lvl);
         }
     }
 
+    /** События завершения прокачки: статус тренировки, новый уровень и старое econ.skill.done. */
+    private static void addSkillDoneEvents(PreparedStatement ob, UUID owner, String skillId, int level, long now) throws SQLException {
+        String trainingCompletePayload = String.format("""
+            {
+                "type": "COMPLETED",
+                "skillId": "%s",
+                "targetLevel": %d,
+                "startMs": 0,
+                "endMs": %d,
+                "progress": 1.0,
+                "timestamp": %d
+            }
+            """, skillId, level, now, now);
+        addOutbox(ob, OutboxRelay.KIND_NATS, owner, null, null, "player." + owner + ".skill.training", trainingCompletePayload);
+
+        String levelUpdatePayload = String.format("""
+            {
+                "skillId": "%s",
+                "oldLevel": %d,
+                "newLevel": %d,
+                "timestamp": %d
+            }
+            """, skillId, level - 1, level, now);
+        addOutbox(ob, OutboxRelay.KIND_NATS, owner, null, null, "player." + owner + ".skill.level", levelUpdatePayload);
+
+        // старое событие для совместимости
+        String json = "{\"owner\":\"" + owner + "\",\"skill\":\"" + skillId + "\",\"level\":" + level + "}";
+        addOutbox(ob, OutboxRelay.KIND_NATS, owner, null, null, "econ.skill.done", json);
+    }
+
     /** Активная прокачка (для статуса) */
     public SkillTrainingRow getActiveTraining(UUID owner) throws Exception {
-        try (var c = db.getReadConnection();
+        try (var c = router.getReadConnection(owner);
              var ps = c.prepareStatement(
                      "select skill_id, target_level, start_ms, end_ms from skill_training where owner_uuid=? and status='IN_PROGRESS'")) {
             ps.setObject(1, owner);
@@ -382,7 +718,7 @@ public class Repositories {
     }
     // === INVENTORY (материалы) ===
     public long getMaterial(UUID owner, String itemId) throws Exception {
-        try (Connection c = db.getReadConnection();
+        try (Connection c = router.getReadConnection(owner);
              PreparedStatement ps = c.prepareStatement(
                      "select qty from player_materials where owner_uuid=? and item_id=?")) {
             ps.setObject(1, owner);
@@ -394,43 +730,55 @@ public class Repositories {
         return 0L;
     }
 
-    /** Атомарно списывает требуемые количества. Бросает исключение, если не хватает. */
+    /**
+     * Атомарно списывает требуемые количества. Бросает исключение, если не хватает.
+     * Одним UPDATE ... FROM unnest(...): строки блокируются на один round-trip, а не на 2N.
+     */
     public void consumeMaterials(UUID owner, Map<String, Long> req) throws Exception {
-        try (Connection c = db.getWriteConnection()) {
+        if (req.isEmpty()) return;
+        // стабильный порядок позиций — меньше шансов на взаимоблокировки между параллельными стартами
+        Map<String, Long> need = new TreeMap<>(req);
+        String[] items = need.keySet().toArray(new String[0]);
+        Long[] qtys = need.values().toArray(new Long[0]);
+
+        try (Connection c = router.getWriteConnection(owner)) {
             c.setAutoCommit(false);
-            // блокируем строки инвентаря
-            for (var e : req.entrySet()) {
-                try (PreparedStatement ps = c.prepareStatement(
-                        "select qty from player_materials where owner_uuid=? and item_id=? for update")) {
-                    ps.setObject(1, owner);
-                    ps.setString(2, e.getKey());
-                    try (ResultSet rs = ps.executeQuery()) {
-                        long have = 0;
-                        if (rs.next()) have = rs.getLong(1);
-                        if (have < e.getValue()) {
-                            c.rollback();
-                            throw new IllegalStateException("Not enough " + e.getKey() + " need " + e.getValue() + " have " + have);
-                        }
-                    }
+            Set<String> consumed = new HashSet<>();
+            try (PreparedStatement ps = c.prepareStatement(
+                    "update player_materials pm set qty = pm.qty - n.need " +
+                    "from unnest(?::text[], ?::bigint[]) as n(item_id, need) " +
+                    "where pm.owner_uuid = ? and pm.item_id = n.item_id and pm.qty >= n.need " +
+                    "returning pm.item_id")) {
+                ps.setArray(1, c.createArrayOf("text", items));
+                ps.setArray(2, c.createArrayOf("bigint", qtys));
+                ps.setObject(3, owner);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) consumed.add(rs.getString(1));
                 }
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
             }
-            // списываем
-            for (var e : req.entrySet()) {
-                try (PreparedStatement ps = c.prepareStatement(
-                        "update player_materials set qty = qty - ? where owner_uuid=? and item_id=?")) {
-                    ps.setLong(1, e.getValue());
-                    ps.setObject(2, owner);
-                    ps.setString(3, e.getKey());
-                    ps.executeUpdate();
-                }
+
+            if (consumed.size() == items.length) {
+                c.commit();
+                router.recordWrite(owner, c);
+                return;
+            }
+            c.rollback();
+
+            // не хватило — отдельным чтением узнаём, сколько есть, только ради сообщения
+            for (String item : items) {
+                if (consumed.contains(item)) continue;
+                long have = getMaterial(owner, item);
+                throw new IllegalStateException("Not enough " + item + " need " + need.get(item) + " have " + have);
             }
-            c.commit();
         }
     }
 
     /** Удобно пополнить материалы админ-командой или тестом */
     public void addMaterial(UUID owner, String itemId, long delta) throws Exception {
-        try (Connection c = db.getWriteConnection();
+        try (Connection c = router.getWriteConnection(owner);
              PreparedStatement ps = c.prepareStatement(
                      "insert into player_materials(owner_uuid,item_id,qty) values(?,?,?) " +
                              "on conflict (owner_uuid,item_id) do update set qty = player_materials.qty + excluded.qty")) {
@@ -438,6 +786,7 @@ public class Repositories {
             ps.setString(2, itemId);
             ps.setLong(3, delta);
             ps.executeUpdate();
+            router.recordWrite(owner, c);
         }
     }
 
@@ -461,18 +810,18 @@ public class Repositories {
             return null;
         }
         
-        UUID userUuid = null;
-        try (Connection c = db.getReadConnection();
-             PreparedStatement ps = c.prepareStatement(
-                     "SELECT user_uuid FROM user_sessions WHERE session_token = ? AND expires_at > NOW()")) {
-            ps.setString(1, token);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    userUuid = (UUID) rs.getObject("user_uuid");
+        // на каждом запросе клиента — хеджируем, чтобы медленная реплика не задавала p99
+        return router.executeReadHedged("repo.validateSession", null, c -> {
+            try (PreparedStatement ps = c.prepareStatement(
+                    "SELECT user_uuid FROM user_sessions WHERE session_token = ? AND expires_at > NOW()")) {
+                ps.setString(1, token);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? (UUID) rs.getObject("user_uuid") : null;
                 }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to validate session", e);
             }
-        }
-        return userUuid;
+        });
     }
     
     /**
@@ -0,0 +1,87 @@
+package com.example.economy.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Кольцо консистентного хеширования владельцев по шардам БД с виртуальными узлами.
+ *
+ * У каждого шарда vnodes точек на кольце (MD5 от "имя#i"), владелец принадлежит первой точке
+ * по часовой стрелке от хеша своего UUID. Добавление шарда забирает у остальных только
+ * отрезки перед его точками — примерно vnodes/сумма_vnodes владельцев, остальные не двигаются.
+ * Неизменяемое: при смене карты строится новое кольцо, поиск — бинарный по массиву точек.
+ */
+public final class ShardRing {
+
+    private final long[] points;
+    private final String[] owners;
+    private final Map<String, Integer> vnodes;
+
+    private ShardRing(long[] points, String[] owners, Map<String, Integer> vnodes) {
+        this.points = points;
+        this.owners = owners;
+        this.vnodes = vnodes;
+    }
+
+    /** Кольцо по карте "шард -> число виртуальных узлов". */
+    public static ShardRing of(Map<String, Integer> vnodes) {
+        if (vnodes.isEmpty()) throw new IllegalArgumentException("Shard ring needs at least one shard");
+        TreeMap<Long, String> ring = new TreeMap<>();
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // по имени — чтобы коллизия точек разрешалась одинаково на всех узлах
+        for (var e : new TreeMap<>(vnodes).entrySet()) {
+            for (int i = 0; i < e.getValue(); i++) {
+                byte[] d = md5.digest((e.getKey() + "#" + i).getBytes(StandardCharsets.UTF_8));
+                long h = 0;
+                for (int b = 0; b < 8; b++) h = (h << 8) | (d[b] & 0xff);
+                ring.putIfAbsent(h, e.getKey());
+            }
+        }
+        long[] points = new long[ring.size()];
+        String[] owners = new String[ring.size()];
+        int i = 0;
+        for (var e : ring.entrySet()) {
+            points[i] = e.getKey();
+            owners[i++] = e.getValue();
+        }
+        return new ShardRing(points, owners, Map.copyOf(vnodes));
+    }
+
+    /** Шард владельца. */
+    public String shardOf(UUID owner) {
+        long h = hash(owner);
+        int i = Arrays.binarySearch(points, h);
+        if (i < 0) i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    public Set<String> shards() {
+        return vnodes.keySet();
+    }
+
+    Map<String, Integer> vnodes() {
+        return vnodes;
+    }
+
+    /** Хеш UUID (финализатор murmur3 над обеими половинами) — версия-4 UUID и так случайны, но не все. */
+    static long hash(UUID u) {
+        long h = u.getMostSignificantBits() ^ Long.rotateLeft(u.getLeastSignificantBits(), 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,427 @@
+package com.example.economy.core;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Онлайн-добавление шарда владельцев (см. {@link DatabaseRouter}, V17__db_shards.sql).
+ *
+ * Новый шард получает на кольце свои виртуальные узлы и забирает у действующих шардов
+ * владельцев, попавших на отрезки перед ними. Перенос:
+ * <ol>
+ *   <li>COPYING — строка в db_shards; на исходных шардах включается журнал изменённых
+ *       владельцев (V21__shard_split_changes.sql), данные переезжающих владельцев копируются
+ *       пачками по copy-batch владельцев, остальная нагрузка идёт как обычно;</li>
+ *   <li>FROZEN — все узлы (за settle-ms) перестают писать переезжающих владельцев, заново
+ *       копируются только те из них, кто попал в журнал: их копия на целевом шарде заменяется;</li>
+ *   <li>ACTIVE — роутинг переключён; после settle-ms (узлы перечитали карту и не читают
+ *       исходный шард) исходные строки переехавших владельцев удаляются.</li>
+ * </ol>
+ * Запись переезжающего владельца стоит только на время второго прохода — он пропорционален
+ * изменениям за время первого, а не объёму шарда; чтение не стоит вовсе. Журнал снимается
+ * по окончании переноса, успешного или нет.
+ * При ошибке до переключения строка шарда удаляется и всё работает по старой карте; копия
+ * на целевом шарде перезапишется при следующей попытке. Переносится один шард за раз.
+ */
+@ApplicationScoped
+public class ShardSplitter {
+    private static final Logger LOG = Logger.getLogger(ShardSplitter.class.getName());
+
+    // таблицы с owner_uuid, лежащие на шарде владельца; players копируется первой (на неё ссылаются FK).
+    // outbox не переносится: его строки и так доставит релей с исходного шарда
+    private static final List<String> OWNER_TABLES = List.of(
+            "production_jobs", "production_job_keys", "production_jobs_archive",
+            "player_materials", "skill_training", "skill_levels", "skill_queue", "player_rewards");
+
+    private static final String TRACK_TRIGGER = "shard_split_track";
+
+    private static final Pattern SHARD_NAME = Pattern.compile("[a-z][a-z0-9_]{0,31}");
+
+    /** Ход переноса для админки. */
+    public record Progress(String shard, int vnodes, String phase, long owners, long rows,
+                           String error, long startedAtMs, long finishedAtMs) {}
+
+    @Inject DatabaseRouter router;
+
+    @ConfigProperty(name = "app.db.shard.copy-batch", defaultValue = "500")
+    int copyBatch;
+
+    // за это время все узлы должны перечитать карту (несколько refresh-every) и дописать начатые транзакции
+    @ConfigProperty(name = "app.db.shard.settle-ms", defaultValue = "3000")
+    long settleMs;
+
+    private Thread worker;
+    private volatile Progress progress;
+    private volatile String phase;
+    private volatile long owners;
+    private volatile long rows;
+
+    /** Запустить перенос в фоне; повторный вызов во время переноса — IllegalStateException. */
+    public synchronized Progress start(String shard, int vnodes) {
+        if (shard == null || !SHARD_NAME.matcher(shard).matches()) {
+            throw new IllegalArgumentException("Shard name must match " + SHARD_NAME.pattern());
+        }
+        if (vnodes <= 0) throw new IllegalArgumentException("vnodes must be positive");
+        if (worker != null && worker.isAlive()) throw new IllegalStateException("Shard split is already running");
+
+        phase = "starting";
+        owners = 0;
+        rows = 0;
+        long started = System.currentTimeMillis();
+        progress = new Progress(shard, vnodes, phase, 0, 0, null, started, 0);
+        worker = new Thread(() -> run(shard, vnodes, started), "shard-split");
+        worker.setDaemon(true);
+        worker.start();
+        return progress;
+    }
+
+    public Progress status() {
+        Progress p = progress;
+        if (p == null || p.finishedAtMs() > 0) return p;
+        return new Progress(p.shard(), p.vnodes(), phase, owners, rows, null, p.startedAtMs(), 0);
+    }
+
+    private void run(String target, int vnodes, long started) {
+        ShardRing from = null;
+        boolean flipped = false;
+        String error = null;
+        try {
+            phase = "register";
+            register(target, vnodes);
+            router.refreshShards();
+            if (!router.pendingRing().shards().contains(target)) {
+                throw new IllegalStateException("Shard map with " + target + " was not applied on this node, check app.db.shard."
+                        + target + ".* and datasource configuration");
+            }
+            from = router.activeRing();
+            ShardRing to = router.pendingRing();
+
+            // журнал включаем до первого прохода: всё, что поменяется во время копирования, попадёт в него
+            phase = "track";
+            track(from);
+
+            phase = "copy";
+            copyAll(from, to, target);
+
+            phase = "freeze";
+            setState(target, DatabaseRouter.SHARD_FROZEN);
+            router.refreshShards();
+            Thread.sleep(settleMs);
+            phase = "final-copy";
+            long changed = copyChanged(from, to, target);
+            LOG.info("Shard " + target + ": final pass re-copied " + changed + " changed owners");
+
+            phase = "flip";
+            setState(target, DatabaseRouter.SHARD_ACTIVE);
+            flipped = true;
+            router.refreshShards();
+            // пока узлы не перечитали карту, чтения переехавших могут идти на исходный шард
+            Thread.sleep(settleMs);
+
+            phase = "cleanup";
+            cleanupAll(from, to, target);
+            phase = "done";
+            LOG.info("Shard " + target + " is active: moved " + owners + " owners, " + rows + " rows");
+        } catch (Exception e) {
+            error = e.getMessage();
+            LOG.severe("Shard split to " + target + " failed in phase " + phase + ": " + e.getMessage());
+            if (!flipped) abort(target);
+            phase = flipped ? "cleanup-failed" : "aborted";
+        } finally {
+            if (from != null) untrack(from);
+            progress = new Progress(target, vnodes, phase, owners, rows, error, started, System.currentTimeMillis());
+        }
+    }
+
+    /** Строка нового шарда в COPYING; другой незавершённый перенос или уже действующий шард — отказ. */
+    private void register(String target, int vnodes) throws SQLException {
+        try (Connection c = router.getWriteConnection()) {
+            c.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = c.prepareStatement(
+                        "select name from db_shards where state <> 'ACTIVE' and name <> ? for update")) {
+                    ps.setString(1, target);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) throw new IllegalStateException("Shard " + rs.getString(1) + " is being split already");
+                    }
+                }
+                try (PreparedStatement ps = c.prepareStatement("""
+                        insert into db_shards(name, vnodes, state) values (?, ?, 'COPYING')
+                        on conflict (name) do update set vnodes = excluded.vnodes, state = 'COPYING', updated_at = now()
+                        where db_shards.state <> 'ACTIVE'
+                        """)) {
+                    ps.setString(1, target);
+                    ps.setInt(2, vnodes);
+                    if (ps.executeUpdate() == 0) throw new IllegalStateException("Shard " + target + " is already active");
+                }
+                c.commit();
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void setState(String target, String state) throws SQLException {
+        try (Connection c = router.getWriteConnection();
+             PreparedStatement ps = c.prepareStatement("update db_shards set state = ?, updated_at = now() where name = ?")) {
+            ps.setString(1, state);
+            ps.setString(2, target);
+            ps.executeUpdate();
+        }
+    }
+
+    /** Откат до переключения: убрать строку шарда, чтобы снять заморозку. */
+    private void abort(String target) {
+        try (Connection c = router.getWriteConnection();
+             PreparedStatement ps = c.prepareStatement("delete from db_shards where name = ? and state <> 'ACTIVE'")) {
+            ps.setString(1, target);
+            ps.executeUpdate();
+            router.refreshShards();
+        } catch (SQLException e) {
+            LOG.severe("Failed to roll back shard map for " + target + ", fix db_shards manually: " + e.getMessage());
+        }
+    }
+
+    private interface OwnerBatch {
+        void accept(String source, List<UUID> owners) throws SQLException;
+    }
+
+    /**
+     * Переезжающие владельцы каждого исходного шарда пачками: keyset-проход по его players
+     * (на глобальном шарде там все игроки, отсеиваем по старому кольцу).
+     */
+    private void forEachMoving(ShardRing from, ShardRing to, String target, OwnerBatch batch) throws SQLException {
+        for (String source : from.shards()) {
+            List<UUID> moving = new ArrayList<>(copyBatch);
+            UUID after = new UUID(0, 0);
+            while (true) {
+                List<UUID> page = new ArrayList<>(copyBatch);
+                try (Connection c = router.getShardWriteConnection(source);
+                     PreparedStatement ps = c.prepareStatement("select uuid from players where uuid > ? order by uuid limit ?")) {
+                    ps.setObject(1, after);
+                    ps.setInt(2, copyBatch);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) page.add((UUID) rs.getObject(1));
+                    }
+                }
+                for (UUID u : page) {
+                    if (source.equals(from.shardOf(u)) && target.equals(to.shardOf(u))) moving.add(u);
+                    if (moving.size() == copyBatch) {
+                        batch.accept(source, moving);
+                        moving = new ArrayList<>(copyBatch);
+                    }
+                }
+                if (page.size() < copyBatch) break;
+                after = page.get(page.size() - 1);
+            }
+            if (!moving.isEmpty()) batch.accept(source, moving);
+        }
+    }
+
+    private void copyAll(ShardRing from, ShardRing to, String target) throws SQLException {
+        forEachMoving(from, to, target, (source, batch) -> {
+            copyOwners(source, target, batch);
+            owners += batch.size();
+        });
+    }
+
+    /** Второй проход: заново копируются переезжающие владельцы из журнала изменений. */
+    private long copyChanged(ShardRing from, ShardRing to, String target) throws SQLException {
+        long total = 0;
+        for (String source : from.shards()) {
+            List<UUID> changed = new ArrayList<>();
+            try (Connection c = router.getShardWriteConnection(source);
+                 PreparedStatement ps = c.prepareStatement("select owner_uuid from shard_split_changes");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    UUID u = (UUID) rs.getObject(1);
+                    if (source.equals(from.shardOf(u)) && target.equals(to.shardOf(u))) changed.add(u);
+                }
+            }
+            for (int i = 0; i < changed.size(); i += copyBatch) {
+                copyOwners(source, target, changed.subList(i, Math.min(changed.size(), i + copyBatch)));
+            }
+            total += changed.size();
+        }
+        return total;
+    }
+
+    /** Включить журнал изменённых владельцев на исходных шардах (триггеры на таблицах владельцев). */
+    private void track(ShardRing from) throws SQLException {
+        for (String source : from.shards()) {
+            try (Connection c = router.getShardWriteConnection(source);
+                 Statement st = c.createStatement()) {
+                c.setAutoCommit(false);
+                try {
+                    st.execute("delete from shard_split_changes");
+                    for (String table : OWNER_TABLES) {
+                        st.execute("drop trigger if exists " + TRACK_TRIGGER + " on " + table);
+                        st.execute("create trigger " + TRACK_TRIGGER + " after insert or update or delete on " + table
+                                + " for each row execute function shard_split_track()");
+                    }
+                    c.commit();
+                } catch (SQLException e) {
+                    c.rollback();
+                    throw e;
+                } finally {
+                    c.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /** Снять журнал; ошибка только логируется — триггеры можно снять и вручную. */
+    private void untrack(ShardRing from) {
+        for (String source : from.shards()) {
+            try (Connection c = router.getShardWriteConnection(source);
+                 Statement st = c.createStatement()) {
+                for (String table : OWNER_TABLES) st.execute("drop trigger if exists " + TRACK_TRIGGER + " on " + table);
+                st.execute("delete from shard_split_changes");
+            } catch (SQLException e) {
+                LOG.severe("Failed to drop " + TRACK_TRIGGER + " triggers on shard " + source + ", drop them manually: "
+                        + e.getMessage());
+            }
+        }
+    }
+
+    /** Копия данных пачки владельцев одной транзакцией на целевом шарде: прежняя копия заменяется. */
+    private void copyOwners(String source, String target, List<UUID> batch) throws SQLException {
+        try (Connection src = router.getShardWriteConnection(source);
+             Connection dst = router.getShardWriteConnection(target)) {
+            dst.setAutoCommit(false);
+            try {
+                Array ids = dst.createArrayOf("uuid", batch.toArray());
+                for (int i = OWNER_TABLES.size() - 1; i >= 0; i--) {
+                    try (PreparedStatement del = dst.prepareStatement(
+                            "delete from " + OWNER_TABLES.get(i) + " where owner_uuid = any(?)")) {
+                        del.setArray(1, ids);
+                        del.executeUpdate();
+                    }
+                }
+                Array srcIds = src.createArrayOf("uuid", batch.toArray());
+                rows += copyRows(src, dst, "players", "uuid", srcIds, " on conflict (uuid) do nothing");
+                for (String table : OWNER_TABLES) rows += copyRows(src, dst, table, "owner_uuid", srcIds, "");
+                dst.commit();
+            } catch (Exception e) {
+                dst.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // столбцы таблицы с типами из каталога; serial/identity пропускаются — их выдаст последовательность целевого шарда
+    private static final String SQL_COLUMNS = """
+        select a.attname, format_type(a.atttypid, a.atttypmod)
+        from pg_attribute a
+        where a.attrelid = ?::regclass and a.attnum > 0 and not a.attisdropped
+          and a.attgenerated = '' and a.attidentity = ''
+          and pg_get_serial_sequence(?, a.attname) is null
+        order by a.attnum
+        """;
+
+    /**
+     * Перенос строк таблицы без знания её схемы: значения идут текстом с приведением к типу
+     * столбца из pg_attribute (enum'ы, timestamptz и jsonb переживают это без потерь). Типы
+     * берутся через format_type, а не из JDBC-метаданных: драйвер называет bigint с
+     * последовательностью "bigserial", а такого типа для приведения нет.
+     */
+    private static long copyRows(Connection src, Connection dst, String table, String keyColumn,
+                                 Array ids, String suffix) throws SQLException {
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        try (PreparedStatement ps = src.prepareStatement(SQL_COLUMNS)) {
+            ps.setString(1, table);
+            ps.setString(2, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                    types.add(rs.getString(2));
+                }
+            }
+        }
+        int n = names.size();
+        StringBuilder cols = new StringBuilder();
+        StringBuilder vals = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                cols.append(", ");
+                vals.append(", ");
+            }
+            cols.append('"').append(names.get(i)).append('"');
+            vals.append("?::").append(types.get(i));
+        }
+
+        try (PreparedStatement sel = src.prepareStatement("select " + cols + " from " + table + " where " + keyColumn + " = any(?)")) {
+            sel.setArray(1, ids);
+            try (ResultSet rs = sel.executeQuery()) {
+                long count = 0;
+                try (PreparedStatement ins = dst.prepareStatement(
+                        "insert into " + table + " (" + cols + ") values (" + vals + ")" + suffix)) {
+                    while (rs.next()) {
+                        for (int i = 1; i <= n; i++) ins.setString(i, rs.getString(i));
+                        ins.addBatch();
+                        if (++count % 1000 == 0) ins.executeBatch();
+                    }
+                    ins.executeBatch();
+                }
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Удаление переехавших владельцев с исходных шардов. На глобальном шарде строка players
+     * остаётся — на неё ссылаются auth_users, wallets и биржа.
+     */
+    private void cleanupAll(ShardRing from, ShardRing to, String target) throws SQLException {
+        forEachMoving(from, to, target, (source, batch) -> {
+            try (Connection c = router.getShardWriteConnection(source)) {
+                c.setAutoCommit(false);
+                try {
+                    Array ids = c.createArrayOf("uuid", batch.toArray());
+                    for (int i = OWNER_TABLES.size() - 1; i >= 0; i--) {
+                        try (PreparedStatement del = c.prepareStatement(
+                                "delete from " + OWNER_TABLES.get(i) + " where owner_uuid = any(?)")) {
+                            del.setArray(1, ids);
+                            del.executeUpdate();
+                        }
+                    }
+                    if (!DatabaseRouter.GLOBAL_SHARD.equals(source)) {
+                        try (PreparedStatement del = c.prepareStatement("delete from players where uuid = any(?)")) {
+                            del.setArray(1, ids);
+                            del.executeUpdate();
+                        }
+                    }
+                    c.commit();
+                } catch (Exception e) {
+                    c.rollback();
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /** Сводка для админки: ход переноса и карта шардов. */
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("map", router.shardStats());
+        out.put("split", status());
+        return out;
+    }
+}
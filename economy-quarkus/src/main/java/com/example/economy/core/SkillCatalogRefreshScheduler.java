@@ -15,10 +15,12 @@ public class SkillCatalogRefreshScheduler {
     SkillCatalogService skillCatalogService;
 
     /**
-     * Периодическое обновление кэша каталога скиллов.
-     * Выполняется каждые 10 минут.
+     * Страховочное полное обновление кэша каталога скиллов.
+     * Изменения приходят точечно через CatalogChangeListener (LISTEN/NOTIFY), поэтому
+     * полный перечит нужен редко (по умолчанию раз в час).
      */
-    @Scheduled(cron = "0 */10 * * * ?", concurrentExecution = ConcurrentExecution.SKIP)
+    @Scheduled(every = "${app.catalog.full-refresh:1h}", delayed = "${app.catalog.full-refresh:1h}",
+            concurrentExecution = ConcurrentExecution.SKIP)
     void refreshSkillCatalog() {
         try {
             LOG.info("Refreshing skill catalog cache...");
@@ -11,10 +11,17 @@ import java.util.*;
 @ApplicationScoped
 public class SkillCatalogService {
     @Inject SkillRepo repo;
-    @Inject Repositories playerRepo; // нужен getSkillLevel(owner, skillId)
+    @Inject Repositories playerRepo; // нужен getSkillLevels(owner, skillIds)
+    @Inject SkillLevelCache levelCache; // к уровням игрока прикрепляем его вектор бонусов
+
+    /** Операции бонусов (skill_bonuses.op). */
+    public enum BonusOp { INPUT_COST_MULTIPLIER, DURATION_MULTIPLIER, UNLOCK_RECIPE, EXTRA_OUTPUT_CHANCE }
+
+    private static final int MAX_BPS = 10_000;
 
     private volatile Map<String, SkillRepo.Skill> skills = Map.of();
     private volatile List<SkillRepo.SkillBonus> bonuses = List.of();
+    private volatile BonusIndex index = BonusIndex.compile(List.of());
     private volatile String etag = "empty";
 
     @PostConstruct
@@ -28,12 +35,43 @@ public class SkillCatalogService {
             for (var x : s) m.put(x.id, x);
             skills = Collections.unmodifiableMap(m);
             bonuses = List.copyOf(b);
+            index = BonusIndex.compile(b);
             etag = computeEtag(s, b);
         } catch (Exception e) {
             // лог и оставляем старые кэши
         }
     }
 
+    /**
+     * Точечное обновление по уведомлению об изменении: перечитать только скиллы skillIds и
+     * бонусы скиллов bonusSkillIds, пересобрать индекс бонусов и etag. Удалённые/выключенные
+     * скиллы и бонусы пропадают из каталога. При ошибке остаются старые кэши.
+     */
+    public synchronized void applyChanges(Set<String> skillIds, Set<String> bonusSkillIds) {
+        if (skillIds.isEmpty() && bonusSkillIds.isEmpty()) return;
+        try {
+            Map<String, SkillRepo.Skill> m = new LinkedHashMap<>(skills);
+            if (!skillIds.isEmpty()) {
+                m.keySet().removeAll(skillIds);
+                for (var x : repo.loadSkills(skillIds)) m.put(x.id, x);
+            }
+            List<SkillRepo.SkillBonus> b = bonuses;
+            if (!bonusSkillIds.isEmpty()) {
+                b = new ArrayList<>(b.size());
+                for (var x : bonuses) if (!bonusSkillIds.contains(x.skillId)) b.add(x);
+                b.addAll(repo.loadBonusesOf(bonusSkillIds));
+            }
+            skills = Collections.unmodifiableMap(m);
+            if (b != bonuses) {
+                bonuses = List.copyOf(b);
+                index = BonusIndex.compile(bonuses);
+            }
+            etag = computeEtag(new ArrayList<>(m.values()), bonuses);
+        } catch (Exception e) {
+            // лог и оставляем старые кэши; полный refresh по расписанию всё догонит
+        }
+    }
+
     private static String computeEtag(List<SkillRepo.Skill> s, List<SkillRepo.SkillBonus> b) {
         try {
             var md = MessageDigest.getInstance("SHA-256");
@@ -65,26 +103,179 @@ public class SkillCatalogService {
 
     /** Итоговый множитель стоимости входов для игрока по recipeId и тегу рецепта. */
     public double inputCostMultiplier(UUID owner, String recipeId, String recipeTag) {
-        // стартуем с 1.0, затем применяем «наибольшую скидку» от всех релевантных бонусов
-        double best = 1.0;
-        for (var b : bonuses) {
-            if (!"INPUT_COST_MULTIPLIER".equals(b.op)) continue;
-            boolean hit = switch (b.kind) {
-                case "all"    -> true;
-                case "recipe" -> recipeId != null && recipeId.equalsIgnoreCase(b.target);
-                case "tag"    -> recipeTag != null && recipeTag.equalsIgnoreCase(b.target);
-                default       -> false;
-            };
-            if (!hit) continue;
-
-            try {
-                int lvl = playerRepo.getSkillLevel(owner, b.skillId);
-                if (lvl <= 0) continue;
-                int effectiveBps = Math.min(b.capBps, b.perLevelBps * lvl);
-                double mult = 1.0 - (effectiveBps / 10_000.0);
-                if (mult < best) best = mult; // берём лучшую (наибольшую скидку)
-            } catch (Exception ignored) {}
+        // применяем «наибольшую скидку» от всех релевантных бонусов
+        return 1.0 - bestBps(owner, BonusOp.INPUT_COST_MULTIPLIER, recipeId, recipeTag) / (double) MAX_BPS;
+    }
+
+    /** Итоговый множитель длительности производства для игрока по recipeId и тегу рецепта. */
+    public double durationMultiplier(UUID owner, String recipeId, String recipeTag) {
+        return 1.0 - bestBps(owner, BonusOp.DURATION_MULTIPLIER, recipeId, recipeTag) / (double) MAX_BPS;
+    }
+
+    /** Шанс дополнительного выхода (0..1) для игрока по recipeId и тегу рецепта. */
+    public double extraOutputChance(UUID owner, String recipeId, String recipeTag) {
+        return bestBps(owner, BonusOp.EXTRA_OUTPUT_CHANCE, recipeId, recipeTag) / (double) MAX_BPS;
+    }
+
+    /**
+     * Доступен ли рецепт игроку. Рецепт без UNLOCK_RECIPE-бонусов доступен всем,
+     * иначе нужен ненулевой уровень хотя бы одного из открывающих его навыков.
+     */
+    public boolean isRecipeUnlocked(UUID owner, String recipeId, String recipeTag) {
+        BonusIndex idx = index;
+        if (!idx.hasAny(BonusOp.UNLOCK_RECIPE, recipeId, recipeTag)) return true;
+        return bestBps(owner, BonusOp.UNLOCK_RECIPE, recipeId, recipeTag) > 0;
+    }
+
+    /** Лучший (наибольший) эффект в bps среди бонусов op, применимых к рецепту. */
+    private int bestBps(UUID owner, BonusOp op, String recipeId, String recipeTag) {
+        BonusIndex idx = index;
+        int all = idx.allKey[op.ordinal()];
+        int byRecipe = idx.key(idx.recipeKeys, op, recipeId);
+        int byTag = idx.key(idx.tagKeys, op, recipeTag);
+        if (all < 0 && byRecipe < 0 && byTag < 0) return 0; // бонусов нет — уровни не нужны
+
+        int[] bps = playerBonuses(owner, idx);
+        int best = 0;
+        if (all >= 0) best = Math.max(best, bps[all]);
+        if (byRecipe >= 0) best = Math.max(best, bps[byRecipe]);
+        if (byTag >= 0) best = Math.max(best, bps[byTag]);
+        return best;
+    }
+
+    /**
+     * Вектор эффектов игрока (bps по каждому ключу индекса). Считается один раз при изменении
+     * уровней или каталога и хранится рядом с уровнями в near cache.
+     */
+    private int[] playerBonuses(UUID owner, BonusIndex idx) {
+        if (levelCache.derived(owner) instanceof PlayerBonuses pb && pb.index == idx) return pb.bps;
+
+        int[] levels = new int[idx.skillSlots.length];
+        try {
+            // все нужные уровни одним вызовом (near cache -> один HGETALL -> один запрос в БД)
+            Map<String, Integer> byId = playerRepo.getSkillLevels(owner, Arrays.asList(idx.skillSlots));
+            for (int s = 0; s < levels.length; s++) levels[s] = byId.getOrDefault(idx.skillSlots[s], 0);
+        } catch (Exception ignored) {}
+        int[] bps = idx.evaluate(levels);
+        levelCache.attachDerived(owner, idx.skillSlots, levels, new PlayerBonuses(idx, bps));
+        return bps;
+    }
+
+    private record PlayerBonuses(BonusIndex index, int[] bps) {}
+
+    /**
+     * Предкомпилированный индекс бонусов: (op, kind, target в нижнем регистре) -> номер ключа,
+     * по ключу — параллельные массивы (слот навыка, perLevelBps, capBps). Неизменяемый,
+     * пересобирается целиком в {@link #refresh()}.
+     */
+    private static final class BonusIndex {
+        final String[] skillSlots;            // слот -> skillId (только навыки, на которые ссылаются бонусы)
+        final BonusOp[] keyOps;               // ключ -> операция
+        final int[] allKey;                   // [op] -> ключ kind=all или -1
+        final List<Map<String, Integer>> recipeKeys; // [op] -> recipeId -> ключ
+        final List<Map<String, Integer>> tagKeys;    // [op] -> tag -> ключ
+        final int[][] slots, perLevelBps, capBps;    // [ключ][запись]
+
+        private BonusIndex(String[] skillSlots, BonusOp[] keyOps, int[] allKey,
+                           List<Map<String, Integer>> recipeKeys, List<Map<String, Integer>> tagKeys,
+                           int[][] slots, int[][] perLevelBps, int[][] capBps) {
+            this.skillSlots = skillSlots; this.keyOps = keyOps; this.allKey = allKey;
+            this.recipeKeys = recipeKeys; this.tagKeys = tagKeys;
+            this.slots = slots; this.perLevelBps = perLevelBps; this.capBps = capBps;
+        }
+
+        static BonusIndex compile(List<SkillRepo.SkillBonus> bonuses) {
+            int ops = BonusOp.values().length;
+            Map<String, Integer> slotOf = new LinkedHashMap<>();
+            Map<String, List<SkillRepo.SkillBonus>> byKey = new LinkedHashMap<>();
+            List<BonusOp> keyOps = new ArrayList<>();
+            int[] allKey = new int[ops];
+            Arrays.fill(allKey, -1);
+            List<Map<String, Integer>> recipeKeys = new ArrayList<>(ops);
+            List<Map<String, Integer>> tagKeys = new ArrayList<>(ops);
+            for (int i = 0; i < ops; i++) { recipeKeys.add(new HashMap<>()); tagKeys.add(new HashMap<>()); }
+
+            for (var b : bonuses) {
+                if (!b.enabled || b.op == null || b.kind == null) continue;
+                BonusOp op;
+                try { op = BonusOp.valueOf(b.op); } catch (IllegalArgumentException unknown) { continue; }
+                String kind = b.kind.toLowerCase(Locale.ROOT);
+                String target = b.target == null ? null : b.target.toLowerCase(Locale.ROOT);
+                if (!kind.equals("all") && !kind.equals("recipe") && !kind.equals("tag")) continue;
+                Map<String, Integer> keys = switch (kind) {
+                    case "recipe" -> recipeKeys.get(op.ordinal());
+                    case "tag"    -> tagKeys.get(op.ordinal());
+                    default       -> null; // all
+                };
+                if (keys != null && target == null) continue;
+
+                String k = op + "|" + kind + "|" + (keys == null ? "" : target);
+                if (!byKey.containsKey(k)) {
+                    int id = keyOps.size();
+                    keyOps.add(op);
+                    if (keys == null) allKey[op.ordinal()] = id; else keys.put(target, id);
+                    byKey.put(k, new ArrayList<>());
+                }
+                byKey.get(k).add(b);
+                slotOf.putIfAbsent(b.skillId, slotOf.size());
+            }
+
+            int n = byKey.size();
+            int[][] slots = new int[n][], perLevel = new int[n][], cap = new int[n][];
+            int key = 0;
+            for (var list : byKey.values()) {
+                slots[key] = new int[list.size()];
+                perLevel[key] = new int[list.size()];
+                cap[key] = new int[list.size()];
+                for (int j = 0; j < list.size(); j++) {
+                    var b = list.get(j);
+                    slots[key][j] = slotOf.get(b.skillId);
+                    perLevel[key][j] = b.perLevelBps;
+                    cap[key][j] = b.capBps;
+                }
+                key++;
+            }
+            for (int i = 0; i < ops; i++) {
+                recipeKeys.set(i, Map.copyOf(recipeKeys.get(i)));
+                tagKeys.set(i, Map.copyOf(tagKeys.get(i)));
+            }
+            return new BonusIndex(slotOf.keySet().toArray(new String[0]), keyOps.toArray(new BonusOp[0]),
+                    allKey, List.copyOf(recipeKeys), List.copyOf(tagKeys), slots, perLevel, cap);
+        }
+
+        int key(List<Map<String, Integer>> keys, BonusOp op, String target) {
+            if (target == null) return -1;
+            Map<String, Integer> m = keys.get(op.ordinal());
+            if (m.isEmpty()) return -1;
+            Integer k = m.get(target.toLowerCase(Locale.ROOT));
+            return k == null ? -1 : k;
+        }
+
+        boolean hasAny(BonusOp op, String recipeId, String recipeTag) {
+            return allKey[op.ordinal()] >= 0 || key(recipeKeys, op, recipeId) >= 0 || key(tagKeys, op, recipeTag) >= 0;
+        }
+
+        /** Эффект по каждому ключу при данных уровнях (по слотам): лучший из бонусов ключа. */
+        int[] evaluate(int[] levels) {
+            int[] out = new int[slots.length];
+            for (int k = 0; k < slots.length; k++) {
+                int best = 0;
+                for (int j = 0; j < slots[k].length; j++) {
+                    int lvl = levels[slots[k][j]];
+                    if (lvl <= 0) continue;
+                    int eff;
+                    if (keyOps[k] == BonusOp.UNLOCK_RECIPE) {
+                        eff = MAX_BPS; // любой ненулевой уровень открывает рецепт
+                    } else {
+                        long raw = (long) perLevelBps[k][j] * lvl;
+                        if (capBps[k][j] > 0) raw = Math.min(raw, capBps[k][j]); // cap_bps = 0 — без ограничений
+                        eff = (int) Math.max(0, Math.min(MAX_BPS, raw));
+                    }
+                    if (eff > best) best = eff;
+                }
+                out[k] = best;
+            }
+            return out;
         }
-        return Math.max(0.0, best);
     }
 }
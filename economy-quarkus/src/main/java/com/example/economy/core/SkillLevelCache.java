@@ -0,0 +1,210 @@
+package com.example.economy.core;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Локальный (in-process) near cache уровней навыков перед Redis.
+ *
+ * Ограниченная по числу игроков LRU-карта, разбитая на страйпы с отдельными блокировками.
+ * На игрока хранится компактная неизменяемая запись (skillId[] + int[]), заменяемая целиком.
+ * Инвалидация по всему кластеру — широковещательным NATS-сообщением econ.skill.level.invalidate;
+ * TTL страхует от потерянных сообщений.
+ */
+@ApplicationScoped
+public class SkillLevelCache {
+    private static final Logger LOG = Logger.getLogger(SkillLevelCache.class.getName());
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    public static final String INVALIDATE_SUBJECT = "econ.skill.level.invalidate";
+    /** Значение "нет в кэше" (уровни навыков неотрицательны). */
+    public static final int MISS = -1;
+
+    private static final int STRIPES = 64;
+
+    /**
+     * Уровни одного игрока: неизменяемые параллельные массивы, поиск линейный (навыков единицы-десятки).
+     * derived — производные от уровней данные (например, вектор бонусов), сбрасываются при любом изменении.
+     */
+    private static final class OwnerLevels {
+        final String[] skillIds;
+        final int[] levels;
+        final long loadedAtMs;
+        final Object derived;
+
+        OwnerLevels(String[] skillIds, int[] levels, long loadedAtMs) {
+            this(skillIds, levels, loadedAtMs, null);
+        }
+
+        OwnerLevels(String[] skillIds, int[] levels, long loadedAtMs, Object derived) {
+            this.skillIds = skillIds; this.levels = levels; this.loadedAtMs = loadedAtMs; this.derived = derived;
+        }
+
+        int get(String skillId) {
+            for (int i = 0; i < skillIds.length; i++) {
+                if (skillIds[i].equals(skillId)) return levels[i];
+            }
+            return MISS;
+        }
+
+        OwnerLevels with(String skillId, int level, long nowMs) {
+            for (int i = 0; i < skillIds.length; i++) {
+                if (skillIds[i].equals(skillId)) {
+                    if (levels[i] == level) return this;
+                    int[] l = levels.clone();
+                    l[i] = level;
+                    return new OwnerLevels(skillIds, l, loadedAtMs);
+                }
+            }
+            String[] ids = Arrays.copyOf(skillIds, skillIds.length + 1);
+            int[] l = Arrays.copyOf(levels, levels.length + 1);
+            ids[skillIds.length] = skillId;
+            l[levels.length] = level;
+            return new OwnerLevels(ids, l, skillIds.length == 0 ? nowMs : loadedAtMs);
+        }
+
+        OwnerLevels without(String skillId) {
+            for (int i = 0; i < skillIds.length; i++) {
+                if (skillIds[i].equals(skillId)) {
+                    String[] ids = new String[skillIds.length - 1];
+                    int[] l = new int[levels.length - 1];
+                    System.arraycopy(skillIds, 0, ids, 0, i);
+                    System.arraycopy(skillIds, i + 1, ids, i, skillIds.length - i - 1);
+                    System.arraycopy(levels, 0, l, 0, i);
+                    System.arraycopy(levels, i + 1, l, i, levels.length - i - 1);
+                    return new OwnerLevels(ids, l, loadedAtMs);
+                }
+            }
+            return this;
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<UUID, OwnerLevels> {
+        private final int capacity;
+        Stripe(int capacity) {
+            super(16, 0.75f, true); // access-order => LRU
+            this.capacity = capacity;
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, OwnerLevels> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    @Inject NatsBus nats;
+
+    @ConfigProperty(name = "app.skill-cache.max-owners", defaultValue = "100000")
+    int maxOwners;
+
+    @ConfigProperty(name = "app.skill-cache.ttl-ms", defaultValue = "60000")
+    long ttlMs;
+
+    private Stripe[] stripes;
+
+    @PostConstruct
+    void init() {
+        int perStripe = Math.max(16, maxOwners / STRIPES);
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe(perStripe);
+        nats.subscribe(INVALIDATE_SUBJECT, this::onInvalidate);
+        LOG.info("SkillLevelCache initialized: maxOwners=" + maxOwners + ", ttl=" + ttlMs + "ms");
+    }
+
+    private Stripe stripeOf(UUID owner) {
+        return stripes[Math.floorMod(owner.hashCode(), STRIPES)];
+    }
+
+    /** Уровень из near cache или {@link #MISS}. */
+    public int get(UUID owner, String skillId) {
+        Stripe st = stripeOf(owner);
+        OwnerLevels ol;
+        synchronized (st) {
+            ol = st.get(owner);
+        }
+        if (ol == null) return MISS;
+        if (System.currentTimeMillis() - ol.loadedAtMs > ttlMs) {
+            synchronized (st) {
+                st.remove(owner, ol);
+            }
+            return MISS;
+        }
+        return ol.get(skillId);
+    }
+
+    public void put(UUID owner, String skillId, int level) {
+        long now = System.currentTimeMillis();
+        Stripe st = stripeOf(owner);
+        synchronized (st) {
+            OwnerLevels ol = st.get(owner);
+            if (ol == null) ol = new OwnerLevels(new String[0], new int[0], now);
+            st.put(owner, ol.with(skillId, level, now));
+        }
+    }
+
+    /** Производные данные игрока, если уровни с тех пор не менялись (иначе null). */
+    public Object derived(UUID owner) {
+        Stripe st = stripeOf(owner);
+        synchronized (st) {
+            OwnerLevels ol = st.get(owner);
+            if (ol == null || System.currentTimeMillis() - ol.loadedAtMs > ttlMs) return null;
+            return ol.derived;
+        }
+    }
+
+    /**
+     * Прикрепить производные данные к текущим уровням игрока. Прикрепляется, только если в кэше
+     * по-прежнему лежат ровно те уровни, из которых данные посчитаны (иначе гонка с инвалидацией).
+     */
+    public void attachDerived(UUID owner, String[] skillIds, int[] levels, Object derived) {
+        Stripe st = stripeOf(owner);
+        synchronized (st) {
+            OwnerLevels ol = st.get(owner);
+            if (ol == null) return;
+            for (int i = 0; i < skillIds.length; i++) {
+                if (ol.get(skillIds[i]) != levels[i]) return;
+            }
+            st.put(owner, new OwnerLevels(ol.skillIds, ol.levels, ol.loadedAtMs, derived));
+        }
+    }
+
+    /** Локально сбросить уровень (skillId == null — все уровни игрока). */
+    public void evict(UUID owner, String skillId) {
+        Stripe st = stripeOf(owner);
+        synchronized (st) {
+            if (skillId == null) {
+                st.remove(owner);
+                return;
+            }
+            OwnerLevels ol = st.get(owner);
+            if (ol != null) st.put(owner, ol.without(skillId));
+        }
+    }
+
+    /** Сбросить уровень локально и на всех остальных узлах. */
+    public void invalidate(UUID owner, String skillId) {
+        evict(owner, skillId);
+        nats.publishCore(INVALIDATE_SUBJECT,
+                "{\"owner\":\"" + owner + "\",\"skill\":" + (skillId == null ? "null" : "\"" + skillId + "\"") + "}");
+    }
+
+    private void onInvalidate(String json) {
+        try {
+            JsonNode node = JSON.readTree(json);
+            UUID owner = UUID.fromString(node.path("owner").asText());
+            JsonNode skill = node.path("skill");
+            evict(owner, skill.isTextual() ? skill.asText() : null);
+        } catch (Exception e) {
+            LOG.warning("Bad skill level invalidation message: " + e.getMessage());
+        }
+    }
+}
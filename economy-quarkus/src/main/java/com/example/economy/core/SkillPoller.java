@@ -15,54 +15,29 @@ public class SkillPoller {
 
     @Inject Repositories repo;
     @Inject RedisBus redis;
-    @Inject NatsBus nats;
+    @Inject TimerShards shards;
+
+    // сколько просроченных тренировок забираем из Redis за один round-trip
+    private static final int BATCH = 500;
 
     @Scheduled(every = "0.25s", concurrentExecution = ConcurrentExecution.SKIP)
     void tick() {
         long now = System.currentTimeMillis();
-        for (int i = 0; i < 100; i++) {
-            Map.Entry<UUID, Long> e = redis.tryPopSkillDueAtomic(now);
-            if (e == null) break;
-
-            UUID owner = e.getKey();
-            try {
-                var done = repo.completeSkillTraining(owner);
-                
-                // Публикуем событие завершения тренировки
-                String trainingCompletePayload = String.format("""
-                    {
-                        "type": "COMPLETED",
-                        "skillId": "%s",
-                        "targetLevel": %d,
-                        "startMs": 0,
-                        "endMs": %d,
-                        "progress": 1.0,
-                        "timestamp": %d
-                    }
-                    """, done.skillId(), done.level(), now, now);
-                
-                nats.publish("player." + owner + ".skill.training", trainingCompletePayload);
-                
-                // Публикуем событие изменения уровня скилла
-                String levelUpdatePayload = String.format("""
-                    {
-                        "skillId": "%s",
-                        "oldLevel": %d,
-                        "newLevel": %d,
-                        "timestamp": %d
-                    }
-                    """, done.skillId(), done.level() - 1, done.level(), now);
-                
-                nats.publish("player." + owner + ".skill.level", levelUpdatePayload);
-                
-                // Старое событие для совместимости
-                String json = "{\"owner\":\""+owner+"\",\"skill\":\""+done.skillId()+"\",\"level\":"+done.level()+"}";
-                nats.publish("econ.skill.done", json);
-                
-                LOG.info("Published skill completion events for player " + owner + ", skill " + done.skillId() + " -> level " + done.level());
-            } catch (Exception ex) {
-                LOG.severe("Error completing skill: owner=" + owner + " err=" + ex.getMessage());
+        // сливаем только шарды, аренды которых держит этот узел
+        for (int shard : shards.ownedShards()) {
+            for (Map.Entry<UUID, Long> e : redis.popDueSkills(shard, now, BATCH)) {
+                complete(e.getKey());
             }
         }
     }
+
+    private void complete(UUID owner) {
+        try {
+            // события завершения пишутся в outbox той же транзакцией и доставляются OutboxRelay
+            var done = repo.completeSkillTraining(owner);
+            LOG.info("Completed skill training for player " + owner + ", skill " + done.skillId() + " -> level " + done.level());
+        } catch (Exception ex) {
+            LOG.severe("Error completing skill: owner=" + owner + " err=" + ex.getMessage());
+        }
+    }
 }
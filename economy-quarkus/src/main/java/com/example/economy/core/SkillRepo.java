@@ -80,6 +80,53 @@ public class SkillRepo {
         });
     }
 
+    /**
+     * Точечная загрузка включённых скиллов по ids (по уведомлению об изменении).
+     * Читаем с primary: NOTIFY приходит сразу после коммита, реплика может ещё не догнать.
+     */
+    public List<Skill> loadSkills(Collection<String> ids) throws Exception {
+        return databaseRouter.executeWrite(conn -> {
+            List<Skill> out = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "select id,title,description,max_level,durations_ms,enabled,version from skills where enabled=true and id = any(?)")) {
+                ps.setArray(1, conn.createArrayOf("text", ids.toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        int maxL = rs.getInt(4);
+                        out.add(new Skill(rs.getString(1), rs.getString(2), rs.getString(3), maxL,
+                                parseDurations(rs.getString(5), maxL), rs.getBoolean(6), rs.getInt(7)));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to load skills " + ids, e);
+            }
+            return out;
+        });
+    }
+
+    /** Точечная загрузка включённых бонусов скиллов skillIds (с primary, см. {@link #loadSkills}). */
+    public List<SkillBonus> loadBonusesOf(Collection<String> skillIds) throws Exception {
+        return databaseRouter.executeWrite(conn -> {
+            List<SkillBonus> out = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "select skill_id, kind, target, op, per_level_bps, cap_bps, enabled from skill_bonuses " +
+                    "where enabled=true and skill_id = any(?)")) {
+                ps.setArray(1, conn.createArrayOf("text", skillIds.toArray()));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        out.add(new SkillBonus(
+                                rs.getString(1), rs.getString(2), rs.getString(3),
+                                rs.getString(4), rs.getInt(5), rs.getInt(6), rs.getBoolean(7)
+                        ));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to load skill bonuses of " + skillIds, e);
+            }
+            return out;
+        });
+    }
+
     private static long[] parseDurations(String json, int maxL) {
         String s = json.trim();
         if (!s.startsWith("[") || !s.endsWith("]")) throw new IllegalArgumentException("bad durations json");
@@ -0,0 +1,130 @@
+package com.example.economy.core;
+
+import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Распределение шардов таймеров (prod:due:N / skill:due:N) между репликами.
+ *
+ * Каждый шард — аренда в Redis (timer:shard:N:lease). Узел отмечается в реестре живых узлов,
+ * держит примерно shards / liveNodes аренд и продлевает их пачкой. Лишние отдаёт, когда
+ * появляются новые узлы; аренды упавшего узла истекают по TTL и разбираются остальными.
+ */
+@ApplicationScoped
+@Startup
+public class TimerShards {
+    private static final Logger LOG = Logger.getLogger(TimerShards.class.getName());
+
+    /** Уведомления о смене владения шардом (вызываются из потока обслуживания аренд). */
+    public interface Listener {
+        void onShardAcquired(int shard);
+        void onShardReleased(int shard);
+    }
+
+    @Inject RedisBus redis;
+
+    @ConfigProperty(name = "app.timer.lease-ms", defaultValue = "15000")
+    long leaseMs;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Set<Integer> owned = ConcurrentHashMap.newKeySet();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile int liveNodes = 1;
+
+    @PostConstruct
+    void init() {
+        LOG.info("TimerShards initialized: node=" + nodeId + ", shards=" + redis.shardCount());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (int s : List.copyOf(owned)) {
+            redis.releaseLease(RedisBus.shardLeaseKey(s), nodeId);
+        }
+        owned.clear();
+        redis.removeNode(nodeId);
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+        for (int s : owned) l.onShardAcquired(s);
+    }
+
+    public String nodeId() { return nodeId; }
+    public boolean owns(int shard) { return owned.contains(shard); }
+    public Set<Integer> ownedShards() { return Set.copyOf(owned); }
+    public int liveNodes() { return liveNodes; }
+
+    /** Heartbeat, продление своих аренд, отдача лишних и захват недостающих. */
+    @Scheduled(every = "${app.timer.maintain-every:3s}", concurrentExecution = ConcurrentExecution.SKIP)
+    public synchronized void rebalance() {
+        try {
+            int shards = redis.shardCount();
+            liveNodes = redis.heartbeat(nodeId, System.currentTimeMillis(), leaseMs);
+            int target = (shards + liveNodes - 1) / liveNodes;
+
+            // 1) продлеваем то, что держим; потерянное — освобождаем локально
+            List<Integer> mine = new ArrayList<>(owned);
+            List<String> keys = new ArrayList<>(mine.size());
+            for (int s : mine) keys.add(RedisBus.shardLeaseKey(s));
+            boolean[] renewed = redis.renewLeases(keys, nodeId, leaseMs);
+            for (int i = 0; i < mine.size(); i++) {
+                if (!renewed[i]) drop(mine.get(i), "lease lost");
+            }
+
+            // 2) узлов стало больше — отдаём лишнее, чтобы другие могли забрать
+            if (owned.size() > target) {
+                List<Integer> extra = new ArrayList<>(owned);
+                extra.sort(null);
+                for (int s : extra.subList(target, extra.size())) {
+                    redis.releaseLease(RedisBus.shardLeaseKey(s), nodeId);
+                    drop(s, "rebalance");
+                }
+            }
+
+            // 3) добираем свободные шарды до целевого количества
+            int need = target - owned.size();
+            if (need > 0) {
+                // стартуем с "своего" смещения, чтобы узлы не толкались за одни и те же шарды
+                int offset = Math.floorMod(nodeId.hashCode(), shards);
+                List<Integer> candidates = new ArrayList<>();
+                List<String> candidateKeys = new ArrayList<>();
+                for (int i = 0; i < shards; i++) {
+                    int s = (offset + i) % shards;
+                    if (owned.contains(s)) continue;
+                    candidates.add(s);
+                    candidateKeys.add(RedisBus.shardLeaseKey(s));
+                }
+                for (int idx : redis.acquireLeases(candidateKeys, nodeId, leaseMs, need)) {
+                    int s = candidates.get(idx);
+                    owned.add(s);
+                    LOG.info("Acquired timer shard " + s + " (node=" + nodeId + ", live=" + liveNodes + ")");
+                    for (Listener l : listeners) l.onShardAcquired(s);
+                }
+            }
+        } catch (Exception e) {
+            LOG.warning("Timer shard rebalance failed: " + e.getMessage());
+        }
+    }
+
+    private void drop(int shard, String reason) {
+        if (owned.remove(shard)) {
+            LOG.info("Released timer shard " + shard + " (" + reason + ")");
+            for (Listener l : listeners) l.onShardReleased(shard);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package com.example.economy.core;
+
+import io.quarkus.runtime.Startup;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Кошельки (wallets) и журнал движений (wallet_tx).
+ *
+ * Операция проверяется и применяется к состоянию кошелька в памяти под замком своей полосы
+ * (owner -> один из stripes ReentrantLock), поэтому операции одного владельца строго
+ * последовательны, а разные владельцы друг другу почти не мешают. Затем она встаёт в очередь
+ * group commit: поток записи раз в commit-ms (или при накоплении batch) пишет пачку одной
+ * транзакцией — строки журнала одним INSERT ... FROM unnest, балансы одним UPDATE ... FROM unnest
+ * с суммарными по владельцу дельтами. Future операции завершается после коммита.
+ *
+ * Состояние в памяти верно, только пока писатель один: операции принимает лишь узел, держащий
+ * аренду движка рынка ({@link MatchingEngine#isActive()}, app.market.enabled), остальные узлы
+ * отказывают. После каждого нового захвата аренды кошельки перечитываются из БД — пока аренда
+ * была у другого узла, он мог их менять.
+ *
+ * Дельты в БД относительные, а CHECK (balance >= 0, reserved >= 0, reserved <= balance)
+ * остаётся последним рубежом: если состояние в памяти разошлось с базой (правка в обход сервиса
+ * или второй писатель в окне смены аренды), пачка разбирается по владельцам и отказывает только
+ * нарушителю, а его кошелёк перечитывается из БД. Правки кошельков в обход сервиса — с
+ * последующим evict(owner).
+ */
+@ApplicationScoped
+@Startup
+public class WalletService {
+    private static final Logger LOG = Logger.getLogger(WalletService.class.getName());
+
+    /** Состояние кошелька после операции. */
+    public record Balance(long balance, long reserved) {
+        public long available() { return balance - reserved; }
+    }
+
+    private static final String SQL_LOAD = "select balance, reserved from wallets where owner_uuid = ?";
+    private static final String SQL_CREATE =
+        "insert into wallets(owner_uuid) values(?) on conflict (owner_uuid) do nothing";
+
+    private static final String SQL_LEDGER = """
+        insert into wallet_tx (owner_uuid, delta, reason)
+        select * from unnest(?::uuid[], ?::bigint[], ?::text[])
+        """;
+
+    private static final String SQL_APPLY = """
+        update wallets w
+           set balance = w.balance + d.delta,
+               reserved = w.reserved + d.rdelta,
+               updated_at = now()
+          from unnest(?::uuid[], ?::bigint[], ?::bigint[]) as d(owner_uuid, delta, rdelta)
+         where w.owner_uuid = d.owner_uuid
+        """;
+
+    @Inject Database db;
+    @Inject MatchingEngine engine;
+
+    @ConfigProperty(name = "app.wallet.stripes", defaultValue = "1024")
+    int stripeCount;
+
+    // окно group commit: сколько операция максимум ждёт попутчиков
+    @ConfigProperty(name = "app.wallet.commit-ms", defaultValue = "5")
+    long commitMs;
+
+    @ConfigProperty(name = "app.wallet.batch", defaultValue = "1000")
+    int batch;
+
+    // кошельки без операций дольше idle-ms выгружаются из памяти
+    @ConfigProperty(name = "app.wallet.idle-ms", defaultValue = "60000")
+    long idleMs;
+
+    private ReentrantLock[] stripes;
+    private final ConcurrentHashMap<UUID, Wallet> wallets = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final Semaphore signal = new Semaphore(0);
+    private Thread worker;
+    private volatile boolean running;
+    // номер аренды движка, при котором загружены кошельки в памяти
+    private volatile long generation = -1;
+
+    /** Кошелёк в памяти; все поля — только под замком полосы владельца. */
+    private static final class Wallet {
+        long balance, reserved;
+        int inflight;     // операций в очереди, ещё не закоммиченных
+        boolean stale;    // коммит не прошёл — перечитать из БД, когда очередь опустеет
+        long touchedMs;
+    }
+
+    /** Операция в очереди group commit. delta — изменение balance, rdelta — reserved. */
+    private record Op(UUID owner, long delta, long rdelta, String reason, Balance after,
+                      CompletableFuture<Balance> future) {}
+
+    @PostConstruct
+    void init() {
+        int n = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) stripes[i] = new ReentrantLock();
+        running = true;
+        worker = new Thread(this::run, "wallet-commit");
+        worker.setDaemon(true);
+        worker.start();
+        LOG.info("WalletService initialized: stripes=" + n + ", commit=" + commitMs + "ms, batch=" + batch);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try { worker.join(5000); } catch (InterruptedException ignored) {}
+        }
+        // дописываем принятые операции, чтобы не оставить висящих future
+        try {
+            while (commitOnce() > 0) { }
+        } catch (Exception e) {
+            LOG.severe("Wallet commit failed on shutdown: " + e.getMessage());
+        }
+    }
+
+    /** Зачислить amount. */
+    public CompletableFuture<Balance> credit(UUID owner, long amount, String reason) {
+        requirePositive(amount);
+        return apply(owner, reason, w -> {
+            w.balance = Math.addExact(w.balance, amount);
+            return new long[]{amount, 0};
+        });
+    }
+
+    /** Списать amount из доступного остатка (balance - reserved). */
+    public CompletableFuture<Balance> debit(UUID owner, long amount, String reason) {
+        requirePositive(amount);
+        return apply(owner, reason, w -> {
+            if (w.balance - w.reserved < amount) throw insufficient(w, amount);
+            w.balance -= amount;
+            return new long[]{-amount, 0};
+        });
+    }
+
+    /** Заблокировать amount (эскроу): balance не меняется, доступный остаток уменьшается. */
+    public CompletableFuture<Balance> reserve(UUID owner, long amount, String reason) {
+        requirePositive(amount);
+        return apply(owner, reason, w -> {
+            if (w.balance - w.reserved < amount) throw insufficient(w, amount);
+            w.reserved += amount;
+            return new long[]{0, amount};
+        });
+    }
+
+    /**
+     * Снять блокировку amount. consume=false — средства возвращаются в доступный остаток,
+     * consume=true — заблокированное списывается (расчёт по эскроу, в журнал пишется -amount).
+     */
+    public CompletableFuture<Balance> release(UUID owner, long amount, boolean consume, String reason) {
+        requirePositive(amount);
+        return apply(owner, reason, w -> {
+            if (w.reserved < amount) {
+                throw new IllegalArgumentException("Reserved funds too low: reserved=" + w.reserved + ", release=" + amount);
+            }
+            w.reserved -= amount;
+            if (!consume) return new long[]{0, -amount};
+            w.balance -= amount;
+            return new long[]{-amount, -amount};
+        });
+    }
+
+    /** Текущее состояние (из памяти; при первом обращении — из БД). */
+    public Balance balance(UUID owner) {
+        requireWriter();
+        ReentrantLock lock = stripe(owner);
+        lock.lock();
+        try {
+            Wallet w = loaded(owner);
+            return new Balance(w.balance, w.reserved);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Выгрузить кошелёк из памяти (после правки wallets в обход сервиса). */
+    public void evict(UUID owner) {
+        ReentrantLock lock = stripe(owner);
+        lock.lock();
+        try {
+            Wallet w = wallets.get(owner);
+            if (w == null) return;
+            if (w.inflight == 0) wallets.remove(owner); else w.stale = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(every = "${app.wallet.sweep-every:30s}", concurrentExecution = ConcurrentExecution.SKIP)
+    void sweepIdle() {
+        long cutoff = System.currentTimeMillis() - idleMs;
+        for (var e : wallets.entrySet()) {
+            ReentrantLock lock = stripe(e.getKey());
+            lock.lock();
+            try {
+                Wallet w = e.getValue();
+                if (w.inflight == 0 && w.touchedMs < cutoff) wallets.remove(e.getKey(), w);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private interface Mutation {
+        /** Меняет кошелёк (или бросает отказ), возвращает {delta, rdelta}. */
+        long[] apply(Wallet w);
+    }
+
+    private CompletableFuture<Balance> apply(UUID owner, String reason, Mutation m) {
+        if (owner == null) throw new IllegalArgumentException("ownerUuid is required");
+        if (reason == null || reason.isBlank()) throw new IllegalArgumentException("reason is required");
+        if (!running) throw new IllegalStateException("WalletService is stopped");
+        requireWriter();
+        ReentrantLock lock = stripe(owner);
+        lock.lock();
+        try {
+            Wallet w = loaded(owner);
+            long[] d = m.apply(w);
+            w.inflight++;
+            w.touchedMs = System.currentTimeMillis();
+            CompletableFuture<Balance> f = new CompletableFuture<>();
+            // в очередь под замком полосы: порядок операций владельца в очереди = порядок применения
+            queue.add(new Op(owner, d[0], d[1], reason, new Balance(w.balance, w.reserved), f));
+            if (queue.size() >= batch && signal.availablePermits() == 0) signal.release();
+            return f;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Операции только на узле-писателе; при новой аренде — сбросить кошельки, загруженные до неё. */
+    private void requireWriter() {
+        if (!engine.isActive()) throw new IllegalStateException("Wallets are served by the market engine node");
+        long g = engine.generation();
+        if (g != generation) resync(g);
+    }
+
+    private synchronized void resync(long g) {
+        if (g == generation) return;
+        for (var e : wallets.entrySet()) {
+            ReentrantLock lock = stripe(e.getKey());
+            lock.lock();
+            try {
+                Wallet w = e.getValue();
+                if (w.inflight == 0) wallets.remove(e.getKey(), w); else w.stale = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+        generation = g;
+    }
+
+    /** Кошелёк из памяти или из БД; вызывать под замком полосы владельца. */
+    private Wallet loaded(UUID owner) {
+        Wallet w = wallets.get(owner);
+        if (w != null && w.stale) {
+            if (w.inflight > 0) throw new IllegalStateException("Wallet is being resynchronized, retry later");
+            wallets.remove(owner);
+            w = null;
+        }
+        if (w == null) {
+            w = load(owner);
+            wallets.put(owner, w);
+        }
+        return w;
+    }
+
+    private Wallet load(UUID owner) {
+        return db.withWriteConnection(c -> {
+            try {
+                Wallet w = select(c, owner);
+                if (w == null) {
+                    try (PreparedStatement ps = c.prepareStatement(SQL_CREATE)) {
+                        ps.setObject(1, owner);
+                        ps.executeUpdate();
+                    }
+                    w = select(c, owner);
+                }
+                if (w == null) throw new IllegalArgumentException("Unknown player: " + owner);
+                w.touchedMs = System.currentTimeMillis();
+                return w;
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to load wallet " + owner, e);
+            }
+        });
+    }
+
+    private static Wallet select(Connection c, UUID owner) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(SQL_LOAD)) {
+            ps.setObject(1, owner);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return null;
+                Wallet w = new Wallet();
+                w.balance = rs.getLong(1);
+                w.reserved = rs.getLong(2);
+                return w;
+            }
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                signal.tryAcquire(commitMs, TimeUnit.MILLISECONDS);
+                signal.drainPermits();
+                // крутимся, пока пачки полные
+                while (running && commitOnce() >= batch) { }
+            } catch (InterruptedException ie) {
+                if (!running) break;
+            } catch (Exception e) {
+                LOG.warning("Wallet group commit failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Закоммитить до batch операций одной транзакцией; возвращает их число. */
+    synchronized int commitOnce() {
+        List<Op> ops = new ArrayList<>(Math.min(batch, 1024));
+        queue.drainTo(ops, batch);
+        if (ops.isEmpty()) return 0;
+        try {
+            write(ops);
+            finish(ops, null);
+        } catch (SQLException e) {
+            // CHECK/FK нарушил кто-то из владельцев — пишем по владельцам, чтобы отказать только ему
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                isolate(ops);
+            } else {
+                finish(ops, e);
+            }
+        }
+        return ops.size();
+    }
+
+    private void isolate(List<Op> ops) {
+        Map<UUID, List<Op>> byOwner = new LinkedHashMap<>();
+        for (Op op : ops) byOwner.computeIfAbsent(op.owner(), k -> new ArrayList<>()).add(op);
+        for (List<Op> part : byOwner.values()) {
+            try {
+                write(part);
+                finish(part, null);
+            } catch (SQLException e) {
+                LOG.warning("Wallet ops rejected for " + part.get(0).owner() + ": " + e.getMessage());
+                finish(part, e);
+            }
+        }
+    }
+
+    private void write(List<Op> ops) throws SQLException {
+        Map<UUID, long[]> net = new LinkedHashMap<>();
+        List<UUID> txOwners = new ArrayList<>();
+        List<Long> txDeltas = new ArrayList<>();
+        List<String> txReasons = new ArrayList<>();
+        for (Op op : ops) {
+            long[] d = net.computeIfAbsent(op.owner(), k -> new long[2]);
+            d[0] += op.delta();
+            d[1] += op.rdelta();
+            // журнал — движения баланса; блокировки/разблокировки balance не меняют
+            if (op.delta() != 0) {
+                txOwners.add(op.owner());
+                txDeltas.add(op.delta());
+                txReasons.add(op.reason());
+            }
+        }
+        UUID[] owners = net.keySet().toArray(new UUID[0]);
+        Long[] deltas = new Long[owners.length], rdeltas = new Long[owners.length];
+        for (int i = 0; i < owners.length; i++) {
+            long[] d = net.get(owners[i]);
+            deltas[i] = d[0];
+            rdeltas[i] = d[1];
+        }
+
+        try (Connection c = db.getWriteConnection()) {
+            c.setAutoCommit(false);
+            try {
+                if (!txOwners.isEmpty()) {
+                    try (PreparedStatement ps = c.prepareStatement(SQL_LEDGER)) {
+                        ps.setArray(1, c.createArrayOf("uuid", txOwners.toArray()));
+                        ps.setArray(2, c.createArrayOf("bigint", txDeltas.toArray()));
+                        ps.setArray(3, c.createArrayOf("text", txReasons.toArray()));
+                        ps.executeUpdate();
+                    }
+                }
+                try (PreparedStatement ps = c.prepareStatement(SQL_APPLY)) {
+                    ps.setArray(1, c.createArrayOf("uuid", owners));
+                    ps.setArray(2, c.createArrayOf("bigint", deltas));
+                    ps.setArray(3, c.createArrayOf("bigint", rdeltas));
+                    ps.executeUpdate();
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /** Снять inflight и завершить future; при ошибке кошелёк помечается на перечитывание. */
+    private void finish(List<Op> ops, Exception error) {
+        for (Op op : ops) {
+            ReentrantLock lock = stripe(op.owner());
+            lock.lock();
+            try {
+                Wallet w = wallets.get(op.owner());
+                if (w != null) {
+                    w.inflight--;
+                    if (error != null) w.stale = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (error == null) {
+                op.future().complete(op.after());
+            } else {
+                op.future().completeExceptionally(new IllegalStateException("Wallet operation failed: " + error.getMessage(), error));
+            }
+        }
+    }
+
+    private ReentrantLock stripe(UUID owner) {
+        int h = owner.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static void requirePositive(long amount) {
+        if (amount <= 0) throw new IllegalArgumentException("amount must be positive");
+    }
+
+    private static IllegalArgumentException insufficient(Wallet w, long amount) {
+        return new IllegalArgumentException("Insufficient funds: available=" + (w.balance - w.reserved) + ", required=" + amount);
+    }
+}
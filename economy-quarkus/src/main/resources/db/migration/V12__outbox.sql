@@ -0,0 +1,17 @@
+-- Транзакционный outbox побочных эффектов (Redis due-сеты, NATS-события).
+-- Строки пишутся в той же транзакции, что и изменения задач/навыков;
+-- OutboxRelay забирает их пачками (for update skip locked), доставляет и удаляет.
+--
+-- kind:   'prod.schedule'  — ZADD prod:due:N  (owner_uuid, ref = jobId, due_ms = end_ms)
+--         'skill.schedule' — ZADD skill:due:N (owner_uuid, due_ms = end_ms)
+--         'nats'           — публикация в JetStream (subject, payload)
+create table if not exists outbox (
+                                      id          bigserial   primary key,
+                                      kind        text        not null check (kind in ('prod.schedule','skill.schedule','nats')),
+    owner_uuid  uuid,
+    ref         text,
+    due_ms      bigint,
+    subject     text,
+    payload     text,
+    created_at  timestamptz not null default now()
+    );
@@ -0,0 +1,9 @@
+-- Рецепт demo:diamond раньше был зашит в RecipeRegistry; теперь реестр строится из таблиц
+-- recipes/recipe_inputs, поэтому переносим его в БД (его использует команда мода /eco start).
+INSERT INTO recipes (id, name, description, tag, base_duration_ms, enabled, category)
+VALUES ('demo:diamond', 'Diamond', 'Тестовый рецепт: алмаз из железной руды', 'industry', 5000, true, 'demo')
+ON CONFLICT (id) DO NOTHING;
+
+INSERT INTO recipe_inputs (recipe_id, item_id, quantity, description, sort_order)
+SELECT 'demo:diamond', 'ore.iron', 10, 'Железная руда', 1
+WHERE NOT EXISTS (SELECT 1 FROM recipe_inputs WHERE recipe_id = 'demo:diamond');
@@ -0,0 +1,54 @@
+-- Уведомления об изменении каталогов (CatalogChangeListener слушает канал catalog_changed).
+-- payload: '<kind>:<id>'
+--   skill:<skills.id>            — изменён/удалён скилл
+--   bonus:<skill_bonuses.skill_id> — изменены бонусы скилла
+--   recipe:<recipes.id>          — изменён рецепт или его входы/выходы/требования
+-- NOTIFY доставляется только после коммита, а одинаковые payload внутри одной транзакции
+-- Postgres схлопывает — массовая вставка входов одного рецепта даёт одно уведомление.
+create or replace function notify_catalog_change() returns trigger
+    language plpgsql as $$
+declare
+    r   record;
+    ref text;
+begin
+    if tg_op = 'DELETE' then r := old; else r := new; end if;
+    -- поля записи берём только из своей таблицы: у skills нет recipe_id и т.п.
+    if tg_table_name in ('skills', 'recipes') then
+        ref := r.id::text;
+        -- при переименовании ключа старый id тоже устарел
+        if tg_op = 'UPDATE' and old.id is distinct from new.id then
+            perform pg_notify('catalog_changed', tg_argv[0] || ':' || old.id::text);
+        end if;
+    elsif tg_table_name = 'skill_bonuses' then
+        ref := r.skill_id;
+    else
+        ref := r.recipe_id;
+    end if;
+    perform pg_notify('catalog_changed', tg_argv[0] || ':' || ref);
+    return null;
+end;
+$$;
+
+drop trigger if exists trg_skills_notify on skills;
+create trigger trg_skills_notify after insert or update or delete on skills
+    for each row execute function notify_catalog_change('skill');
+
+drop trigger if exists trg_skill_bonuses_notify on skill_bonuses;
+create trigger trg_skill_bonuses_notify after insert or update or delete on skill_bonuses
+    for each row execute function notify_catalog_change('bonus');
+
+drop trigger if exists trg_recipes_notify on recipes;
+create trigger trg_recipes_notify after insert or update or delete on recipes
+    for each row execute function notify_catalog_change('recipe');
+
+drop trigger if exists trg_recipe_inputs_notify on recipe_inputs;
+create trigger trg_recipe_inputs_notify after insert or update or delete on recipe_inputs
+    for each row execute function notify_catalog_change('recipe');
+
+drop trigger if exists trg_recipe_outputs_notify on recipe_outputs;
+create trigger trg_recipe_outputs_notify after insert or update or delete on recipe_outputs
+    for each row execute function notify_catalog_change('recipe');
+
+drop trigger if exists trg_recipe_requirements_notify on recipe_requirements;
+create trigger trg_recipe_requirements_notify after insert or update or delete on recipe_requirements
+    for each row execute function notify_catalog_change('recipe');
@@ -0,0 +1,5 @@
+-- Хеш содержимого встроенных конфигов (ConfigurationManager.seed): при совпадении
+-- хеша сущность при старте не перезаписывается. null — строка создана не из конфига
+-- (или до появления колонки) и будет перезаписана один раз.
+alter table skills  add column if not exists config_hash text;
+alter table recipes add column if not exists config_hash text;
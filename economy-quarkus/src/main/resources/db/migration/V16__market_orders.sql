@@ -0,0 +1,6 @@
+-- Биржа (MatchingEngine). Таблица market_orders и enum'ы order_side/order_status — из sql/init.sql.
+-- На старте стаканы восстанавливаются запросом
+--   select ... from market_orders where status in ('OPEN','PARTIAL') order by id
+-- открытых заявок мало относительно истории, поэтому частичный индекс в порядке id.
+create index if not exists ix_orders_open
+  on market_orders (id) where status in ('OPEN', 'PARTIAL');
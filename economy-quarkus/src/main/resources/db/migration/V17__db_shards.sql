@@ -0,0 +1,14 @@
+-- Карта шардов по владельцу (DatabaseRouter, ShardSplitter). Живёт на глобальном шарде.
+-- Каждая строка — шард с vnodes точками на кольце консистентного хеширования. Состояния:
+--   COPYING — данные переезжающих владельцев копируются, чтение и запись идут по старой карте;
+--   FROZEN  — запись переезжающих владельцев ждёт, идёт докопирование;
+--   ACTIVE  — шард в кольце.
+-- Datasources шарда задаются в конфигурации узла: app.db.shard.<name>.write / .read-pools.
+create table if not exists db_shards (
+  name       text primary key,
+  vnodes     int  not null check (vnodes > 0),
+  state      text not null default 'ACTIVE' check (state in ('COPYING', 'FROZEN', 'ACTIVE')),
+  updated_at timestamptz not null default now()
+);
+
+insert into db_shards(name, vnodes) values ('main', 128) on conflict (name) do nothing;
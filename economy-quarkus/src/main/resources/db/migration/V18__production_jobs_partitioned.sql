@@ -0,0 +1,119 @@
+-- production_jobs по дням end_ms (JobRetention, Repositories).
+--
+-- Партиция на сутки UTC: production_jobs_pYYYYMMDD, плюс production_jobs_default для того,
+-- что не попало в созданные. Горячие запросы несут предикат по end_ms и попадают в текущие
+-- партиции: завершение задач — по end_ms из due-сета, список задач — за последние сутки.
+-- Завершённые строки старше срока хранения JobRetention пачками упаковывает в
+-- production_jobs_archive, опустевшие партиции отсоединяет и удаляет.
+--
+-- Уникальность по idempotency_key на секционированной таблице требует end_ms в ключе, а
+-- повтор запроса приходит с другим end_ms — поэтому ключи живут в отдельной production_job_keys.
+--
+-- Миграция переносит данные одной транзакцией: живые и свежие строки — в партиции, старые
+-- завершённые — сразу в архив.
+
+lock table production_jobs in access exclusive mode;
+
+alter table production_jobs rename to production_jobs_legacy;
+alter table production_jobs_legacy rename constraint production_jobs_pkey to production_jobs_legacy_pkey;
+alter index if exists ux_jobs_idem rename to ux_jobs_idem_legacy;
+alter index if exists ix_jobs_owner_status_end rename to ix_jobs_owner_status_end_legacy;
+
+create table production_jobs (
+  id               uuid not null,
+  owner_uuid       uuid not null references players(uuid) on delete cascade,
+  recipe_id        text not null,
+  start_ms         bigint not null,
+  end_ms           bigint not null,
+  status           job_status not null default 'IN_PROGRESS',
+  idempotency_key  text,
+  created_at       timestamptz not null default now(),
+  updated_at       timestamptz not null default now(),
+  check (end_ms >= start_ms),
+  primary key (id, end_ms)
+) partition by range (end_ms);
+
+create index ix_jobs_owner_status_end on production_jobs (owner_uuid, status, end_ms);
+
+create table production_jobs_default partition of production_jobs default;
+
+-- Партиция суток, начинающихся в day_start (мс UTC). Строки этого диапазона, успевшие лечь
+-- в default, переносятся в неё до подключения — иначе ATTACH откажет.
+create or replace function production_jobs_ensure_partition(day_start bigint) returns boolean
+language plpgsql as $$
+declare
+  part    text   := 'production_jobs_p' || to_char(to_timestamp(day_start / 1000) at time zone 'UTC', 'YYYYMMDD');
+  day_end bigint := day_start + 86400000;
+begin
+  if to_regclass(part) is not null then
+    return false;
+  end if;
+  -- новые строки диапазона не должны лечь в default, пока партиция подключается
+  lock table production_jobs_default in share row exclusive mode;
+  execute format('create table %I (like production_jobs including defaults including constraints)', part);
+  execute format('alter table %I add constraint %I check (end_ms >= %s and end_ms < %s)',
+                 part, part || '_range', day_start, day_end);
+  execute format('with moved as (delete from production_jobs_default where end_ms >= %s and end_ms < %s returning *) '
+                 'insert into %I select * from moved', day_start, day_end, part);
+  execute format('alter table production_jobs attach partition %I for values from (%s) to (%s)',
+                 part, day_start, day_end);
+  -- проверка нужна была только для ATTACH без полного сканирования
+  execute format('alter table %I drop constraint %I', part, part || '_range');
+  return true;
+end $$;
+
+-- Ключи идемпотентности: проверка повтора не зависит от end_ms.
+create table production_job_keys (
+  idempotency_key text primary key,
+  owner_uuid      uuid not null,
+  job_id          uuid not null,
+  end_ms          bigint not null,
+  created_at      timestamptz not null default now()
+);
+create index ix_job_keys_owner on production_job_keys (owner_uuid);
+create index ix_job_keys_created on production_job_keys (created_at);
+
+-- Архив: завершённые задачи владельца за сутки — одной строкой jsonb-массивом. Порог TOAST
+-- снижен до минимума, так что пачки сжимаются lz4 уже от 128 байт.
+create table production_jobs_archive (
+  owner_uuid  uuid   not null,
+  day         date   not null,
+  batch_id    bigserial,
+  jobs_count  int    not null,
+  jobs        jsonb  not null,
+  archived_at timestamptz not null default now(),
+  primary key (owner_uuid, day, batch_id)
+) with (toast_tuple_target = 128);
+alter table production_jobs_archive alter column jobs set compression lz4;
+
+-- партиции на неделю назад (срок хранения по умолчанию) и неделю вперёд
+do $$
+declare
+  today bigint := (extract(epoch from date_trunc('day', now() at time zone 'UTC')) * 1000)::bigint;
+begin
+  for d in -7..7 loop
+    perform production_jobs_ensure_partition(today + d * 86400000::bigint);
+  end loop;
+end $$;
+
+insert into production_jobs (id, owner_uuid, recipe_id, start_ms, end_ms, status, idempotency_key, created_at, updated_at)
+select id, owner_uuid, recipe_id, start_ms, end_ms, status, idempotency_key, created_at, updated_at
+from production_jobs_legacy
+where status = 'IN_PROGRESS'
+   or end_ms >= (extract(epoch from now() - interval '7 days') * 1000)::bigint;
+
+insert into production_jobs_archive (owner_uuid, day, jobs_count, jobs)
+select owner_uuid, (to_timestamp(end_ms / 1000.0) at time zone 'UTC')::date, count(*),
+       jsonb_agg(to_jsonb(l) - 'owner_uuid' order by end_ms)
+from production_jobs_legacy l
+where status <> 'IN_PROGRESS'
+  and end_ms < (extract(epoch from now() - interval '7 days') * 1000)::bigint
+group by 1, 2;
+
+insert into production_job_keys (idempotency_key, owner_uuid, job_id, end_ms, created_at)
+select idempotency_key, owner_uuid, id, end_ms, created_at
+from production_jobs
+where idempotency_key is not null
+on conflict (idempotency_key) do nothing;
+
+drop table production_jobs_legacy;
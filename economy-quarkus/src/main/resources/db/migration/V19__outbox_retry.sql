@@ -0,0 +1,20 @@
+-- Повторы и dead-letter для outbox (OutboxRelay).
+-- Строка, которую не удалось доставить (NATS не подтвердил публикацию), возвращается в outbox
+-- с attempts + 1 и retry_at — остальная пачка при этом коммитится. После app.outbox.max-attempts
+-- неудачных попыток строка уходит в outbox_dead с текстом последней ошибки.
+alter table outbox add column if not exists attempts int not null default 0;
+alter table outbox add column if not exists retry_at timestamptz;
+
+create table if not exists outbox_dead (
+  id          bigint      primary key,
+  kind        text        not null,
+  owner_uuid  uuid,
+  ref         text,
+  due_ms      bigint,
+  subject     text,
+  payload     text,
+  attempts    int         not null,
+  last_error  text,
+  created_at  timestamptz not null,
+  dead_at     timestamptz not null default now()
+);
@@ -0,0 +1,6 @@
+-- Кошельки (WalletService): заблокированное не может превышать баланс.
+-- Состояние кошелька живёт в памяти узла с движком рынка; если второй писатель или правка в
+-- обход сервиса разведут память и базу, пачка group commit упрётся в это ограничение, и
+-- сервис откажет только нарушителю, перечитав его кошелёк.
+alter table wallets add constraint wallets_reserved_le_balance check (reserved <= balance) not valid;
+alter table wallets validate constraint wallets_reserved_le_balance;
@@ -0,0 +1,23 @@
+-- Журнал изменённых владельцев на время переноса шарда (ShardSplitter).
+-- На исходных шардах перед первым проходом копирования на таблицы владельцев вешается
+-- триггер shard_split_track; он отмечает владельца, чьи строки поменялись (включая удаления).
+-- Во втором проходе (FROZEN) копируются заново только отмеченные владельцы; по окончании
+-- переноса триггеры снимаются, журнал очищается.
+create table if not exists shard_split_changes (
+  owner_uuid uuid primary key,
+  changed_at timestamptz not null default now()
+);
+
+create or replace function shard_split_track() returns trigger
+language plpgsql as $$
+begin
+  if tg_op = 'DELETE' then
+    insert into shard_split_changes(owner_uuid) values (old.owner_uuid) on conflict (owner_uuid) do nothing;
+  else
+    insert into shard_split_changes(owner_uuid) values (new.owner_uuid) on conflict (owner_uuid) do nothing;
+    if tg_op = 'UPDATE' and old.owner_uuid is distinct from new.owner_uuid then
+      insert into shard_split_changes(owner_uuid) values (old.owner_uuid) on conflict (owner_uuid) do nothing;
+    end if;
+  end if;
+  return null;
+end $$;
@@ -455,22 +455,16 @@ public class VanillaSkillsScreen extends Screen {
             skills.clear();
             skills.addAll(serverSkills);
 
-            // Загружаем уровни для каждого скилла
-            List<java.util.concurrent.CompletableFuture<Void>> levelFutures = new ArrayList<>();
+            // Уровни всех скиллов и активная тренировка — одним запросом
+            return apiClient.getSkillState(playerUuid);
+
+        }).thenAccept(state -> {
             for (ServerSkill skill : skills) {
-                var levelFuture = apiClient.getSkillLevel(playerUuid, skill.id)
-                    .thenAccept(level -> skill.currentLevel = level);
-                levelFutures.add(levelFuture);
+                skill.currentLevel = state.levels.getOrDefault(skill.id, 0);
             }
 
-            return java.util.concurrent.CompletableFuture.allOf(levelFutures.toArray(new java.util.concurrent.CompletableFuture[0]));
-
-        }).thenCompose(v -> {
-            // Загружаем статус тренировки
-            return apiClient.getTrainingStatus(playerUuid);
-
-        }).thenAccept(training -> {
             // Обновляем активную тренировку
+            SkillTraining training = state.training;
             if (training != null) {
                 for (ServerSkill skill : skills) {
                     if (skill.id.equals(training.skillId)) {
@@ -521,22 +515,16 @@ public class VanillaSkillsScreen extends Screen {
                 skills.addAll(serverSkills);
             }
 
-            // Загружаем уровни для каждого скилла
-            List<java.util.concurrent.CompletableFuture<Void>> levelFutures = new ArrayList<>();
+            // Уровни всех скиллов и активная тренировка — одним запросом
+            return apiClient.getSkillState(playerUuid);
+
+        }).thenAccept(state -> {
             for (ServerSkill skill : skills) {
-                var levelFuture = apiClient.getSkillLevel(playerUuid, skill.id)
-                    .thenAccept(level -> skill.currentLevel = level);
-                levelFutures.add(levelFuture);
+                skill.currentLevel = state.levels.getOrDefault(skill.id, 0);
             }
 
-            return java.util.concurrent.CompletableFuture.allOf(levelFutures.toArray(new java.util.concurrent.CompletableFuture[0]));
-
-        }).thenCompose(v -> {
-            // Загружаем статус тренировки
-            return apiClient.getTrainingStatus(playerUuid);
-
-        }).thenAccept(training -> {
             // Обновляем активную тренировку
+            SkillTraining training = state.training;
             if (training != null) {
                 for (ServerSkill skill : skills) {
                     if (skill.id.equals(training.skillId)) {
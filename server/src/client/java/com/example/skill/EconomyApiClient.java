@@ -107,12 +107,27 @@ public class EconomyApiClient {
     }
 
     /**
-     * Получить уровень конкретного скилла для игрока
+     * Состояние навыков игрока: все уровни, активная тренировка и версия каталога
      */
-    public CompletableFuture<Integer> getSkillLevel(UUID playerUuid, String skillId) {
+    public static class SkillState {
+        public final Map<String, Integer> levels;
+        public final SkillTraining training; // null, если не тренируется
+        public final String etag;
+
+        public SkillState(Map<String, Integer> levels, SkillTraining training, String etag) {
+            this.levels = levels;
+            this.training = training;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * Получить всё состояние навыков игрока одним запросом
+     */
+    public CompletableFuture<SkillState> getSkillState(UUID playerUuid) {
         return CompletableFuture.supplyAsync(() -> {
             try {
-                String url = BASE_URL + "/skills/level?ownerUuid=" + playerUuid + "&skillId=" + skillId;
+                String url = BASE_URL + "/skills/state?ownerUuid=" + playerUuid;
                 HttpRequest request = HttpRequest.newBuilder()
                         .uri(URI.create(url))
                         .timeout(Duration.ofSeconds(5))
@@ -120,23 +135,43 @@ public class EconomyApiClient {
                         .build();
 
                 HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                
+
                 if (response.statusCode() != 200) {
-                    LOGGER.warning("Failed to get skill level: " + response.statusCode());
-                    return 0;
+                    LOGGER.warning("Failed to get skill state: " + response.statusCode());
+                    return new SkillState(Map.of(), null, null);
                 }
 
                 JsonNode root = objectMapper.readTree(response.body());
-                return root.get("level").asInt(0);
+                Map<String, Integer> levels = new HashMap<>();
+                root.path("levels").fields().forEachRemaining(e -> levels.put(e.getKey(), e.getValue().asInt(0)));
+
+                SkillTraining training = null;
+                JsonNode current = root.get("current");
+                if (current != null && !current.isNull()) {
+                    training = new SkillTraining(
+                        current.get("skillId").asText(),
+                        current.get("targetLevel").asInt(),
+                        current.get("startMs").asLong(),
+                        current.get("endMs").asLong()
+                    );
+                }
+                return new SkillState(levels, training, root.path("etag").asText(null));
 
             } catch (Exception e) {
-                LOGGER.warning("Error getting skill level: " + e.getMessage());
+                LOGGER.warning("Error getting skill state: " + e.getMessage());
                 e.printStackTrace();
-                return 0;
+                return new SkillState(Map.of(), null, null);
             }
         });
     }
 
+    /**
+     * Получить уровень конкретного скилла для игрока (из общего состояния навыков)
+     */
+    public CompletableFuture<Integer> getSkillLevel(UUID playerUuid, String skillId) {
+        return getSkillState(playerUuid).thenApply(state -> state.levels.getOrDefault(skillId, 0));
+    }
+
     /**
      * Получить статус активной тренировки
      */
@@ -8,6 +8,7 @@ import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
@@ -29,10 +30,17 @@ import io.nats.client.Nats;
 import io.nats.client.Options;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class RtsEconomyMod implements ModInitializer {
     // AUTHED теперь управляется SimpleAuth модом
@@ -46,24 +54,56 @@ public class RtsEconomyMod implements ModInitializer {
     // Дедупликация сообщений (храним последние 100 сообщений на 30 секунд)
     private static final Map<String, Long> MESSAGE_DEDUP = new ConcurrentHashMap<>();
 
+    // запросы к бэкенду, которые сейчас в полёте: "<owner>|<операция>"
+    private static final Set<String> IN_FLIGHT = ConcurrentHashMap.newKeySet();
+
+    // награды, уже списанные на бэкенде, но не выданные (игрок вышел до выдачи): owner -> алмазы.
+    // Трогается только из главного треда; копия на диске переживает перезапуск сервера.
+    private static final Map<UUID, Integer> PENDING_DIAMONDS = new HashMap<>();
+    private static final String PENDING_FILE = "rtsecon-pending-rewards.json";
+
     private static class Notif {
-        final UUID owner; final String text;
-        Notif(UUID owner, String text) { this.owner = owner; this.text = text; }
+        final UUID owner; final String text; final ChatFormatting style;
+        // сколько алмазов выдать вместе с сообщением (в главном треде), 0 — только сообщение
+        final int diamonds;
+        Notif(UUID owner, String text) { this(owner, text, ChatFormatting.AQUA, 0); }
+        Notif(UUID owner, String text, ChatFormatting style) { this(owner, text, style, 0); }
+        Notif(UUID owner, String text, ChatFormatting style, int diamonds) {
+            this.owner = owner; this.text = text; this.style = style; this.diamonds = diamonds;
+        }
     }
 
     @Override
     public void onInitialize() {
         // Авторизация теперь управляется SimpleAuth модом
 
+        loadPendingRewards();
+
         // выдать чат-уведомления из очереди (главный тред сервера)
         ServerTickEvents.END_SERVER_TICK.register(server -> {
             Notif nf;
+            boolean pendingChanged = false;
             while ((nf = NOTIFS.poll()) != null) {
                 ServerPlayer p = server.getPlayerList().getPlayer(nf.owner);
                 if (p != null) { // SimpleAuth проверяет авторизацию автоматически
-                    p.sendSystemMessage(Component.literal(nf.text).withStyle(ChatFormatting.AQUA));
+                    if (nf.diamonds > 0) giveDiamonds(p, nf.diamonds);
+                    if (nf.text != null) p.sendSystemMessage(Component.literal(nf.text).withStyle(nf.style));
+                } else if (nf.diamonds > 0) {
+                    // награда на бэкенде уже списана — не теряем, выдадим при входе
+                    PENDING_DIAMONDS.merge(nf.owner, nf.diamonds, Integer::sum);
+                    pendingChanged = true;
                 }
             }
+            if (pendingChanged) savePendingRewards();
+        });
+
+        // отложенные награды — при входе игрока (выдача в ближайшем тике, когда он уже в мире)
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+            UUID owner = handler.player.getUUID();
+            Integer n = PENDING_DIAMONDS.remove(owner);
+            if (n == null) return;
+            savePendingRewards();
+            NOTIFS.add(new Notif(owner, "Выдано алмазов (отложенная награда): " + n, ChatFormatting.GREEN, n));
         });
 
         // закрытие NATS при остановке сервера
@@ -92,44 +132,35 @@ public class RtsEconomyMod implements ModInitializer {
                                         ServerPlayer p = ctx.getSource().getPlayerOrException();
                                         if (!requireAuth(p)) return 0;
                                         String skillId = StringArgumentType.getString(ctx, "id");
-                                        try {
-                                            System.out.println("[EconMod] Starting skill training: " + skillId + " for " + p.getUUID());
-                                            JsonNode res = EconHttp.trainSkill(p.getUUID(), skillId);
-                                            System.out.println("[EconMod] Skill training response: " + res);
-                                            long left = res.get("endMs").asLong() - System.currentTimeMillis();
-                                            p.sendSystemMessage(Component.literal(
+                                        System.out.println("[EconMod] Starting skill training: " + skillId + " for " + p.getUUID());
+                                        submit(p, "skill.train", () -> EconHttp.trainSkillAsync(p.getUUID(), skillId),
+                                                "Ошибка тренировки: ", res -> {
+                                                    System.out.println("[EconMod] Skill training response: " + res);
+                                                    long left = res.get("endMs").asLong() - System.currentTimeMillis();
+                                                    return List.of(new Notif(p.getUUID(),
                                                             "⏳ Тренировка '" + skillId + "' → L" + res.get("targetLevel").asInt()
-                                                                    + " (~" + Math.max(0, left/1000) + "с)")
-                                                    .withStyle(ChatFormatting.AQUA));
-                                        } catch (Exception e) {
-                                            System.out.println("[EconMod] Skill training error: " + e.getMessage());
-                                            e.printStackTrace();
-                                            p.sendSystemMessage(Component.literal("Ошибка тренировки: " + e.getMessage())
-                                                    .withStyle(ChatFormatting.RED));
-                                        }
+                                                                    + " (~" + Math.max(0, left/1000) + "с)"));
+                                                });
                                         return 1;
                                     })))
                     .then(Commands.literal("status")
                             .executes(ctx -> {
                                 ServerPlayer p = ctx.getSource().getPlayerOrException();
                                 if (!requireAuth(p)) return 0;
-                                try {
-                                    JsonNode st = EconHttp.skillStatus(p.getUUID()).path("current");
-                                    if (st.isMissingNode() || st.isNull()) {
-                                        p.sendSystemMessage(Component.literal("Навыки: сейчас не тренируются.")
-                                                .withStyle(ChatFormatting.GRAY));
-                                    } else {
-                                        long left = st.get("endMs").asLong() - System.currentTimeMillis();
-                                        p.sendSystemMessage(Component.literal(
-                                                        "🧠 " + st.get("skillId").asText()
-                                                                + " → L" + st.get("targetLevel").asInt()
-                                                                + " осталось ~" + Math.max(0, left/1000) + "с")
-                                                .withStyle(ChatFormatting.YELLOW));
-                                    }
-                                } catch (Exception e) {
-                                    p.sendSystemMessage(Component.literal("Ошибка статуса: " + e.getMessage())
-                                            .withStyle(ChatFormatting.RED));
-                                }
+                                UUID owner = p.getUUID();
+                                submit(p, "skill.status", () -> EconHttp.skillStatusAsync(owner),
+                                        "Ошибка статуса: ", res -> {
+                                            JsonNode st = res.path("current");
+                                            if (st.isMissingNode() || st.isNull()) {
+                                                return List.of(new Notif(owner, "Навыки: сейчас не тренируются.", ChatFormatting.GRAY));
+                                            }
+                                            long left = st.get("endMs").asLong() - System.currentTimeMillis();
+                                            return List.of(new Notif(owner,
+                                                    "🧠 " + st.get("skillId").asText()
+                                                            + " → L" + st.get("targetLevel").asInt()
+                                                            + " осталось ~" + Math.max(0, left/1000) + "с",
+                                                    ChatFormatting.YELLOW));
+                                        });
                                 return 1;
                             }))
                     .then(Commands.literal("list")
@@ -195,18 +226,16 @@ public class RtsEconomyMod implements ModInitializer {
                                         ServerPlayer p = ctx.getSource().getPlayerOrException();
                                         if (!requireAuth(p)) return 0;
                                         String skillId = StringArgumentType.getString(ctx, "skillId");
-                                        try {
-                                            JsonNode res = EconHttp.skillLevel(p.getUUID(), skillId);
-                                            int level = res.get("level").asInt();
-                                            // Рассчитываем скидку для наглядности
-                                            int discount = Math.min(25, level * 5); // 5% за уровень, макс 25%
-                                            p.sendSystemMessage(Component.literal(
-                                                    "🎯 " + skillId + ": уровень " + level + " (скидка -" + discount + "%)")
-                                                    .withStyle(ChatFormatting.AQUA));
-                                        } catch (Exception e) {
-                                            p.sendSystemMessage(Component.literal("Ошибка: " + e.getMessage())
-                                                    .withStyle(ChatFormatting.RED));
-                                        }
+                                        UUID owner = p.getUUID();
+                                        // промах кэша — HTTP-запрос состояния навыков, поэтому тоже вне главного треда
+                                        submit(p, "skill.level", () -> EconHttp.skillLevelAsync(owner, skillId),
+                                                "Ошибка: ", res -> {
+                                                    int level = res.get("level").asInt();
+                                                    // Рассчитываем скидку для наглядности
+                                                    int discount = Math.min(25, level * 5); // 5% за уровень, макс 25%
+                                                    return List.of(new Notif(owner,
+                                                            "🎯 " + skillId + ": уровень " + level + " (скидка -" + discount + "%)"));
+                                                });
                                         return 1;
                                     })))
             );
@@ -252,66 +281,135 @@ public class RtsEconomyMod implements ModInitializer {
                                         ServerPlayer p = ctx.getSource().getPlayerOrException();
                                         if (!requireAuth(p)) return 0;
                                         int seconds = IntegerArgumentType.getInteger(ctx, "seconds");
-                                        try {
-                                            JsonNode res = EconHttp.startProduction(p.getUUID(), "demo:diamond", seconds);
-                                            String jobId = res.get("jobId").asText();
-                                            p.sendSystemMessage(Component.literal(
-                                                            "Запущено: " + jobId + " (готово через " + seconds + "с)")
-                                                    .withStyle(ChatFormatting.GREEN));
-                                        } catch (Exception ex) {
-                                            p.sendSystemMessage(Component.literal("Ошибка сервиса: " + ex.getMessage())
-                                                    .withStyle(ChatFormatting.RED));
-                                        }
+                                        UUID owner = p.getUUID();
+                                        submit(p, "eco.start", () -> EconHttp.startProductionAsync(owner, "demo:diamond", seconds),
+                                                "Ошибка сервиса: ", res -> List.of(new Notif(owner,
+                                                        "Запущено: " + res.get("jobId").asText() + " (готово через " + seconds + "с)",
+                                                        ChatFormatting.GREEN)));
                                         return 1;
                                     })))
                     .then(Commands.literal("list")
                             .executes(ctx -> {
                                 ServerPlayer p = ctx.getSource().getPlayerOrException();
                                 if (!requireAuth(p)) return 0;
-                                try {
-                                    var list = EconHttp.listJobs(p.getUUID());
-                                    if (list.isEmpty()) {
-                                        p.sendSystemMessage(Component.literal("Нет заданий.")
-                                                .withStyle(ChatFormatting.GRAY));
-                                    } else {
-                                        long now = System.currentTimeMillis();
-                                        for (var j : list) {
-                                            long left = Math.max(0, j.endMs - now);
-                                            p.sendSystemMessage(Component.literal(
-                                                            "• " + j.jobId + " [" + j.status + "] ETA " + (left / 1000) + "с")
-                                                    .withStyle(ChatFormatting.YELLOW));
-                                        }
-                                    }
-                                } catch (Exception ex) {
-                                    p.sendSystemMessage(Component.literal("Ошибка сервиса: " + ex.getMessage())
-                                            .withStyle(ChatFormatting.RED));
-                                }
+                                UUID owner = p.getUUID();
+                                submit(p, "eco.list", () -> EconHttp.listJobsAsync(owner),
+                                        "Ошибка сервиса: ", list -> {
+                                            if (list.isEmpty()) {
+                                                return List.of(new Notif(owner, "Нет заданий.", ChatFormatting.GRAY));
+                                            }
+                                            long now = System.currentTimeMillis();
+                                            List<Notif> out = new ArrayList<>(list.size());
+                                            for (var j : list) {
+                                                long left = Math.max(0, j.endMs - now);
+                                                out.add(new Notif(owner,
+                                                        "• " + j.jobId + " [" + j.status + "] ETA " + (left / 1000) + "с",
+                                                        ChatFormatting.YELLOW));
+                                            }
+                                            return out;
+                                        });
                                 return 1;
                             }))
                     .then(Commands.literal("claim")
                             .executes(ctx -> {
                                 ServerPlayer p = ctx.getSource().getPlayerOrException();
                                 if (!requireAuth(p)) return 0;
-                                try {
-                                    int n = EconHttp.claim(p.getUUID());
-                                    if (n > 0) {
-                                        p.addItem(new ItemStack(Items.DIAMOND, n));
-                                        p.sendSystemMessage(Component.literal("Выдано алмазов: " + n)
-                                                .withStyle(ChatFormatting.GREEN));
-                                    } else {
-                                        p.sendSystemMessage(Component.literal("Наград нет.")
-                                                .withStyle(ChatFormatting.GRAY));
-                                    }
-                                } catch (Exception ex) {
-                                    p.sendSystemMessage(Component.literal("Ошибка сервиса: " + ex.getMessage())
-                                            .withStyle(ChatFormatting.RED));
-                                }
+                                UUID owner = p.getUUID();
+                                submit(p, "eco.claim", () -> EconHttp.claimAsync(owner),
+                                        "Ошибка сервиса: ", n -> {
+                                            if (n <= 0) return List.of(new Notif(owner, "Наград нет.", ChatFormatting.GRAY));
+                                            // предметы выдаём в главном треде вместе с сообщением
+                                            return List.of(new Notif(owner, "Выдано алмазов: " + n, ChatFormatting.GREEN, n));
+                                        });
                                 return 1;
                             }))
             );
         });
     }
 
+    /**
+     * Выполнить запрос к бэкенду вне главного треда. Пока такой же запрос игрока в полёте,
+     * повтор не отправляется. Результат (или ошибка) возвращается через очередь NOTIFS
+     * и выдаётся игроку в END_SERVER_TICK.
+     */
+    private static <T> void submit(ServerPlayer p, String op, Supplier<CompletableFuture<T>> call,
+                                   String errorPrefix, Function<T, List<Notif>> onResult) {
+        UUID owner = p.getUUID();
+        String key = owner + "|" + op;
+        if (!IN_FLIGHT.add(key)) {
+            p.sendSystemMessage(Component.literal("⌛ Предыдущий запрос ещё выполняется…")
+                    .withStyle(ChatFormatting.GRAY));
+            return;
+        }
+        CompletableFuture<T> f;
+        try {
+            f = call.get();
+        } catch (Exception e) {
+            IN_FLIGHT.remove(key);
+            p.sendSystemMessage(Component.literal(errorPrefix + e.getMessage()).withStyle(ChatFormatting.RED));
+            return;
+        }
+        f.whenComplete((res, err) -> {
+            IN_FLIGHT.remove(key);
+            if (err != null) {
+                Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                System.out.println("[EconMod] " + op + " failed for " + owner + ": " + cause.getMessage());
+                NOTIFS.add(new Notif(owner, errorPrefix + cause.getMessage(), ChatFormatting.RED));
+                return;
+            }
+            try {
+                NOTIFS.addAll(onResult.apply(res));
+            } catch (Exception e) {
+                NOTIFS.add(new Notif(owner, errorPrefix + e.getMessage(), ChatFormatting.RED));
+            }
+        });
+    }
+
+    /** Выдать алмазы; что не влезло в инвентарь — бросить под ноги, а не потерять. */
+    private static void giveDiamonds(ServerPlayer p, int n) {
+        int max = new ItemStack(Items.DIAMOND).getMaxStackSize();
+        int left = n;
+        while (left > 0) {
+            ItemStack stack = new ItemStack(Items.DIAMOND, Math.min(left, max));
+            left -= stack.getCount();
+            if (!p.getInventory().add(stack) && !stack.isEmpty()) p.drop(stack, false);
+        }
+    }
+
+    private static Path pendingRewardsFile() {
+        return FabricLoader.getInstance().getConfigDir().resolve(PENDING_FILE);
+    }
+
+    private static void loadPendingRewards() {
+        Path file = pendingRewardsFile();
+        if (!Files.exists(file)) return;
+        try {
+            JsonNode node = JSON.readTree(file.toFile());
+            node.fields().forEachRemaining(e -> {
+                try {
+                    int n = e.getValue().asInt(0);
+                    if (n > 0) PENDING_DIAMONDS.merge(UUID.fromString(e.getKey()), n, Integer::sum);
+                } catch (IllegalArgumentException ignored) {}
+            });
+            System.out.println("[EconMod] Pending rewards loaded for " + PENDING_DIAMONDS.size() + " players");
+        } catch (Exception e) {
+            System.out.println("[EconMod] Failed to read " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void savePendingRewards() {
+        Path file = pendingRewardsFile();
+        try {
+            Map<String, Integer> out = new TreeMap<>();
+            PENDING_DIAMONDS.forEach((k, v) -> out.put(k.toString(), v));
+            Path tmp = file.resolveSibling(PENDING_FILE + ".tmp");
+            JSON.writeValue(tmp.toFile(), out);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            System.out.println("[EconMod] Failed to save pending rewards " + PENDING_DIAMONDS + ": " + e.getMessage());
+        }
+    }
+
     private static boolean requireAuth(ServerPlayer p) {
         // SimpleAuth автоматически проверяет авторизацию
         // Неавторизованные игроки не могут выполнять команды
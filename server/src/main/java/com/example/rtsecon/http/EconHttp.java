@@ -12,20 +12,80 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class EconHttp {
     private static final String BASE = System.getProperty("econ.base", "http://5.129.245.85:8081");
     private static final ObjectMapper M = new ObjectMapper();
+    // небольшой фиксированный пул для HttpClient и разбора ответов (daemon — не держит остановку сервера)
+    private static final ExecutorService EXEC = Executors.newFixedThreadPool(4, r -> {
+        Thread t = new Thread(r, "econ-http");
+        t.setDaemon(true);
+        return t;
+    });
     private static final HttpClient C = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(5))
+            .executor(EXEC)
             .build();
 
     // ===== AUTH =====
     // Авторизация теперь управляется SimpleAuth модом
     // HTTP методы authRegister и authLogin удалены
 
+    // ===== ASYNC =====
+    // Запросы из команд идут через sendAsync: серверный тик не ждёт бэкенд.
+    // Одновременно в полёте не больше MAX_IN_FLIGHT запросов, ответы разбираются на маленьком пуле.
+    private static final int MAX_IN_FLIGHT = 64;
+    private static final Semaphore IN_FLIGHT = new Semaphore(MAX_IN_FLIGHT);
+
+    private static <T> CompletableFuture<T> sendAsync(HttpRequest rq, ResponseParser<T> parser) {
+        if (!IN_FLIGHT.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RuntimeException("Сервис перегружен, попробуйте позже"));
+        }
+        CompletableFuture<HttpResponse<String>> resp;
+        try {
+            resp = C.sendAsync(rq, HttpResponse.BodyHandlers.ofString());
+        } catch (Exception e) {
+            IN_FLIGHT.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        return resp.whenComplete((r, err) -> IN_FLIGHT.release())
+                .thenApplyAsync(r -> {
+                    try {
+                        if (r.statusCode() >= 300) throw new RuntimeException("HTTP " + r.statusCode() + ": " + r.body());
+                        return parser.parse(r.body());
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, EXEC);
+    }
+
+    @FunctionalInterface
+    private interface ResponseParser<T> {
+        T parse(String body) throws Exception;
+    }
+
+    /** Дождаться асинхронного запроса (для синхронных вызовов), с исходным исключением. */
+    private static <T> T await(CompletableFuture<T> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+            if (cause instanceof Exception ex) throw ex;
+            throw e;
+        }
+    }
+
     // ===== PRODUCTION =====
-    public static JsonNode startProduction(UUID owner, String recipeId, int seconds) throws Exception {
+    public static CompletableFuture<JsonNode> startProductionAsync(UUID owner, String recipeId, int seconds) {
         String body = String.format("{\"ownerUuid\":\"%s\",\"recipeId\":\"%s\",\"durationSeconds\":%d}",
                 owner, recipeId, seconds);
         HttpRequest rq = HttpRequest.newBuilder()
@@ -34,20 +94,23 @@ public class EconHttp {
                 .timeout(Duration.ofSeconds(10))
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
-        var resp = C.send(rq, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() >= 300) throw new RuntimeException("HTTP " + resp.statusCode() + ": " + resp.body());
-        
-        JsonNode response = M.readTree(resp.body());
-        
-        // Проверяем новый формат ответа с полем success
-        if (response.has("success") && !response.get("success").asBoolean()) {
-            // Ошибка валидации - извлекаем понятное сообщение
-            JsonNode error = response.path("error");
-            String message = error.path("message").asText("Неизвестная ошибка");
-            throw new RuntimeException(message);
-        }
-        
-        return response;
+        return sendAsync(rq, b -> {
+            JsonNode response = M.readTree(b);
+
+            // Проверяем новый формат ответа с полем success
+            if (response.has("success") && !response.get("success").asBoolean()) {
+                // Ошибка валидации - извлекаем понятное сообщение
+                JsonNode error = response.path("error");
+                String message = error.path("message").asText("Неизвестная ошибка");
+                throw new RuntimeException(message);
+            }
+
+            return response;
+        });
+    }
+
+    public static JsonNode startProduction(UUID owner, String recipeId, int seconds) throws Exception {
+        return await(startProductionAsync(owner, recipeId, seconds));
     }
 
     public static class Job {
@@ -57,26 +120,30 @@ public class EconHttp {
         public Job() {}
     }
 
-    public static List<Job> listJobs(UUID owner) throws Exception {
+    public static CompletableFuture<List<Job>> listJobsAsync(UUID owner) {
         HttpRequest rq = HttpRequest.newBuilder()
                 .uri(URI.create(BASE + "/api/v1/production/list?ownerUuid=" + owner))
                 .timeout(Duration.ofSeconds(10))
                 .GET().build();
-        var resp = C.send(rq, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() >= 300) throw new RuntimeException("HTTP " + resp.statusCode() + ": " + resp.body());
-        JsonNode arr = M.readTree(resp.body());
-        List<Job> out = new ArrayList<>();
-        for (var it : arr) {
-            Job j = new Job();
-            j.jobId = it.get("id").asText();
-            j.endMs = it.get("endMs").asLong();
-            j.status = it.get("status").asText();
-            out.add(j);
-        }
-        return out;
+        return sendAsync(rq, b -> {
+            JsonNode arr = M.readTree(b);
+            List<Job> out = new ArrayList<>();
+            for (var it : arr) {
+                Job j = new Job();
+                j.jobId = it.get("id").asText();
+                j.endMs = it.get("endMs").asLong();
+                j.status = it.get("status").asText();
+                out.add(j);
+            }
+            return out;
+        });
     }
 
-    public static int claim(UUID owner) throws Exception {
+    public static List<Job> listJobs(UUID owner) throws Exception {
+        return await(listJobsAsync(owner));
+    }
+
+    public static CompletableFuture<Integer> claimAsync(UUID owner) {
         String body = String.format("{\"ownerUuid\":\"%s\"}", owner);
         HttpRequest rq = HttpRequest.newBuilder()
                 .uri(URI.create(BASE + "/api/v1/production/claim"))
@@ -84,14 +151,15 @@ public class EconHttp {
                 .timeout(Duration.ofSeconds(10))
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
-        var resp = C.send(rq, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() >= 300) throw new RuntimeException("HTTP " + resp.statusCode() + ": " + resp.body());
-        JsonNode j = M.readTree(resp.body());
-        return j.get("claimed").asInt();
+        return sendAsync(rq, b -> M.readTree(b).get("claimed").asInt());
+    }
+
+    public static int claim(UUID owner) throws Exception {
+        return await(claimAsync(owner));
     }
 
     // ===== SKILLS (actions) =====
-    public static JsonNode trainSkill(UUID owner, String skillId) throws Exception {
+    public static CompletableFuture<JsonNode> trainSkillAsync(UUID owner, String skillId) {
         String body = String.format("{\"ownerUuid\":\"%s\",\"skillId\":\"%s\"}", owner, skillId);
         HttpRequest rq = HttpRequest.newBuilder()
                 .uri(URI.create(BASE + "/api/v1/skills/train"))
@@ -99,45 +167,62 @@ public class EconHttp {
                 .timeout(Duration.ofSeconds(10))
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
-        var resp = C.send(rq, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() >= 300) throw new RuntimeException("HTTP " + resp.statusCode() + ": " + resp.body());
-        return M.readTree(resp.body());
+        return sendAsync(rq, M::readTree);
     }
 
-    public static JsonNode skillStatus(UUID owner) throws Exception {
+    public static JsonNode trainSkill(UUID owner, String skillId) throws Exception {
+        return await(trainSkillAsync(owner, skillId));
+    }
+
+    public static CompletableFuture<JsonNode> skillStatusAsync(UUID owner) {
         HttpRequest rq = HttpRequest.newBuilder()
                 .uri(URI.create(BASE + "/api/v1/skills/status?ownerUuid=" + owner))
                 .timeout(Duration.ofSeconds(10))
                 .GET().build();
-        var resp = C.send(rq, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() >= 300) throw new RuntimeException("HTTP " + resp.statusCode() + ": " + resp.body());
-        return M.readTree(resp.body());
+        return sendAsync(rq, M::readTree);
     }
 
-    public static JsonNode skillLevel(UUID owner, String skillId) throws Exception {
+    public static JsonNode skillStatus(UUID owner) throws Exception {
+        return await(skillStatusAsync(owner));
+    }
+
+    /** Все уровни навыков и активная тренировка одним запросом: {etag, levels, current}. */
+    public static CompletableFuture<JsonNode> skillStateAsync(UUID owner) {
+        HttpRequest rq = HttpRequest.newBuilder()
+                .uri(URI.create(BASE + "/api/v1/skills/state?ownerUuid=" + owner))
+                .timeout(Duration.ofSeconds(10))
+                .GET().build();
+        return sendAsync(rq, b -> {
+            JsonNode state = M.readTree(b);
+            // заодно прогреваем кэш уровней всех навыков игрока
+            state.path("levels").fields().forEachRemaining(e ->
+                    LEVEL_CACHE.put(owner + ":" + e.getKey(), new SkillLevelCache(e.getValue().asInt(0))));
+            return state;
+        });
+    }
+
+    public static JsonNode skillState(UUID owner) throws Exception {
+        return await(skillStateAsync(owner));
+    }
+
+    /** Уровень навыка: из кэша сразу, при промахе — после одного запроса состояния всех навыков. */
+    public static CompletableFuture<JsonNode> skillLevelAsync(UUID owner, String skillId) {
         String cacheKey = owner + ":" + skillId;
         SkillLevelCache cached = LEVEL_CACHE.get(cacheKey);
         
         // Возвращаем из кэша если не истек
         if (cached != null && !cached.isExpired()) {
-            return M.createObjectNode().put("level", cached.level);
+            return CompletableFuture.completedFuture(M.createObjectNode().put("level", cached.level));
         }
-        
-        // Запрос к серверу
-        HttpRequest rq = HttpRequest.newBuilder()
-                .uri(URI.create(BASE + "/api/v1/skills/level?ownerUuid=" + owner + "&skillId=" + skillId))
-                .timeout(Duration.ofSeconds(10))
-                .GET().build();
-        var resp = C.send(rq, HttpResponse.BodyHandlers.ofString());
-        if (resp.statusCode() >= 300) throw new RuntimeException("HTTP " + resp.statusCode() + ": " + resp.body());
-        
-        JsonNode result = M.readTree(resp.body());
-        
-        // Кэшируем результат
-        int level = result.get("level").asInt();
-        LEVEL_CACHE.put(cacheKey, new SkillLevelCache(level));
-        
-        return result;
+        // Промах — подтягиваем состояние всех навыков разом, а не по одному
+        return skillStateAsync(owner).thenApply(state -> {
+            SkillLevelCache fresh = LEVEL_CACHE.get(cacheKey);
+            return M.createObjectNode().put("level", fresh != null ? fresh.level : 0);
+        });
+    }
+
+    public static JsonNode skillLevel(UUID owner, String skillId) throws Exception {
+        return await(skillLevelAsync(owner, skillId));
     }
 
     // ===== SKILLS CATALOG (cached by ETag) =====